@@ -53,6 +53,37 @@ public @interface AutoDelegate {
    */
   Class<?> extend() default Object.class;
 
+  /**
+   * Whether all delegates are the same object, stored in a single field.
+   *
+   * <p>When {@code true}, all {@link Delegate}s must have the same {@linkplain Delegate#name()
+   * name}, and no mode, locking, concurrency limit or tracing. The generated class then has a type
+   * parameter {@code D} bounded by all the interfaces (e.g. {@code <D extends I1 & I2>}), a single
+   * {@code protected final D} field, and constructors taking a single delegate.
+   *
+   * @return Whether all delegates are the same object, stored in a single field.
+   */
+  boolean compact() default false;
+
+  /**
+   * Whether instances of the generated class can be re-pointed at other delegates.
+   *
+   * <p>When {@code true}, all {@link Delegate}s must have no mode nor single-flight methods. The
+   * delegate fields are then not {@code final}, and the generated class has a {@code public final
+   * void reset(…)} method, taking the same delegates as the constructors (but not the executors
+   * they may also take, which are kept), and a {@code public final void release()} method clearing
+   * them. Both methods also clear the cached results of {@linkplain Delegate#stable() stable}
+   * methods. This allows keeping instances in a pool or a {@link ThreadLocal} rather than
+   * allocating one per use.
+   *
+   * <p>Instances aren't thread-safe: the fields are read and written plainly, so an instance must
+   * only be used by the thread that last reset it. When assertions are enabled, delegated methods
+   * check that the instance hasn't been released.
+   *
+   * @return Whether instances of the generated class can be re-pointed at other delegates.
+   */
+  boolean reusable() default false;
+
   /** Specifies an interface to be implemented by the generated class. */
   @Target({})
   @Retention(RetentionPolicy.SOURCE)
@@ -60,6 +91,12 @@ public @interface AutoDelegate {
     /**
      * The interface to be implemented by the generated class.
      *
+     * <p>This can also be an abstract class (at most one per {@link AutoDelegate}), that the
+     * generated class will then extend, inheriting its constructors. All its public non-final
+     * methods are forwarded to the delegate, including the concrete ones, so that e.g. bulk
+     * methods of an {@link java.io.InputStream} keep their fast path. An abstract class cannot be
+     * combined with {@link AutoDelegate#extend()} or {@link AutoDelegate#compact()}.
+     *
      * @return The interface to be implemented by the generated class.
      */
     Class<?> value();
@@ -70,5 +107,575 @@ public @interface AutoDelegate {
      * @return The protected field name holding the delegate in the generated class.
      */
     String name();
+
+    /**
+     * The names of the zero-argument methods of the {@linkplain #value() interface} whose result
+     * never changes for a given delegate.
+     *
+     * <p>The generated class calls the delegate the first time such a method is called, then
+     * caches the result and returns it on subsequent calls. The cache is lock-free: if several
+     * threads race on the first call, the delegate can be called more than once. Exceptions are
+     * never cached.
+     *
+     * @return The names of the zero-argument methods whose result is cached.
+     */
+    String[] stable() default {};
+
+    /**
+     * Whether the delegate is lazily initialized.
+     *
+     * <p>When {@code true}, the generated constructors take a {@link java.util.function.Supplier}
+     * of the delegate rather than the delegate itself, and the supplier is only called the first
+     * time the delegate is needed. The delegate is then exposed to subclasses through a protected
+     * method named after the {@link #name() name} rather than a protected field.
+     *
+     * @return Whether the delegate is lazily initialized.
+     */
+    boolean lazy() default false;
+
+    /**
+     * Whether the delegate can be replaced at runtime.
+     *
+     * <p>When {@code true}, the generated class gets public {@code swap} and {@code
+     * compareAndSwap} methods to replace the delegate. The delegate is published with release
+     * semantics and read with acquire semantics, so calls already in progress finish on the
+     * previous delegate. The delegate is exposed to subclasses through a protected method named
+     * after the {@link #name() name} rather than a protected field.
+     *
+     * <p>This requires Java 9 or later, and cannot be combined with {@link #stable()}.
+     *
+     * @return Whether the delegate can be replaced at runtime.
+     */
+    boolean swappable() default false;
+
+    /**
+     * Whether calls are spread over several delegates.
+     *
+     * <p>When {@code true}, the generated constructors take an array of delegates whose length
+     * must be a power of two, and each call is routed to one of them: methods with a parameter
+     * annotated with {@link ShardKey} use a hash of that parameter, other methods use the {@link
+     * #shardFallback() fallback policy}. This allows spreading contended, non-thread-safe state
+     * over several independent delegates.
+     *
+     * @return Whether calls are spread over several delegates.
+     */
+    boolean sharded() default false;
+
+    /**
+     * How {@linkplain #sharded() sharded} calls without a {@link ShardKey} are routed.
+     *
+     * @return How sharded calls without a shard key are routed.
+     */
+    ShardFallback shardFallback() default ShardFallback.FIRST;
+
+    /**
+     * Whether calls are broadcast to several delegates.
+     *
+     * <p>When {@code true}, the generated constructors take an array of delegates, held in a {@code
+     * net.ltgt.auto.delegate.runtime.Composite} exposed through a public method named {@code
+     * <name>Composite}, that allows replacing, adding or removing delegates without locking. Calls
+     * to methods returning {@code void} are {@linkplain #compositeDispatch() dispatched} to every
+     * delegate; calls to other methods are made serially and their results are {@linkplain
+     * #compositeReduction() reduced} to a single value. This is meant for listeners and other
+     * sinks.
+     *
+     * <p>This requires the {@code net.ltgt.auto.delegate:auto-delegate-runtime} library, and
+     * cannot be combined with {@link #stable()}, {@link #locking()} or {@link #prefetch()}.
+     *
+     * @return Whether calls are broadcast to several delegates.
+     */
+    boolean composite() default false;
+
+    /**
+     * How calls to methods returning {@code void} are dispatched to {@linkplain #composite()
+     * composite} delegates.
+     *
+     * <p>When not {@link CompositeDispatch#SERIAL SERIAL}, the generated constructors take an
+     * additional {@link java.util.concurrent.Executor} parameter named {@code <name>Executor}.
+     *
+     * @return How calls to methods returning {@code void} are dispatched to composite delegates.
+     */
+    CompositeDispatch compositeDispatch() default CompositeDispatch.SERIAL;
+
+    /**
+     * How the results of calls to methods not returning {@code void} are reduced, for {@linkplain
+     * #composite() composite} delegates.
+     *
+     * @return How the results of calls to methods not returning {@code void} are reduced.
+     */
+    CompositeReduction compositeReduction() default CompositeReduction.FIRST_NON_NULL;
+
+    /**
+     * Whether calls are balanced across interchangeable replicas of the delegate.
+     *
+     * <p>When {@code true}, the generated constructors take an array of replicas (e.g. clients of
+     * several read replicas of a database), and each call goes to the better of two replicas
+     * picked at random, comparing their number of calls in flight weighted by their average
+     * latency. Replicas whose average latency exceeds {@link #balanceEjectionFactor()} times the
+     * one of the fastest other replica are removed from rotation for {@link
+     * #balanceEjectionMillis()}. The generated class has a public method named {@code
+     * <name>Balancer} exposing the state of each replica. See {@code
+     * net.ltgt.auto.delegate.runtime.Balancer} for details.
+     *
+     * <p>This requires the {@code net.ltgt.auto.delegate:auto-delegate-runtime} library, and
+     * cannot be combined with {@link #locking()}.
+     *
+     * @return Whether calls are balanced across replicas of the delegate.
+     */
+    boolean balanced() default false;
+
+    /**
+     * How many times slower than the fastest other replica a {@linkplain #balanced() balanced}
+     * replica has to be to be removed from rotation; must be greater than 1.
+     *
+     * @return How many times slower than the fastest other replica a replica is removed from
+     *     rotation.
+     */
+    double balanceEjectionFactor() default 3;
+
+    /**
+     * How long a {@linkplain #balanced() balanced} replica is removed from rotation, in
+     * milliseconds.
+     *
+     * @return How long a replica is removed from rotation, in milliseconds.
+     */
+    long balanceEjectionMillis() default 10_000;
+
+    /**
+     * Whether the delegate lives in another process, such as a sidecar.
+     *
+     * <p>When {@code true}, the generated constructors take a {@link
+     * java.nio.channels.ByteChannel} rather than a delegate, typically a blocking {@link
+     * java.nio.channels.SocketChannel} connected to a {@code java.net.UnixDomainSocketAddress}
+     * (Java 16 or later), and each call is encoded in a compact binary request sent over that
+     * channel, with concurrent calls pipelined. The generated class has a public static method
+     * named {@code <name>Skeleton} taking a delegate and returning the dispatcher serving those
+     * requests in the other process, and a public method named {@code <name>Remote} exposing the
+     * client. Methods are identified by their index among the methods of the interface, so both
+     * processes must use classes generated from the same version of the interface. See {@code
+     * net.ltgt.auto.delegate.runtime.RemoteClient} and {@code
+     * net.ltgt.auto.delegate.runtime.RemoteServer} for details.
+     *
+     * <p>Methods can only take and return primitives, strings and byte arrays. Exceptions thrown
+     * by the delegate are rethrown as {@code net.ltgt.auto.delegate.runtime.RemoteException}.
+     *
+     * <p>This requires the {@code net.ltgt.auto.delegate:auto-delegate-runtime} library.
+     *
+     * @return Whether the delegate lives in another process.
+     */
+    boolean remote() default false;
+
+    /**
+     * Whether each thread uses its own delegate.
+     *
+     * <p>When not {@link PerThread#NONE NONE}, the generated constructors take a {@link
+     * java.util.function.Supplier} of delegates rather than a delegate, and delegates are created
+     * as needed so that a delegate is never used by two threads at the same time. This is meant for
+     * delegates that are not thread-safe.
+     *
+     * @return Whether each thread uses its own delegate.
+     */
+    PerThread perThread() default PerThread.NONE;
+
+    /**
+     * The maximum number of delegates in a pool, or 0 if the delegate is not pooled.
+     *
+     * <p>When pooled, the generated constructors take a {@link java.util.function.Supplier} of
+     * delegates rather than a delegate, and each call borrows a delegate from the pool (creating
+     * it if there's no idle delegate) and returns it to the pool afterwards. A call that cannot
+     * borrow a delegate within the {@link #poolTimeoutMillis() timeout} is rejected with a {@link
+     * java.util.concurrent.RejectedExecutionException}.
+     *
+     * <p>The generated class has protected {@code validate<Name>} and {@code destroy<Name>}
+     * methods, called to check an idle delegate before it's borrowed and to dispose of it if it
+     * isn't valid (or, rarely, if there's no room left for it in the pool), and public methods
+     * exposing the pool saturation: {@code <name>PoolInUse}, {@code <name>PoolWaiting} and {@code
+     * <name>PoolRejected}.
+     *
+     * @return The maximum number of delegates in a pool, or 0 if the delegate is not pooled.
+     */
+    int poolSize() default 0;
+
+    /**
+     * How long a call waits for a {@linkplain #poolSize() pooled} delegate, in milliseconds, when
+     * all delegates are in use; 0 to fail immediately.
+     *
+     * @return How long a call waits for a pooled delegate, in milliseconds.
+     */
+    long poolTimeoutMillis() default 0;
+
+    /**
+     * The names of the methods whose concurrent calls with equal arguments are deduplicated.
+     *
+     * <p>While a call to such a method is in flight, other calls with equal arguments (as per
+     * {@link Object#equals(Object)}, so arrays are compared by identity) don't call the delegate
+     * but wait for that call and share its result or exception. The methods must not be
+     * overloaded or generic.
+     *
+     * @return The names of the methods whose concurrent calls with equal arguments are
+     *     deduplicated.
+     */
+    String[] singleFlight() default {};
+
+    /**
+     * The maximum number of concurrent calls into the delegate, or 0 if unbounded.
+     *
+     * <p>When bounded, calls beyond the limit wait up to {@link #concurrencyTimeoutMillis()} for
+     * another call to complete and are otherwise rejected with a {@link
+     * java.util.concurrent.RejectedExecutionException}. The generated class has a public {@code
+     * <name>Bulkhead} method exposing the limit, queue depth and rejections.
+     *
+     * <p>This requires the {@code net.ltgt.auto.delegate:auto-delegate-runtime} library.
+     *
+     * @return The maximum number of concurrent calls into the delegate, or 0 if unbounded.
+     */
+    int maxConcurrency() default 0;
+
+    /**
+     * Whether the {@linkplain #maxConcurrency() concurrency limit} adapts to the latency of the
+     * delegate, between 1 and the maximum.
+     *
+     * @return Whether the concurrency limit adapts to the latency of the delegate.
+     */
+    boolean adaptiveConcurrency() default false;
+
+    /**
+     * How long a call waits when the {@linkplain #maxConcurrency() concurrency limit} is reached,
+     * in milliseconds; 0 to reject it immediately.
+     *
+     * @return How long a call waits when the concurrency limit is reached, in milliseconds.
+     */
+    long concurrencyTimeoutMillis() default 0;
+
+    /**
+     * The names of the idempotent methods whose calls are hedged across replicas of the delegate.
+     *
+     * <p>When non-empty, the generated constructors take an array of replicas (the first one being
+     * the primary) and an {@link java.util.concurrent.Executor} named {@code <name>Executor}, on
+     * which hedged calls are run. A hedged call is sent to the primary and, if it hasn't completed
+     * after the {@linkplain #hedgeDelayMillis() hedge delay}, to another replica; the first
+     * successful result wins. Other methods are only called on the primary. The generated class
+     * has a public {@code <name>Hedger} method exposing the number of calls and hedged calls.
+     *
+     * <p>This requires the {@code net.ltgt.auto.delegate:auto-delegate-runtime} library.
+     *
+     * @return The names of the idempotent methods whose calls are hedged across replicas of the
+     *     delegate.
+     */
+    String[] hedged() default {};
+
+    /**
+     * The delay after which a {@linkplain #hedged() hedged} call is sent to another replica, in
+     * milliseconds; 0 to use the {@linkplain #hedgePercentile() percentile} of the observed
+     * latencies.
+     *
+     * @return The delay after which a hedged call is sent to another replica, in milliseconds.
+     */
+    long hedgeDelayMillis() default 0;
+
+    /**
+     * The percentile of the observed latencies used as the {@linkplain #hedgeDelayMillis() hedge
+     * delay} when it's not fixed.
+     *
+     * @return The percentile of the observed latencies used as the hedge delay.
+     */
+    double hedgePercentile() default 95;
+
+    /**
+     * The maximum number of calls sent to another replica, as a percentage of {@linkplain
+     * #hedged() hedged} calls.
+     *
+     * @return The maximum number of calls sent to another replica, as a percentage of hedged
+     *     calls.
+     */
+    int hedgeBudgetPercent() default 10;
+
+    /**
+     * The fraction of calls mirrored to a shadow delegate, between 0 and 1; 0 if there's no shadow
+     * delegate.
+     *
+     * <p>When positive, the generated constructors take, besides the (primary) delegate, a shadow
+     * delegate named {@code <name>Shadow} and an {@link java.util.concurrent.Executor} named
+     * {@code <name>ShadowExecutor}. Calls go to the primary delegate, and a sample of the
+     * successful calls is replayed against the shadow delegate on the executor, without affecting
+     * the results. The generated class has a public {@code <name>Shadow} method exposing the
+     * latencies and result mismatches of each method.
+     *
+     * <p>Sampled calls are replayed after the primary call returned, with the same arguments, so
+     * the methods must only take immutable arguments; methods taking arrays are rejected.
+     *
+     * <p>This requires the {@code net.ltgt.auto.delegate:auto-delegate-runtime} library.
+     *
+     * @return The fraction of calls mirrored to a shadow delegate.
+     */
+    double shadowSampleRate() default 0;
+
+    /**
+     * The maximum number of calls pending on the {@linkplain #shadowSampleRate() shadow delegate};
+     * further sampled calls are dropped.
+     *
+     * @return The maximum number of calls pending on the shadow delegate.
+     */
+    int shadowQueueCapacity() default 1024;
+
+    /**
+     * Whether calls to the delegate are traced.
+     *
+     * <p>When enabled through system properties at runtime, each call is recorded (start time,
+     * thread, duration and whether it threw) into a ring buffer in a memory-mapped file, that can
+     * be decoded into CSV or JSON, even after the process crashed. See {@code
+     * net.ltgt.auto.delegate.runtime.Trace} for details.
+     *
+     * <p>This requires the {@code net.ltgt.auto.delegate:auto-delegate-runtime} library.
+     *
+     * @return Whether calls to the delegate are traced.
+     */
+    boolean traced() default false;
+
+    /**
+     * Whether calls to the delegate can be instrumented at runtime.
+     *
+     * <p>When {@code true}, forwarders call the delegate through a method handle guarded by a
+     * {@link java.lang.invoke.SwitchPoint}, so that they compile down to plain calls to the
+     * delegate until instrumentation is enabled at runtime, and are then deoptimized to count
+     * calls, failures and their cumulated duration. See {@code
+     * net.ltgt.auto.delegate.runtime.Instrumentation} for details.
+     *
+     * <p>This requires the {@code net.ltgt.auto.delegate:auto-delegate-runtime} library, and
+     * cannot be combined with other modes than {@link #lazy()}, {@link #swappable()} and {@link
+     * PerThread#THREAD_LOCAL}, nor with {@link #scattered()} methods. Generic methods cannot be
+     * instrumented.
+     *
+     * @return Whether calls to the delegate can be instrumented at runtime.
+     */
+    boolean instrumented() default false;
+
+    /**
+     * The timeout of calls to the delegate, in milliseconds; 0 for no timeout.
+     *
+     * <p>Each call then runs on an {@link java.util.concurrent.Executor} passed to the
+     * constructors, while the calling thread waits for it until the deadline; past the deadline,
+     * the call is interrupted and abandoned, and a {@code
+     * net.ltgt.auto.delegate.runtime.DeadlineExceededException} is thrown. The deadline is passed
+     * down to the call, and bounds nested calls through other delegates with a timeout. Stable
+     * methods are not subject to the timeout.
+     *
+     * <p>This is only supported for delegates without mode, or lazy or swappable ones, cannot be
+     * combined with {@link #locking()} (the lock would be released while an abandoned call still
+     * runs), and requires the {@code net.ltgt.auto.delegate:auto-delegate-runtime} library.
+     *
+     * @return The timeout of calls to the delegate, in milliseconds.
+     */
+    long timeoutMillis() default 0;
+
+    /**
+     * The names of the methods subject to the {@link #timeoutMillis()}; all methods if empty.
+     *
+     * @return The names of the methods subject to the timeout.
+     */
+    String[] timed() default {};
+
+    /**
+     * The number of elements to read ahead from the {@link java.util.Iterator}, {@link Iterable}
+     * and {@link java.util.stream.Stream} returned by delegated methods; 0 to not read ahead.
+     *
+     * <p>The results of those methods are then read on an {@link java.util.concurrent.Executor}
+     * passed to the constructors, into a bounded buffer, so that reading them overlaps with the
+     * processing of their elements. Reading stops when the iterator or stream is closed, or garbage
+     * collected. See {@code net.ltgt.auto.delegate.runtime.PrefetchingIterator} for details.
+     *
+     * <p>This requires the {@code net.ltgt.auto.delegate:auto-delegate-runtime} library.
+     *
+     * @return The number of elements to read ahead.
+     */
+    int prefetch() default 0;
+
+    /**
+     * The names of the bulk methods whose calls are split into chunks processed concurrently.
+     *
+     * <p>Such a method must take exactly one {@link java.util.List}, {@link java.util.Collection}
+     * or array parameter, and return {@code void}, a {@link java.util.List}, a {@link
+     * java.util.Collection} or a {@link java.util.Map}. When that parameter has more than {@link
+     * #scatterChunkSize()} elements, the delegate is called for each chunk of it, concurrently, on
+     * an {@link java.util.concurrent.Executor} passed to the constructors (e.g. a {@link
+     * java.util.concurrent.ForkJoinPool} or one creating a virtual thread per task), and the
+     * results are merged in input order. The first failure is thrown as soon as it
+     * happens, interrupting the other chunks. See {@code
+     * net.ltgt.auto.delegate.runtime.ScatterGather} for details.
+     *
+     * <p>The delegate must then support concurrent calls; all chunks of a call go to the delegate
+     * seen by the calling thread. This requires the {@code
+     * net.ltgt.auto.delegate:auto-delegate-runtime} library, and can only be used with plain,
+     * {@linkplain #lazy() lazy} or {@linkplain #swappable() swappable} delegates, without a
+     * {@linkplain #timeoutMillis() timeout}.
+     *
+     * @return The names of the bulk methods whose calls are split into chunks.
+     */
+    String[] scattered() default {};
+
+    /**
+     * The maximum number of elements of a chunk of a {@linkplain #scattered() scattered} call.
+     *
+     * @return The maximum number of elements of a chunk of a scattered call.
+     */
+    int scatterChunkSize() default 1000;
+
+    /**
+     * The maximum number of chunks of a {@linkplain #scattered() scattered} call processed
+     * concurrently; 0 to use the number of available processors.
+     *
+     * @return The maximum number of chunks of a scattered call processed concurrently.
+     */
+    int scatterParallelism() default 0;
+
+    /**
+     * Decorators stacked in front of the delegate, outermost first, to be fused into the generated
+     * class.
+     *
+     * <p>Each decorator must be a final class of the same package, annotated with {@link
+     * AutoDelegate} and delegating the same interface to a plain field (i.e. without mode). The
+     * generated constructors then take the outermost decorator, and walk the stack once to keep a
+     * reference to each decorator and to the innermost delegate; they throw a {@link
+     * ClassCastException} if the stack doesn't match the declared one.
+     *
+     * <p>Each delegated method is then called directly on the outermost decorator that overrides
+     * it, or on the innermost delegate if no decorator overrides it, skipping the decorators that
+     * would only forward the call. Decorators whose delegate has options other than its name (e.g.
+     * {@link #traced()} or {@link #maxConcurrency()}) are considered to override every method.
+     * Below the first decorator that overrides a method, calls go through the stack as usual.
+     *
+     * @return Decorators stacked in front of the delegate, outermost first.
+     */
+    Class<?>[] fused() default {};
+
+    /**
+     * How calls to a delegate that is not thread-safe are guarded.
+     *
+     * <p>Each delegate (or each shard of a {@linkplain #sharded() sharded} delegate) is guarded by
+     * its own {@link java.util.concurrent.locks.StampedLock}. Methods listed in {@link #readOnly()}
+     * take a read lock, or first try an optimistic read with {@link Locking#OPTIMISTIC_READ}; all
+     * other methods take the write lock.
+     *
+     * @return How calls to the delegate are guarded.
+     */
+    Locking locking() default Locking.NONE;
+
+    /**
+     * The names of the methods of the {@linkplain #value() interface} that don't modify the
+     * delegate state; all other methods are considered mutators when {@linkplain #locking()
+     * locking}.
+     *
+     * @return The names of the methods that don't modify the delegate state.
+     */
+    String[] readOnly() default {};
+  }
+
+  /**
+   * Marks the parameter of a delegated method whose hash selects the delegate a {@linkplain
+   * Delegate#sharded() sharded} call is routed to.
+   */
+  @Target(ElementType.PARAMETER)
+  @Retention(RetentionPolicy.CLASS)
+  @interface ShardKey {}
+
+  /** How {@linkplain Delegate#sharded() sharded} calls without a {@link ShardKey} are routed. */
+  enum ShardFallback {
+    /** Routes the call to the first delegate. */
+    FIRST,
+    /** Routes the call to a delegate selected from a hash of the current thread. */
+    CURRENT_THREAD,
+    /** Calls every delegate in turn; only applicable to methods returning {@code void}. */
+    ALL,
+    /** Throws an {@link UnsupportedOperationException}. */
+    UNSUPPORTED,
+  }
+
+  /**
+   * How calls to methods returning {@code void} are dispatched to {@linkplain Delegate#composite()
+   * composite} delegates.
+   *
+   * <p>Whatever the dispatch, a failing delegate doesn't prevent the other delegates from being
+   * called: the first exception is rethrown once all delegates have been called, with the other
+   * ones {@linkplain Throwable#addSuppressed(Throwable) suppressed}.
+   */
+  enum CompositeDispatch {
+    /** Calls every delegate in turn, on the calling thread. */
+    SERIAL,
+    /** Calls every delegate in parallel, on the executor, and waits for all of them. */
+    PARALLEL,
+    /**
+     * Calls every delegate in parallel, on the executor, without waiting.
+     *
+     * <p>Exceptions are then reported to the uncaught exception handler of the thread the call ran
+     * on.
+     */
+    ASYNC,
+  }
+
+  /**
+   * How the results of calls to methods not returning {@code void} are reduced, for {@linkplain
+   * Delegate#composite() composite} delegates.
+   *
+   * <p>Delegates are called in turn, on the calling thread, and exceptions are propagated as-is.
+   */
+  enum CompositeReduction {
+    /**
+     * Returns the first non-null result, without calling the subsequent delegates; or {@code null}
+     * if all delegates returned {@code null}. Only applicable to methods returning a reference
+     * type.
+     */
+    FIRST_NON_NULL,
+    /**
+     * Returns {@code true} if all delegates returned {@code true}, without calling the subsequent
+     * delegates as soon as one returns {@code false}. Only applicable to methods returning {@code
+     * boolean}.
+     */
+    ALL_TRUE,
+    /**
+     * Combines the results of all delegates, in turn, with a protected abstract {@code
+     * combine<Method>} method of the generated class, taking the result so far and the result of
+     * the next delegate. Throws a {@link java.util.NoSuchElementException} if there's no delegate.
+     */
+    COMBINE,
+  }
+
+  /** How calls to a {@link Delegate} are guarded against concurrent modifications. */
+  enum Locking {
+    /** Calls are not guarded; the delegate is either thread-safe or confined to a thread. */
+    NONE,
+    /** Read-only methods take a read lock, other methods take a write lock. */
+    READ_WRITE,
+    /**
+     * Read-only methods first run without locking and only take a read lock if a write happened
+     * concurrently, other methods take a write lock.
+     *
+     * <p>This is only safe if read-only methods of the delegate can run concurrently with a
+     * mutator without looping forever or corrupting its state: their results and exceptions are
+     * discarded when a concurrent write is detected.
+     */
+    OPTIMISTIC_READ,
+  }
+
+  /** How {@link Delegate#perThread() per-thread delegates} are associated with threads. */
+  enum PerThread {
+    /** A single delegate is shared by all threads. */
+    NONE,
+    /**
+     * Each thread has its own delegate, stored in a {@link ThreadLocal}.
+     *
+     * <p>The delegate is exposed to subclasses through a protected method named after the {@link
+     * Delegate#name() name} rather than a protected field.
+     */
+    THREAD_LOCAL,
+    /**
+     * Delegates are stored in a fixed number of stripes, proportional to the number of available
+     * processors, and each call takes the delegate out of a stripe selected from a hash of the
+     * current thread for the duration of the call.
+     *
+     * <p>Unlike {@link #THREAD_LOCAL}, the number of delegates doesn't grow with the number of
+     * threads, which makes it suitable for virtual threads. Subclasses can only access the
+     * delegates through the generated methods.
+     */
+    STRIPED,
   }
 }
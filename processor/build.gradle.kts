@@ -34,6 +34,7 @@ testing {
         named<JvmTestSuite>("test") {
             dependencies {
                 implementation(projects.annotations)
+                implementation(projects.runtime)
                 implementation(libs.compileTesting)
                 implementation(libs.truth)
             }
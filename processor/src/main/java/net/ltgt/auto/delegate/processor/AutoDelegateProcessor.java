@@ -16,27 +16,61 @@
 package net.ltgt.auto.delegate.processor;
 
 import static com.squareup.javapoet.CodeBlock.joining;
+import static java.util.stream.Collectors.collectingAndThen;
 import static java.util.stream.Collectors.toList;
 
 import com.google.auto.service.AutoService;
 import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.channels.ByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.Processor;
@@ -49,11 +83,17 @@ import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.Name;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.ErrorType;
 import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
 import net.ltgt.gradle.incap.IncrementalAnnotationProcessor;
 import net.ltgt.gradle.incap.IncrementalAnnotationProcessorType;
@@ -68,6 +108,28 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 @IncrementalAnnotationProcessor(IncrementalAnnotationProcessorType.ISOLATING)
 public class AutoDelegateProcessor extends AbstractProcessor {
   static final String AUTO_DELEGATE_TYPE_NAME = "net.ltgt.auto.delegate.AutoDelegate";
+  private static final String SHARD_KEY_TYPE_NAME = AUTO_DELEGATE_TYPE_NAME + ".ShardKey";
+  private static final String VAR_HANDLE_TYPE_NAME = "java.lang.invoke.VarHandle";
+  private static final String RUNTIME_PACKAGE_NAME = "net.ltgt.auto.delegate.runtime";
+  private static final ClassName BULKHEAD = ClassName.get(RUNTIME_PACKAGE_NAME, "Bulkhead");
+  private static final ClassName HEDGER = ClassName.get(RUNTIME_PACKAGE_NAME, "Hedger");
+  private static final ClassName SHADOW = ClassName.get(RUNTIME_PACKAGE_NAME, "Shadow");
+  private static final ClassName TRACE = ClassName.get(RUNTIME_PACKAGE_NAME, "Trace");
+  private static final ClassName INSTRUMENTATION =
+      ClassName.get(RUNTIME_PACKAGE_NAME, "Instrumentation");
+  private static final ClassName DEADLINE = ClassName.get(RUNTIME_PACKAGE_NAME, "Deadline");
+  private static final ClassName COMPOSITE = ClassName.get(RUNTIME_PACKAGE_NAME, "Composite");
+  private static final ClassName BALANCER = ClassName.get(RUNTIME_PACKAGE_NAME, "Balancer");
+  private static final ClassName REMOTE_CLIENT =
+      ClassName.get(RUNTIME_PACKAGE_NAME, "RemoteClient");
+  private static final ClassName REMOTE_MESSAGE =
+      ClassName.get(RUNTIME_PACKAGE_NAME, "RemoteMessage");
+  private static final ClassName REMOTE_DISPATCHER =
+      ClassName.get(RUNTIME_PACKAGE_NAME, "RemoteServer", "Dispatcher");
+  private static final ClassName SCATTER_GATHER =
+      ClassName.get(RUNTIME_PACKAGE_NAME, "ScatterGather");
+  private static final ClassName PREFETCHING_ITERATOR =
+      ClassName.get(RUNTIME_PACKAGE_NAME, "PrefetchingIterator");
 
   @Override
   public SourceVersion getSupportedSourceVersion() {
@@ -76,6 +138,15 @@ public class AutoDelegateProcessor extends AbstractProcessor {
 
   private final List<String> deferredTypeNames = new ArrayList<>();
 
+  /**
+   * The forwardable methods of delegated types, computed at most once per round.
+   *
+   * <p>This is cleared at each round as {@link TypeElement}s aren't guaranteed to be the same (or
+   * complete) from one round to the next, and doesn't outlive the processor instance, so that it
+   * never depends on anything other than the processed elements.
+   */
+  private final Map<TypeElement, List<ExecutableElement>> forwardableMethods = new HashMap<>();
+
   private TypeElement annotationType;
   private TypeElement javaLangObject;
   private AnnotationSpec generatedAnnotation;
@@ -108,6 +179,7 @@ public class AutoDelegateProcessor extends AbstractProcessor {
                   + " because the annotation class was not found");
       return false;
     }
+    forwardableMethods.clear();
     List<TypeElement> deferredTypes =
         deferredTypeNames.stream()
             .map(name -> processingEnv.getElementUtils().getTypeElement(name))
@@ -140,7 +212,7 @@ public class AutoDelegateProcessor extends AbstractProcessor {
         continue;
       }
       try {
-        if (!processType(info)) {
+        if (!processType(type, info)) {
           addDeferredType(type);
         }
       } catch (RuntimeException e) {
@@ -204,13 +276,21 @@ public class AutoDelegateProcessor extends AbstractProcessor {
       hasError = true;
     }
 
-    Map<TypeElement, String> interfaces = new LinkedHashMap<>();
+    Map<TypeElement, DelegateInfo> interfaces = new LinkedHashMap<>();
     TypeElement extend = javaLangObject;
+    boolean reusable = false;
     AnnotationMirror annotation =
         type.getAnnotationMirrors().stream()
             .filter(a -> a.getAnnotationType().asElement().equals(annotationType))
             .findFirst()
             .orElseThrow(AssertionError::new);
+    // Needed before validating delegates, as it allows them to share a name.
+    boolean compact =
+        annotation.getElementValues().entrySet().stream()
+            .filter(e -> e.getKey().getSimpleName().contentEquals("compact"))
+            .map(e -> (Boolean) e.getValue().getValue())
+            .findFirst()
+            .orElse(false);
     for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
         annotation.getElementValues().entrySet()) {
       switch (entry.getKey().getSimpleName().toString()) {
@@ -219,7 +299,7 @@ public class AutoDelegateProcessor extends AbstractProcessor {
           List<? extends AnnotationMirror> delegates =
               (List<? extends AnnotationMirror>) entry.getValue().getValue();
           for (AnnotationMirror delegate : delegates) {
-            hasError |= !validateInterface(type, delegate, interfaces);
+            hasError |= !validateInterface(type, delegate, interfaces, compact);
           }
           break;
         case "extend":
@@ -244,12 +324,48 @@ public class AutoDelegateProcessor extends AbstractProcessor {
           }
           // TODO: check modifiers if nested
           break;
+        case "reusable":
+          reusable = (Boolean) entry.getValue().getValue();
+          break;
+      }
+    }
+    for (DelegateInfo delegate : interfaces.values()) {
+      if (!isAbstractClass(delegate.type)) {
+        continue;
+      }
+      if (extend != javaLangObject || compact) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateClass] @AutoDelegate class delegating to an abstract class cannot have a super class or be compact",
+                type,
+                delegate.annotation);
+        hasError = true;
+        continue;
       }
+      // The generated class extends the abstract class, and inherits its constructors.
+      extend = delegate.type;
+    }
+    for (DelegateInfo delegate : interfaces.values()) {
+      if (delegate.mode.hasAccessor()) {
+        hasError |= !checkAccessor(type, delegate, interfaces.values());
+      }
+    }
+    if (compact) {
+      hasError |= !checkCompact(type, interfaces.values());
+    }
+    if (reusable) {
+      hasError |= !checkReusable(type, interfaces.values());
     }
     if (hasError) {
       return null;
     }
-    return new AutoDelegateInfo(targetName, interfaces, extend);
+    return new AutoDelegateInfo(targetName, interfaces, extend, compact, reusable);
+  }
+
+  private static boolean isAbstractClass(TypeElement type) {
+    return type.getKind() == ElementKind.CLASS && type.getModifiers().contains(Modifier.ABSTRACT);
   }
 
   private static ClassName autoDelegateName(TypeElement type) {
@@ -302,166 +418,3550 @@ public class AutoDelegateProcessor extends AbstractProcessor {
   }
 
   private boolean validateInterface(
-      TypeElement type, AnnotationMirror annotation, Map<TypeElement, String> interfaces) {
-    boolean hasError = false;
-    TypeElement value = null;
-    String name = null;
-    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
-        annotation.getElementValues().entrySet()) {
-      switch (entry.getKey().getSimpleName().toString()) {
-        case "value":
-          if (!(entry.getValue().getValue() instanceof DeclaredType)
-              || ((DeclaredType) entry.getValue().getValue()).getKind() != TypeKind.DECLARED) {
-            addDeferredType(type);
-            hasError = true;
-            continue;
-          }
-          value = (TypeElement) ((DeclaredType) entry.getValue().getValue()).asElement();
-          if (value.getKind() != ElementKind.INTERFACE) {
-            processingEnv
-                .getMessager()
-                .printMessage(
-                    Diagnostic.Kind.ERROR,
-                    "[AutoDelegateInterface] @AutoDelegate class can only delegate to interfaces: "
-                        + value,
-                    type,
-                    annotation,
-                    entry.getValue());
-            hasError = true;
-            continue;
-          }
-          if (interfaces.containsKey(value)) {
-            processingEnv
-                .getMessager()
-                .printMessage(
-                    Diagnostic.Kind.ERROR,
-                    "[AutoDelegateDuplicate] Duplicate interface specified in @AutoDelegate: "
-                        + value,
-                    type,
-                    annotation,
-                    entry.getValue());
-            hasError = true;
-            continue;
-          }
-          // TODO: check modifiers if nested
-          break;
-        case "name":
-          name = (String) entry.getValue().getValue();
-          if (!SourceVersion.isName(name) || !SourceVersion.isIdentifier(name)) {
-            processingEnv
-                .getMessager()
-                .printMessage(
-                    Diagnostic.Kind.ERROR,
-                    "[AutoDelegateName] @AutoDelegate class delegate name must be a valid Java identifier: "
-                        + name,
-                    type,
-                    annotation,
-                    entry.getValue());
-            hasError = true;
-            continue;
-          }
-          if (interfaces.containsValue(name)) {
-            processingEnv
-                .getMessager()
-                .printMessage(
-                    Diagnostic.Kind.ERROR,
-                    "[AutoDelegateDuplicate] Duplicate delegate name specified in @AutoDelegate: "
-                        + name,
-                    type,
-                    annotation,
-                    entry.getValue());
-            hasError = true;
-            continue;
-          }
-          break;
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<TypeElement, DelegateInfo> interfaces,
+      boolean compact) {
+    Map<String, AnnotationValue> values = new HashMap<>();
+    annotation
+        .getElementValues()
+        .forEach((member, value) -> values.put(member.getSimpleName().toString(), value));
+    TypeElement value = validateValue(type, annotation, values.get("value"), interfaces);
+    String name = validateName(type, annotation, values.get("name"), interfaces, compact);
+    if (value == null || name == null) {
+      // The error will be reported by JavaC, or has been reported above
+      return false;
+    }
+    Mode mode = validateMode(type, annotation, values);
+    if (mode == null) {
+      return false;
+    }
+    DelegateInfo.Builder delegate = DelegateInfo.builder(annotation, value, name, mode);
+    // Options are validated after the ones they depend on.
+    boolean valid = validateSwappable(type, annotation, values, delegate);
+    valid &= validateStable(type, annotation, values, delegate);
+    valid &= validateLocking(type, annotation, values, delegate);
+    valid &= validatePrefetch(type, annotation, values, delegate);
+    valid &= validateSharded(type, annotation, values, delegate);
+    valid &= validateComposite(type, annotation, values, delegate);
+    valid &= validateBalanced(type, annotation, values, delegate);
+    valid &= validateRemote(type, annotation, values, delegate);
+    valid &= validatePooled(type, annotation, values, delegate);
+    valid &= validateSingleFlight(type, annotation, values, delegate);
+    valid &= validateBulkhead(type, annotation, values, delegate);
+    valid &= validateHedged(type, annotation, values, delegate);
+    valid &= validateShadowed(type, annotation, values, delegate);
+    valid &= validateTraced(type, annotation, values, delegate);
+    valid &= validateTimeout(type, annotation, values, delegate);
+    valid &= validateScattered(type, annotation, values, delegate);
+    valid &= validateInstrumented(type, annotation, values, delegate);
+    // Fused decorators can defer the type, which is only worth it if everything else is valid.
+    if (!valid || !validateFused(type, annotation, values, delegate)) {
+      return false;
+    }
+    interfaces.put(value, delegate.build());
+    return true;
+  }
+
+  /** Returns the delegated interface or abstract class, or {@code null} if it's invalid. */
+  private @Nullable TypeElement validateValue(
+      TypeElement type,
+      AnnotationMirror annotation,
+      @Nullable AnnotationValue annotationValue,
+      Map<TypeElement, DelegateInfo> interfaces) {
+    if (annotationValue == null) {
+      return null;
+    }
+    if (!(annotationValue.getValue() instanceof DeclaredType)
+        || ((DeclaredType) annotationValue.getValue()).getKind() != TypeKind.DECLARED) {
+      addDeferredType(type);
+      return null;
+    }
+    TypeElement value = (TypeElement) ((DeclaredType) annotationValue.getValue()).asElement();
+    if (value.getKind() != ElementKind.INTERFACE && !isAbstractClass(value)) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateInterface] @AutoDelegate class can only delegate to interfaces or abstract classes: "
+                  + value,
+              type,
+              annotation,
+              annotationValue);
+      return null;
+    }
+    if (isAbstractClass(value)
+        && interfaces.keySet().stream().anyMatch(AutoDelegateProcessor::isAbstractClass)) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateClass] @AutoDelegate class can only delegate to one abstract class: "
+                  + value,
+              type,
+              annotation,
+              annotationValue);
+      return null;
+    }
+    if (interfaces.containsKey(value)) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateDuplicate] Duplicate interface specified in @AutoDelegate: " + value,
+              type,
+              annotation,
+              annotationValue);
+      return null;
+    }
+    // TODO: check modifiers if nested
+    return value;
+  }
+
+  /** Returns the delegate name, or {@code null} if it's invalid. */
+  private @Nullable String validateName(
+      TypeElement type,
+      AnnotationMirror annotation,
+      @Nullable AnnotationValue annotationValue,
+      Map<TypeElement, DelegateInfo> interfaces,
+      boolean compact) {
+    if (annotationValue == null) {
+      return null;
+    }
+    String name = (String) annotationValue.getValue();
+    if (!SourceVersion.isName(name) || !SourceVersion.isIdentifier(name)) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateName] @AutoDelegate class delegate name must be a valid Java identifier: "
+                  + name,
+              type,
+              annotation,
+              annotationValue);
+      return null;
+    }
+    if (!compact && interfaces.values().stream().anyMatch(d -> d.name.equals(name))) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateDuplicate] Duplicate delegate name specified in @AutoDelegate: "
+                  + name,
+              type,
+              annotation,
+              annotationValue);
+      return null;
+    }
+    return name;
+  }
+
+  /** Returns the delegate mode, or {@code null} if several modes are enabled. */
+  private @Nullable Mode validateMode(
+      TypeElement type, AnnotationMirror annotation, Map<String, AnnotationValue> values) {
+    Set<Mode> modes = EnumSet.noneOf(Mode.class);
+    for (Mode mode : Mode.values()) {
+      AnnotationValue value = values.get(mode.member);
+      if (value != null && mode.isEnabledBy(value)) {
+        modes.add(mode);
       }
     }
-    if (value == null || name == null || hasError) {
-      // The error will be reported by JavaC, or has been reported above
+    if (modes.size() > 1) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateMode] @AutoDelegate delegate modes are mutually exclusive: " + modes,
+              type,
+              annotation);
+      return null;
+    }
+    return modes.isEmpty() ? Mode.DIRECT : modes.iterator().next();
+  }
+
+  /** Returns the value of the annotation member enabling the delegate's mode. */
+  private static AnnotationValue modeValue(
+      Map<String, AnnotationValue> values, DelegateInfo.Builder delegate) {
+    return Objects.requireNonNull(values.get(delegate.mode.member));
+  }
+
+  private boolean validateSwappable(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    if (delegate.mode == Mode.SWAPPABLE
+        && processingEnv.getElementUtils().getTypeElement(VAR_HANDLE_TYPE_NAME) == null) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateSwappable] @AutoDelegate swappable delegates require Java 9 or later",
+              type,
+              annotation,
+              modeValue(values, delegate));
       return false;
     }
-    interfaces.put(value, name);
     return true;
   }
 
-  private boolean processType(AutoDelegateInfo info) {
-    TypeSpec.Builder classBuilder =
-        TypeSpec.classBuilder(info.targetName)
-            .addAnnotation(generatedAnnotation)
-            .addModifiers(Modifier.ABSTRACT)
-            // TODO: handle generics
-            .superclass(info.extend.asType());
-    List<ParameterSpec> ctorParameters = new ArrayList<>();
-    CodeBlock.Builder ctorFieldInitBuilder = CodeBlock.builder();
-    for (Map.Entry<? extends TypeElement, String> entry : info.interfaces.entrySet()) {
-      // TODO: handle generics
-      TypeName ti = ClassName.get(entry.getKey());
-      classBuilder.addSuperinterface(ti);
-      String name = entry.getValue();
-      classBuilder.addField(ti, name, Modifier.PROTECTED, Modifier.FINAL);
-      ctorParameters.add(ParameterSpec.builder(ti, name).build());
-      ctorFieldInitBuilder.addStatement("this.$1N = $1N", name);
+  private boolean validateStable(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue stable = values.get("stable");
+    if (stable == null) {
+      return true;
     }
-    CodeBlock ctorFieldInit = ctorFieldInitBuilder.build();
-    for (ExecutableElement ctor : ElementFilter.constructorsIn(info.extend.getEnclosedElements())) {
-      // TODO: filter out non-visible constructors
-      classBuilder.addMethod(
-          MethodSpec.constructorBuilder()
-              // TODO: handle generics
-              .addParameters(ctorParameters)
-              .addParameters(
-                  ctor.getParameters().stream().map(ParameterSpec::get).collect(toList()))
-              .varargs(ctor.isVarArgs())
-              .addStatement(
-                  "super($L)",
-                  ctor.getParameters().stream()
-                      .map(p -> CodeBlock.of("$N", p.getSimpleName()))
-                      .collect(joining(",")))
-              .addCode(ctorFieldInit)
-              .build());
+    boolean valid = true;
+    List<ExecutableElement> methods = forwardableMethods(delegate.type);
+    Set<String> stableMethods = new LinkedHashSet<>();
+    @SuppressWarnings("unchecked")
+    List<? extends AnnotationValue> names = (List<? extends AnnotationValue>) stable.getValue();
+    for (AnnotationValue methodName : names) {
+      String n = (String) methodName.getValue();
+      if (delegate.mode == Mode.SWAPPABLE) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateStable] @AutoDelegate stable methods cannot be used with swappable delegates",
+                type,
+                annotation,
+                methodName);
+        valid = false;
+        continue;
+      }
+      if (methods.stream()
+          .noneMatch(
+              m ->
+                  m.getSimpleName().contentEquals(n)
+                      && m.getParameters().isEmpty()
+                      && m.getReturnType().getKind() != TypeKind.VOID)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateStable] @AutoDelegate stable method must be a zero-argument non-void method of "
+                    + delegate.type
+                    + ": "
+                    + n,
+                type,
+                annotation,
+                methodName);
+        valid = false;
+      }
+      stableMethods.add(n);
     }
-    for (Map.Entry<? extends TypeElement, String> entry : info.interfaces.entrySet()) {
-      for (ExecutableElement m :
-          ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(entry.getKey()))) {
-        if (m.getModifiers().contains(Modifier.STATIC)
-            || m.getModifiers().contains(Modifier.PRIVATE)
-            || javaLangObject.equals(m.getEnclosingElement())) {
-          continue;
-        }
-        // TODO: handle methods contributed from more than one interface
-        classBuilder.addMethod(
-            MethodSpec.overriding(m)
-                .addStatement(
-                    "$Lthis.$N.$N($L)",
-                    m.getReturnType().getKind() == TypeKind.VOID ? "" : "return ",
-                    entry.getValue(),
-                    m.getSimpleName(),
-                    m.getParameters().stream()
-                        .map(p -> CodeBlock.of("$N", p.getSimpleName()))
-                        .collect(joining(",")))
-                .build());
+    delegate.stable(stableMethods);
+    return valid;
+  }
+
+  private boolean validateLocking(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue locking = values.get("locking");
+    if (locking != null) {
+      delegate.locking(Locking.valueOf(enumValue(locking)));
+    }
+    AnnotationValue readOnly = values.get("readOnly");
+    if (readOnly == null) {
+      return true;
+    }
+    boolean valid = true;
+    List<ExecutableElement> methods = forwardableMethods(delegate.type);
+    Set<String> readOnlyMethods = new LinkedHashSet<>();
+    @SuppressWarnings("unchecked")
+    List<? extends AnnotationValue> names = (List<? extends AnnotationValue>) readOnly.getValue();
+    for (AnnotationValue methodName : names) {
+      String n = (String) methodName.getValue();
+      if (methods.stream().noneMatch(m -> m.getSimpleName().contentEquals(n))) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateReadOnly] @AutoDelegate read-only method must be a method of "
+                    + delegate.type
+                    + ": "
+                    + n,
+                type,
+                annotation,
+                methodName);
+        valid = false;
       }
+      readOnlyMethods.add(n);
     }
-    try {
-      JavaFile.builder(info.targetName.packageName(), classBuilder.build())
-          .build()
-          .writeTo(processingEnv.getFiler());
-    } catch (IOException e) {
-      throw new UncheckedIOException(e);
+    delegate.readOnly(readOnlyMethods);
+    return valid;
+  }
+
+  private boolean validatePrefetch(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue prefetchValue = values.get("prefetch");
+    if (prefetchValue == null) {
+      return true;
+    }
+    int prefetch = (Integer) prefetchValue.getValue();
+    if (prefetch < 0) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegatePrefetch] @AutoDelegate prefetch cannot be negative",
+              type,
+              annotation,
+              prefetchValue);
+      return false;
+    }
+    if (prefetch > 0) {
+      if (!checkRuntime(PREFETCHING_ITERATOR, type, annotation, prefetchValue)) {
+        return false;
+      }
+      if (forwardableMethods(delegate.type).stream()
+          .noneMatch(m -> prefetchFactory(m.getReturnType()) != null)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegatePrefetch] @AutoDelegate prefetch needs methods returning an Iterator, Iterable or Stream: "
+                    + delegate.type,
+                type,
+                annotation,
+                prefetchValue);
+        return false;
+      }
     }
+    delegate.prefetch(prefetch);
     return true;
   }
 
-  static class AutoDelegateInfo {
-    final ClassName targetName;
-    final Map<? extends TypeElement, String> interfaces;
-    final TypeElement extend;
+  private boolean validateSharded(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue shardFallback = values.get("shardFallback");
+    if (shardFallback != null) {
+      delegate.shardFallback(ShardFallback.valueOf(enumValue(shardFallback)));
+    }
+    if (delegate.mode != Mode.SHARDED) {
+      return true;
+    }
+    boolean valid = true;
+    for (ExecutableElement m : forwardableMethods(delegate.type)) {
+      long keys = m.getParameters().stream().filter(this::isShardKey).count();
+      if (keys > 1) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateShardKey] @AutoDelegate sharded method must have at most one @ShardKey parameter: "
+                    + m,
+                type,
+                annotation);
+        valid = false;
+      } else if (keys == 0
+          && delegate.shardFallback == ShardFallback.ALL
+          && m.getReturnType().getKind() != TypeKind.VOID) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateShardKey] @AutoDelegate sharded method without @ShardKey cannot return a value with the ALL fallback: "
+                    + m,
+                type,
+                annotation);
+        valid = false;
+      }
+    }
+    return valid;
+  }
 
-    AutoDelegateInfo(
-        ClassName targetName, Map<? extends TypeElement, String> interfaces, TypeElement extend) {
-      this.targetName = targetName;
-      this.interfaces = interfaces;
-      this.extend = extend;
+  private boolean validateComposite(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue compositeDispatch = values.get("compositeDispatch");
+    if (compositeDispatch != null) {
+      delegate.compositeDispatch(CompositeDispatch.valueOf(enumValue(compositeDispatch)));
+    }
+    AnnotationValue compositeReduction = values.get("compositeReduction");
+    if (compositeReduction != null) {
+      delegate.compositeReduction(CompositeReduction.valueOf(enumValue(compositeReduction)));
+    }
+    if (delegate.mode != Mode.COMPOSITE) {
+      return true;
+    }
+    if (!checkRuntime(COMPOSITE, type, annotation, modeValue(values, delegate))) {
+      return false;
+    }
+    boolean valid = true;
+    if (!delegate.stable.isEmpty() || delegate.locking != Locking.NONE || delegate.prefetch > 0) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateComposite] @AutoDelegate composite delegates cannot be used with stable, locking or prefetch",
+              type,
+              annotation);
+      valid = false;
+    }
+    for (ExecutableElement m : forwardableMethods(delegate.type)) {
+      TypeKind returnKind = m.getReturnType().getKind();
+      if ((delegate.compositeReduction == CompositeReduction.FIRST_NON_NULL
+              && returnKind != TypeKind.VOID
+              && returnKind.isPrimitive())
+          || (delegate.compositeReduction == CompositeReduction.ALL_TRUE
+              && returnKind != TypeKind.VOID
+              && returnKind != TypeKind.BOOLEAN)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateComposite] @AutoDelegate composite method cannot be reduced with "
+                    + delegate.compositeReduction
+                    + ": "
+                    + m,
+                type,
+                annotation);
+        valid = false;
+      }
+    }
+    return valid;
+  }
+
+  private boolean validateBalanced(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    boolean valid = true;
+    AnnotationValue balanceEjectionFactor = values.get("balanceEjectionFactor");
+    if (balanceEjectionFactor != null) {
+      double factor = (Double) balanceEjectionFactor.getValue();
+      if (!(factor > 1)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateBalanced] @AutoDelegate balance ejection factor must be greater than 1",
+                type,
+                annotation,
+                balanceEjectionFactor);
+        valid = false;
+      }
+      delegate.balanceEjectionFactor(factor);
     }
+    AnnotationValue balanceEjectionMillis = values.get("balanceEjectionMillis");
+    if (balanceEjectionMillis != null) {
+      long millis = (Long) balanceEjectionMillis.getValue();
+      if (millis < 0) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateBalanced] @AutoDelegate balance ejection duration cannot be negative",
+                type,
+                annotation,
+                balanceEjectionMillis);
+        valid = false;
+      }
+      delegate.balanceEjectionMillis(millis);
+    }
+    if (delegate.mode != Mode.BALANCED) {
+      return valid;
+    }
+    if (!checkRuntime(BALANCER, type, annotation, modeValue(values, delegate))) {
+      return false;
+    }
+    if (delegate.locking != Locking.NONE) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateBalanced] @AutoDelegate balanced delegates cannot be used with locking",
+              type,
+              annotation);
+      valid = false;
+    }
+    return valid;
+  }
+
+  private boolean validateRemote(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    if (delegate.mode != Mode.REMOTE) {
+      return true;
+    }
+    if (!checkRuntime(REMOTE_CLIENT, type, annotation, modeValue(values, delegate))) {
+      return false;
+    }
+    boolean valid = true;
+    for (ExecutableElement m : forwardableMethods(delegate.type)) {
+      if ((m.getReturnType().getKind() != TypeKind.VOID && remoteType(m.getReturnType()) == null)
+          || m.getParameters().stream().anyMatch(p -> remoteType(p.asType()) == null)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateRemote] @AutoDelegate remote method can only take and return primitives, strings and byte arrays: "
+                    + m,
+                type,
+                annotation);
+        valid = false;
+      }
+    }
+    return valid;
+  }
+
+  private boolean validatePooled(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue poolTimeoutMillis = values.get("poolTimeoutMillis");
+    if (poolTimeoutMillis != null) {
+      delegate.poolTimeoutMillis((Long) poolTimeoutMillis.getValue());
+    }
+    AnnotationValue poolSize = values.get("poolSize");
+    if (poolSize == null) {
+      return true;
+    }
+    int size = (Integer) poolSize.getValue();
+    if (size < 0) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegatePool] @AutoDelegate pool size must not be negative",
+              type,
+              annotation,
+              poolSize);
+      return false;
+    }
+    delegate.poolSize(size);
+    return true;
+  }
+
+  private boolean validateSingleFlight(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue singleFlight = values.get("singleFlight");
+    if (singleFlight == null) {
+      return true;
+    }
+    boolean valid = true;
+    List<ExecutableElement> methods = forwardableMethods(delegate.type);
+    Set<String> singleFlightMethods = new LinkedHashSet<>();
+    @SuppressWarnings("unchecked")
+    List<? extends AnnotationValue> names =
+        (List<? extends AnnotationValue>) singleFlight.getValue();
+    for (AnnotationValue methodName : names) {
+      String n = (String) methodName.getValue();
+      List<ExecutableElement> matching =
+          methods.stream().filter(m -> m.getSimpleName().contentEquals(n)).collect(toList());
+      if (matching.size() != 1
+          || !matching.get(0).getTypeParameters().isEmpty()
+          || delegate.stable.contains(n)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateSingleFlight] @AutoDelegate single-flight method must be a non-overloaded, non-generic, non-stable method of "
+                    + delegate.type
+                    + ": "
+                    + n,
+                type,
+                annotation,
+                methodName);
+        valid = false;
+      }
+      singleFlightMethods.add(n);
+    }
+    delegate.singleFlight(singleFlightMethods);
+    return valid;
+  }
+
+  private boolean validateBulkhead(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue adaptiveConcurrency = values.get("adaptiveConcurrency");
+    if (adaptiveConcurrency != null) {
+      delegate.adaptiveConcurrency((Boolean) adaptiveConcurrency.getValue());
+    }
+    AnnotationValue concurrencyTimeoutMillis = values.get("concurrencyTimeoutMillis");
+    if (concurrencyTimeoutMillis != null) {
+      delegate.concurrencyTimeoutMillis((Long) concurrencyTimeoutMillis.getValue());
+    }
+    AnnotationValue maxConcurrency = values.get("maxConcurrency");
+    if (maxConcurrency == null) {
+      return true;
+    }
+    int max = (Integer) maxConcurrency.getValue();
+    if (max < 0) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateBulkhead] @AutoDelegate max concurrency must not be negative",
+              type,
+              annotation,
+              maxConcurrency);
+      return false;
+    }
+    if (max > 0 && !checkRuntime(BULKHEAD, type, annotation, maxConcurrency)) {
+      return false;
+    }
+    delegate.maxConcurrency(max);
+    return true;
+  }
+
+  private boolean validateHedged(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    boolean valid = true;
+    AnnotationValue hedgeDelayMillis = values.get("hedgeDelayMillis");
+    if (hedgeDelayMillis != null) {
+      delegate.hedgeDelayMillis((Long) hedgeDelayMillis.getValue());
+    }
+    AnnotationValue hedgePercentile = values.get("hedgePercentile");
+    if (hedgePercentile != null) {
+      double percentile = (Double) hedgePercentile.getValue();
+      if (!(percentile > 0 && percentile <= 100)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateHedged] @AutoDelegate hedge percentile must be greater than 0 and at most 100",
+                type,
+                annotation,
+                hedgePercentile);
+        valid = false;
+      }
+      delegate.hedgePercentile(percentile);
+    }
+    AnnotationValue hedgeBudgetPercent = values.get("hedgeBudgetPercent");
+    if (hedgeBudgetPercent != null) {
+      delegate.hedgeBudgetPercent((Integer) hedgeBudgetPercent.getValue());
+    }
+    if (delegate.mode != Mode.HEDGED) {
+      return valid;
+    }
+    AnnotationValue hedged = modeValue(values, delegate);
+    if (!checkRuntime(HEDGER, type, annotation, hedged)) {
+      return false;
+    }
+    List<ExecutableElement> methods = forwardableMethods(delegate.type);
+    Set<String> hedgedMethods = new LinkedHashSet<>();
+    @SuppressWarnings("unchecked")
+    List<? extends AnnotationValue> names = (List<? extends AnnotationValue>) hedged.getValue();
+    for (AnnotationValue methodName : names) {
+      String n = (String) methodName.getValue();
+      if (methods.stream().noneMatch(m -> m.getSimpleName().contentEquals(n))) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateHedged] @AutoDelegate hedged method must be a method of "
+                    + delegate.type
+                    + ": "
+                    + n,
+                type,
+                annotation,
+                methodName);
+        valid = false;
+      }
+      hedgedMethods.add(n);
+    }
+    delegate.hedged(hedgedMethods);
+    return valid;
+  }
+
+  private boolean validateShadowed(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue shadowQueueCapacity = values.get("shadowQueueCapacity");
+    if (shadowQueueCapacity != null) {
+      delegate.shadowQueueCapacity((Integer) shadowQueueCapacity.getValue());
+    }
+    AnnotationValue shadowSampleRate = values.get("shadowSampleRate");
+    if (shadowSampleRate == null) {
+      return true;
+    }
+    double rate = (Double) shadowSampleRate.getValue();
+    if (!(rate >= 0 && rate <= 1)) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateShadow] @AutoDelegate shadow sample rate must be between 0 and 1",
+              type,
+              annotation,
+              shadowSampleRate);
+      return false;
+    }
+    delegate.shadowSampleRate(rate);
+    if (delegate.mode != Mode.SHADOWED) {
+      return true;
+    }
+    if (!checkRuntime(SHADOW, type, annotation, shadowSampleRate)) {
+      return false;
+    }
+    boolean valid = true;
+    // Shadow calls are replayed later on another thread with the caller's arguments, which must
+    // not change in the meantime.
+    for (ExecutableElement m : forwardableMethods(delegate.type)) {
+      if (m.getParameters().stream().anyMatch(p -> p.asType().getKind() == TypeKind.ARRAY)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateShadow] @AutoDelegate shadowed method cannot take arrays: " + m,
+                type,
+                annotation);
+        valid = false;
+      }
+    }
+    return valid;
+  }
+
+  private boolean validateTraced(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue traced = values.get("traced");
+    if (traced == null || !(Boolean) traced.getValue()) {
+      return true;
+    }
+    if (!checkRuntime(TRACE, type, annotation, traced)) {
+      return false;
+    }
+    delegate.traced(true);
+    return true;
+  }
+
+  private boolean validateTimeout(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    boolean valid = true;
+    AnnotationValue timeoutMillis = values.get("timeoutMillis");
+    if (timeoutMillis != null) {
+      long timeout = (Long) timeoutMillis.getValue();
+      if (timeout < 0) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateTimeout] @AutoDelegate timeout cannot be negative",
+                type,
+                annotation,
+                timeoutMillis);
+        return false;
+      }
+      if (timeout > 0) {
+        if (!checkRuntime(DEADLINE, type, annotation, timeoutMillis)) {
+          return false;
+        }
+        if (delegate.mode != Mode.DIRECT
+            && delegate.mode != Mode.LAZY
+            && delegate.mode != Mode.SWAPPABLE) {
+          processingEnv
+              .getMessager()
+              .printMessage(
+                  Diagnostic.Kind.ERROR,
+                  "[AutoDelegateTimeout] @AutoDelegate timeout cannot be used with "
+                      + delegate.mode
+                      + " delegates",
+                  type,
+                  annotation,
+                  timeoutMillis);
+          valid = false;
+        }
+        // The lock would be released when the deadline fires, while the abandoned call still runs.
+        if (delegate.locking != Locking.NONE) {
+          processingEnv
+              .getMessager()
+              .printMessage(
+                  Diagnostic.Kind.ERROR,
+                  "[AutoDelegateTimeout] @AutoDelegate timeout cannot be used with locking",
+                  type,
+                  annotation,
+                  timeoutMillis);
+          valid = false;
+        }
+      }
+      delegate.timeoutMillis(timeout);
+    }
+    AnnotationValue timed = values.get("timed");
+    if (timed == null) {
+      return valid;
+    }
+    List<ExecutableElement> methods = forwardableMethods(delegate.type);
+    Set<String> timedMethods = new LinkedHashSet<>();
+    @SuppressWarnings("unchecked")
+    List<? extends AnnotationValue> names = (List<? extends AnnotationValue>) timed.getValue();
+    for (AnnotationValue methodName : names) {
+      String n = (String) methodName.getValue();
+      if (delegate.timeoutMillis <= 0
+          || methods.stream().noneMatch(m -> m.getSimpleName().contentEquals(n))) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateTimeout] @AutoDelegate timed method must be a method of "
+                    + delegate.type
+                    + ", with a timeout: "
+                    + n,
+                type,
+                annotation,
+                methodName);
+        valid = false;
+      }
+      timedMethods.add(n);
+    }
+    delegate.timed(timedMethods);
+    return valid;
+  }
+
+  private boolean validateScattered(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    boolean valid = true;
+    AnnotationValue scatterChunkSize = values.get("scatterChunkSize");
+    if (scatterChunkSize != null) {
+      int chunkSize = (Integer) scatterChunkSize.getValue();
+      if (chunkSize <= 0) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateScatter] @AutoDelegate scatter chunk size must be positive",
+                type,
+                annotation,
+                scatterChunkSize);
+        valid = false;
+      }
+      delegate.scatterChunkSize(chunkSize);
+    }
+    AnnotationValue scatterParallelism = values.get("scatterParallelism");
+    if (scatterParallelism != null) {
+      int parallelism = (Integer) scatterParallelism.getValue();
+      if (parallelism < 0) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateScatter] @AutoDelegate scatter parallelism cannot be negative",
+                type,
+                annotation,
+                scatterParallelism);
+        valid = false;
+      }
+      delegate.scatterParallelism(parallelism);
+    }
+    AnnotationValue scattered = values.get("scattered");
+    if (scattered == null || ((List<?>) scattered.getValue()).isEmpty()) {
+      return valid;
+    }
+    if (!checkRuntime(SCATTER_GATHER, type, annotation, scattered)) {
+      return false;
+    }
+    List<ExecutableElement> methods = forwardableMethods(delegate.type);
+    Set<String> scatteredMethods = new LinkedHashSet<>();
+    @SuppressWarnings("unchecked")
+    List<? extends AnnotationValue> names = (List<? extends AnnotationValue>) scattered.getValue();
+    for (AnnotationValue methodName : names) {
+      String n = (String) methodName.getValue();
+      // Chunks run on other threads, where a thread-local delegate would be another instance.
+      if (delegate.mode != Mode.DIRECT
+          && delegate.mode != Mode.LAZY
+          && delegate.mode != Mode.SWAPPABLE) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateScatter] @AutoDelegate scattered methods cannot be used with "
+                    + delegate.mode
+                    + " delegates",
+                type,
+                annotation,
+                methodName);
+        valid = false;
+        continue;
+      }
+      if (delegate.timeoutMillis > 0) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateScatter] @AutoDelegate scattered methods cannot be used with a timeout",
+                type,
+                annotation,
+                methodName);
+        valid = false;
+        continue;
+      }
+      List<ExecutableElement> matching =
+          methods.stream().filter(m -> m.getSimpleName().contentEquals(n)).collect(toList());
+      if (matching.isEmpty()
+          || matching.stream()
+              .anyMatch(m -> scatterParameter(m) == null || scatterResult(m) == null)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateScatter] @AutoDelegate scattered method must be a method of "
+                    + delegate.type
+                    + " taking a single List, Collection or array, "
+                    + "and returning void, a List, a Collection or a Map: "
+                    + n,
+                type,
+                annotation,
+                methodName);
+        valid = false;
+      }
+      scatteredMethods.add(n);
+    }
+    delegate.scattered(scatteredMethods);
+    return valid;
+  }
+
+  private boolean validateInstrumented(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    AnnotationValue instrumented = values.get("instrumented");
+    if (instrumented == null || !(Boolean) instrumented.getValue()) {
+      return true;
+    }
+    if (!checkRuntime(INSTRUMENTATION, type, annotation, instrumented)) {
+      return false;
+    }
+    boolean valid = true;
+    if ((delegate.mode != Mode.DIRECT
+            && delegate.mode != Mode.LAZY
+            && delegate.mode != Mode.SWAPPABLE
+            && delegate.mode != Mode.THREAD_LOCAL)
+        || !delegate.scattered.isEmpty()) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "[AutoDelegateInstrumented] @AutoDelegate instrumented delegates can only be direct, lazy, swappable or thread-local, without scattered methods",
+              type,
+              annotation);
+      valid = false;
+    }
+    for (ExecutableElement m : forwardableMethods(delegate.type)) {
+      if (!m.getTypeParameters().isEmpty()) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateInstrumented] @AutoDelegate instrumented method cannot be generic: "
+                    + m,
+                type,
+                annotation);
+        valid = false;
+      }
+    }
+    delegate.instrumented(true);
+    return valid;
+  }
+
+  private boolean validateFused(
+      TypeElement type,
+      AnnotationMirror annotation,
+      Map<String, AnnotationValue> values,
+      DelegateInfo.Builder delegate) {
+    if (delegate.mode != Mode.FUSED) {
+      return true;
+    }
+    boolean valid = true;
+    List<Layer> layers = new ArrayList<>();
+    @SuppressWarnings("unchecked")
+    List<? extends AnnotationValue> classes =
+        (List<? extends AnnotationValue>) modeValue(values, delegate).getValue();
+    for (AnnotationValue layerClass : classes) {
+      if (!(layerClass.getValue() instanceof DeclaredType)
+          || ((DeclaredType) layerClass.getValue()).getKind() != TypeKind.DECLARED) {
+        addDeferredType(type);
+        return false;
+      }
+      TypeElement layerType = (TypeElement) ((DeclaredType) layerClass.getValue()).asElement();
+      if (layerType.getSuperclass().getKind() == TypeKind.ERROR) {
+        // Wait for the decorator's own generated class
+        addDeferredType(type);
+        return false;
+      }
+      Layer layer = layer(type, layerType, delegate.type);
+      if (layer == null) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateFused] @AutoDelegate fused decorator must be a final, non-reusable @AutoDelegate class of the same package, delegating "
+                    + delegate.type
+                    + " to a plain field: "
+                    + layerType,
+                type,
+                annotation,
+                layerClass);
+        valid = false;
+        continue;
+      }
+      layers.add(layer);
+    }
+    delegate.fused(layers);
+    return valid;
+  }
+
+  /**
+   * Returns the decorator delegating the given interface, or {@code null} if it cannot be fused.
+   *
+   * <p>The decorator must be final, as which methods it overrides is decided from its declared
+   * class; a subclass could override methods that would then be skipped.
+   */
+  private @Nullable Layer layer(TypeElement type, TypeElement layerType, TypeElement value) {
+    if (!layerType.getModifiers().contains(Modifier.FINAL)
+        || !processingEnv
+        .getElementUtils()
+        .getPackageOf(layerType)
+        .equals(processingEnv.getElementUtils().getPackageOf(type))) {
+      return null;
+    }
+    AnnotationMirror layerAnnotation =
+        layerType.getAnnotationMirrors().stream()
+            .filter(a -> a.getAnnotationType().asElement().equals(annotationType))
+            .findFirst()
+            .orElse(null);
+    if (layerAnnotation == null) {
+      return null;
+    }
+    Layer layer = null;
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        layerAnnotation.getElementValues().entrySet()) {
+      switch (entry.getKey().getSimpleName().toString()) {
+        case "value":
+          @SuppressWarnings("unchecked")
+          List<? extends AnnotationMirror> delegates =
+              (List<? extends AnnotationMirror>) entry.getValue().getValue();
+          for (AnnotationMirror delegate : delegates) {
+            String name = null;
+            boolean isValue = false;
+            boolean transparent = true;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> member :
+                delegate.getElementValues().entrySet()) {
+              String memberName = member.getKey().getSimpleName().toString();
+              if (memberName.equals("value")) {
+                isValue =
+                    member.getValue().getValue() instanceof DeclaredType
+                        && ((DeclaredType) member.getValue().getValue()).asElement().equals(value);
+              } else if (memberName.equals("name")) {
+                name = (String) member.getValue().getValue();
+              } else if (Arrays.stream(Mode.values())
+                  .anyMatch(mode -> mode.member.equals(memberName))) {
+                return null;
+              } else {
+                transparent = false;
+              }
+            }
+            if (isValue && name != null) {
+              layer = new Layer(layerType, name, transparent);
+            }
+          }
+          break;
+        case "reusable":
+          if ((Boolean) entry.getValue().getValue()) {
+            return null;
+          }
+          break;
+      }
+    }
+    return layer;
+  }
+
+  /**
+   * Returns whether calls to the given method can skip the given decorator, i.e. it would only
+   * forward them to its own delegate.
+   */
+  private boolean canSkip(Layer layer, ExecutableElement m) {
+    if (!layer.transparent) {
+      return false;
+    }
+    Elements elements = processingEnv.getElementUtils();
+    String generatedName = autoDelegateName(layer.type).canonicalName();
+    TypeElement t = layer.type;
+    while (!t.getQualifiedName().contentEquals(generatedName)) {
+      for (ExecutableElement declared : ElementFilter.methodsIn(t.getEnclosedElements())) {
+        if (elements.overrides(declared, m, layer.type)) {
+          return false;
+        }
+      }
+      if (t.getSuperclass().getKind() != TypeKind.DECLARED) {
+        // Can't happen for a valid decorator; be conservative.
+        return false;
+      }
+      t = (TypeElement) ((DeclaredType) t.getSuperclass()).asElement();
+    }
+    return true;
+  }
+
+  /** Checks that compact delegates share a name and don't need fields of their own. */
+  private boolean checkCompact(TypeElement type, Collection<DelegateInfo> delegates) {
+    boolean hasError = false;
+    String name = delegates.stream().map(d -> d.name).findFirst().orElse(null);
+    for (DelegateInfo delegate : delegates) {
+      if (!delegate.name.equals(name)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateCompact] @AutoDelegate compact delegates must all have the same name: "
+                    + name,
+                type,
+                delegate.annotation);
+        hasError = true;
+      } else if (delegate.mode != Mode.DIRECT
+          || delegate.locking != Locking.NONE
+          || delegate.maxConcurrency > 0
+          || delegate.traced) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateCompact] @AutoDelegate compact delegates cannot have a mode, locking, concurrency limit or tracing",
+                type,
+                delegate.annotation);
+        hasError = true;
+      }
+    }
+    return !hasError;
+  }
+
+  /**
+   * Checks that reusable delegates are plain fields, and that the generated {@code reset} and
+   * {@code release} methods don't conflict with delegated methods.
+   */
+  private boolean checkReusable(TypeElement type, Collection<DelegateInfo> delegates) {
+    boolean hasError = false;
+    for (DelegateInfo delegate : delegates) {
+      if (delegate.mode != Mode.DIRECT || !delegate.singleFlight.isEmpty()) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateReusable] @AutoDelegate reusable delegates cannot have a mode or single-flight methods",
+                type,
+                delegate.annotation);
+        hasError = true;
+        continue;
+      }
+      for (ExecutableElement m : forwardableMethods(delegate.type)) {
+        if (m.getSimpleName().contentEquals("reset")
+            || (m.getSimpleName().contentEquals("release") && m.getParameters().isEmpty())) {
+          processingEnv
+              .getMessager()
+              .printMessage(
+                  Diagnostic.Kind.ERROR,
+                  "[AutoDelegateReusable] @AutoDelegate reusable delegate conflicts with method "
+                      + m.getSimpleName()
+                      + "() of "
+                      + delegate.type,
+                  type,
+                  delegate.annotation);
+          hasError = true;
+        }
+      }
+    }
+    return !hasError;
+  }
+
+  /** Checks that a class from the runtime library, needed by the generated code, is available. */
+  private boolean checkRuntime(
+      ClassName runtimeClass,
+      TypeElement type,
+      AnnotationMirror annotation,
+      AnnotationValue value) {
+    if (processingEnv.getElementUtils().getTypeElement(runtimeClass.canonicalName()) != null) {
+      return true;
+    }
+    processingEnv
+        .getMessager()
+        .printMessage(
+            Diagnostic.Kind.ERROR,
+            "[AutoDelegateRuntime] @AutoDelegate generated code for this delegate requires the auto-delegate-runtime library: "
+                + runtimeClass.canonicalName()
+                + " not found",
+            type,
+            annotation,
+            value);
+    return false;
+  }
+
+  private static String enumValue(AnnotationValue value) {
+    return ((VariableElement) value.getValue()).getSimpleName().toString();
+  }
+
+  /**
+   * Checks that the protected method exposing the delegate doesn't conflict with a delegated
+   * method.
+   */
+  private boolean checkAccessor(
+      TypeElement type, DelegateInfo delegate, Collection<DelegateInfo> delegates) {
+    for (DelegateInfo other : delegates) {
+      for (ExecutableElement m : forwardableMethods(other.type)) {
+        if (m.getParameters().isEmpty() && m.getSimpleName().contentEquals(delegate.name)) {
+          processingEnv
+              .getMessager()
+              .printMessage(
+                  Diagnostic.Kind.ERROR,
+                  "[AutoDelegateAccessor] @AutoDelegate delegate name conflicts with method "
+                      + m.getSimpleName()
+                      + "() of "
+                      + other.type,
+                  type,
+                  delegate.annotation);
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean isShardKey(VariableElement parameter) {
+    return parameter.getAnnotationMirrors().stream()
+        .anyMatch(
+            a ->
+                ((TypeElement) a.getAnnotationType().asElement())
+                    .getQualifiedName()
+                    .contentEquals(SHARD_KEY_TYPE_NAME));
+  }
+
+  private List<ExecutableElement> forwardableMethods(TypeElement type) {
+    return forwardableMethods.computeIfAbsent(
+        type,
+        t ->
+            // Interface methods are all public unless private; abstract classes can also have
+            // final, protected or package-private methods, that can't be overridden or called on
+            // the delegate.
+            ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(t)).stream()
+                .filter(
+                    m ->
+                        m.getModifiers().contains(Modifier.PUBLIC)
+                            && !m.getModifiers().contains(Modifier.STATIC)
+                            && !m.getModifiers().contains(Modifier.FINAL)
+                            && !javaLangObject.equals(m.getEnclosingElement()))
+                .collect(collectingAndThen(toList(), Collections::unmodifiableList)));
+  }
+
+  /**
+   * Returns the name of the {@code PrefetchingIterator} factory method wrapping values of the
+   * given type, or {@code null} if they cannot be prefetched.
+   */
+  private @Nullable String prefetchFactory(TypeMirror type) {
+    if (type.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    Name name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName();
+    if (name.contentEquals(Iterator.class.getCanonicalName())) {
+      return "of";
+    }
+    if (name.contentEquals(Iterable.class.getCanonicalName())) {
+      return "iterable";
+    }
+    if (name.contentEquals(Stream.class.getCanonicalName())) {
+      return "stream";
+    }
+    return null;
+  }
+
+  /**
+   * Like {@link MethodSpec#overriding(ExecutableElement)}, but without the modifiers that only
+   * make sense for the overridden implementation: forwarders don't need to synchronize, as the
+   * delegate does if needed.
+   */
+  private static MethodSpec.Builder overriding(ExecutableElement m) {
+    MethodSpec.Builder builder = MethodSpec.overriding(m);
+    builder.modifiers.remove(Modifier.SYNCHRONIZED);
+    builder.modifiers.remove(Modifier.NATIVE);
+    return builder;
+  }
+
+  private boolean processType(TypeElement type, AutoDelegateInfo info) {
+    TypeSpec.Builder classBuilder =
+        TypeSpec.classBuilder(info.targetName)
+            .addAnnotation(generatedAnnotation)
+            .addModifiers(Modifier.ABSTRACT)
+            // TODO: handle generics
+            .superclass(info.extend.asType());
+    List<ParameterSpec> ctorParameters = new ArrayList<>();
+    CodeBlock.Builder ctorFieldInitBuilder = CodeBlock.builder();
+    // Only the delegates themselves are reset; executors and the like are kept.
+    List<ParameterSpec> resetParameters = new ArrayList<>();
+    if (info.compact) {
+      TypeVariableName d =
+          TypeVariableName.get(
+              "D", info.interfaces.keySet().stream().map(ClassName::get).toArray(TypeName[]::new));
+      String name = info.interfaces.values().iterator().next().name;
+      classBuilder.addTypeVariable(d).addField(d, name, fieldModifiers(info));
+      ctorParameters.add(ParameterSpec.builder(d, name).build());
+      ctorFieldInitBuilder.addStatement("this.$1N = $1N", name);
+      resetParameters.add(ParameterSpec.builder(d, name).build());
+    }
+    boolean hasShardHelper = false;
+    for (DelegateInfo delegate : info.interfaces.values()) {
+      // TODO: handle generics
+      TypeName ti = ClassName.get(delegate.type);
+      if (delegate.type.getKind() == ElementKind.INTERFACE) {
+        classBuilder.addSuperinterface(ti);
+      }
+      String name = delegate.name;
+      switch (delegate.mode) {
+        case DIRECT:
+          if (info.compact) {
+            // The single field has already been added
+            break;
+          }
+          classBuilder.addField(ti, name, fieldModifiers(info));
+          ctorParameters.add(ParameterSpec.builder(ti, name).build());
+          ctorFieldInitBuilder.addStatement("this.$1N = $1N", name);
+          resetParameters.add(ParameterSpec.builder(ti, name).build());
+          break;
+        case LAZY:
+          TypeName supplier = supplierOf(ti);
+          classBuilder.addField(supplier, name + "$supplier", Modifier.PRIVATE);
+          classBuilder.addField(ti, name, Modifier.PRIVATE, Modifier.VOLATILE);
+          classBuilder.addMethod(lazyAccessor(ti, name));
+          ctorParameters.add(ParameterSpec.builder(supplier, name).build());
+          ctorFieldInitBuilder.addStatement(
+              "this.$1N$$supplier = $2T.requireNonNull($1N)", name, Objects.class);
+          break;
+        case SWAPPABLE:
+          addSwappable(classBuilder, info.targetName, ti, name);
+          ctorParameters.add(ParameterSpec.builder(ti, name).build());
+          ctorFieldInitBuilder.addStatement(
+              "$N$$HANDLE.setRelease(this, $T.requireNonNull($N))", name, Objects.class, name);
+          break;
+        case SHARDED:
+          classBuilder.addField(ArrayTypeName.of(ti), name, Modifier.PROTECTED, Modifier.FINAL);
+          ctorParameters.add(ParameterSpec.builder(ArrayTypeName.of(ti), name).build());
+          ctorFieldInitBuilder
+              .beginControlFlow(
+                  "if ($1N.length == 0 || ($1N.length & ($1N.length - 1)) != 0)", name)
+              .addStatement(
+                  "throw new $T($S + $N.length)",
+                  IllegalArgumentException.class,
+                  name + " length must be a power of two: ",
+                  name)
+              .endControlFlow()
+              .addStatement("this.$1N = $1N.clone()", name);
+          if (!hasShardHelper) {
+            classBuilder.addMethod(shardHelper());
+            hasShardHelper = true;
+          }
+          break;
+        case COMPOSITE:
+          TypeName composite = ParameterizedTypeName.get(COMPOSITE, ti);
+          classBuilder
+              .addField(composite, name + "$composite", Modifier.PRIVATE, Modifier.FINAL)
+              .addMethod(
+                  MethodSpec.methodBuilder(name + "Composite")
+                      .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                      .returns(composite)
+                      .addStatement("return this.$N$$composite", name)
+                      .build());
+          ctorParameters.add(ParameterSpec.builder(ArrayTypeName.of(ti), name).build());
+          if (delegate.compositeDispatch == CompositeDispatch.SERIAL) {
+            ctorFieldInitBuilder.addStatement(
+                "this.$1N$$composite = new $2T<>($1S, $1N)", name, COMPOSITE);
+          } else {
+            ctorParameters.add(ParameterSpec.builder(Executor.class, name + "Executor").build());
+            ctorFieldInitBuilder.addStatement(
+                "this.$1N$$composite = new $2T<>($1S, $1N, $3N, $4L)",
+                name,
+                COMPOSITE,
+                name + "Executor",
+                delegate.compositeDispatch == CompositeDispatch.PARALLEL);
+          }
+          if (delegate.compositeReduction == CompositeReduction.COMBINE) {
+            addCombiners(classBuilder, delegate);
+          }
+          break;
+        case BALANCED:
+          classBuilder
+              .addField(ArrayTypeName.of(ti), name, Modifier.PROTECTED, Modifier.FINAL)
+              .addField(BALANCER, name + "$balancer", Modifier.PRIVATE, Modifier.FINAL)
+              .addMethod(
+                  MethodSpec.methodBuilder(name + "Balancer")
+                      .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                      .returns(BALANCER)
+                      .addStatement("return this.$N$$balancer", name)
+                      .build());
+          ctorParameters.add(ParameterSpec.builder(ArrayTypeName.of(ti), name).build());
+          ctorFieldInitBuilder
+              .addStatement("this.$1N = $1N.clone()", name)
+              .addStatement(
+                  "this.$1N$$balancer = new $2T($1S, this.$1N.length, $3L, $4LL)",
+                  name,
+                  BALANCER,
+                  delegate.balanceEjectionFactor,
+                  delegate.balanceEjectionMillis);
+          break;
+        case REMOTE:
+          classBuilder
+              .addField(REMOTE_CLIENT, name + "$remote", Modifier.PRIVATE, Modifier.FINAL)
+              .addMethod(
+                  MethodSpec.methodBuilder(name + "Remote")
+                      .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                      .returns(REMOTE_CLIENT)
+                      .addStatement("return this.$N$$remote", name)
+                      .build())
+              .addMethod(remoteSkeleton(delegate, ti));
+          ctorParameters.add(ParameterSpec.builder(ByteChannel.class, name).build());
+          ctorFieldInitBuilder.addStatement(
+              "this.$1N$$remote = new $2T($1S, $1N)", name, REMOTE_CLIENT);
+          break;
+        case HEDGED:
+          TypeName hedger = ParameterizedTypeName.get(HEDGER, ti);
+          classBuilder
+              .addField(ArrayTypeName.of(ti), name, Modifier.PROTECTED, Modifier.FINAL)
+              .addField(hedger, name + "$hedger", Modifier.PRIVATE, Modifier.FINAL)
+              .addMethod(
+                  MethodSpec.methodBuilder(name + "Hedger")
+                      .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                      .returns(hedger)
+                      .addStatement("return this.$N$$hedger", name)
+                      .build());
+          ctorParameters.add(ParameterSpec.builder(ArrayTypeName.of(ti), name).build());
+          ctorParameters.add(ParameterSpec.builder(Executor.class, name + "Executor").build());
+          ctorFieldInitBuilder
+              .addStatement("this.$1N = $1N.clone()", name)
+              .addStatement(
+                  "this.$1N$$hedger = new $2T<>($1S, this.$1N, $3N, $4LL, $5L, $6L)",
+                  name,
+                  HEDGER,
+                  name + "Executor",
+                  delegate.hedgeDelayMillis,
+                  delegate.hedgePercentile,
+                  delegate.hedgeBudgetPercent);
+          break;
+        case SHADOWED:
+          TypeName shadow = ParameterizedTypeName.get(SHADOW, ti);
+          classBuilder
+              .addField(ti, name, Modifier.PROTECTED, Modifier.FINAL)
+              .addField(shadow, name + "$shadow", Modifier.PRIVATE, Modifier.FINAL)
+              .addMethod(
+                  MethodSpec.methodBuilder(name + "Shadow")
+                      .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                      .returns(shadow)
+                      .addStatement("return this.$N$$shadow", name)
+                      .build());
+          ctorParameters.add(ParameterSpec.builder(ti, name).build());
+          ctorParameters.add(ParameterSpec.builder(ti, name + "Shadow").build());
+          ctorParameters.add(
+              ParameterSpec.builder(Executor.class, name + "ShadowExecutor").build());
+          ctorFieldInitBuilder
+              .addStatement("this.$1N = $1N", name)
+              .addStatement(
+                  "this.$N$$shadow = new $T<>($N, $N, $L, $L$L)",
+                  name,
+                  SHADOW,
+                  name + "Shadow",
+                  name + "ShadowExecutor",
+                  delegate.shadowSampleRate,
+                  delegate.shadowQueueCapacity,
+                  forwardableMethods(delegate.type).stream()
+                      .map(m -> CodeBlock.of(", $S", signature(m)))
+                      .collect(joining("")));
+          break;
+        case THREAD_LOCAL:
+          classBuilder.addField(
+              ParameterizedTypeName.get(ClassName.get(ThreadLocal.class), ti),
+              name,
+              Modifier.PRIVATE,
+              Modifier.FINAL);
+          classBuilder.addMethod(
+              MethodSpec.methodBuilder(name)
+                  .addModifiers(Modifier.PROTECTED, Modifier.FINAL)
+                  .returns(ti)
+                  .addStatement("return this.$N.get()", name)
+                  .build());
+          ctorParameters.add(ParameterSpec.builder(supplierOf(ti), name).build());
+          ctorFieldInitBuilder.addStatement(
+              "this.$1N = $2T.withInitial($3T.requireNonNull($1N))",
+              name,
+              ThreadLocal.class,
+              Objects.class);
+          break;
+        case STRIPED:
+          classBuilder.addField(
+              supplierOf(ti), name + "$supplier", Modifier.PRIVATE, Modifier.FINAL);
+          classBuilder.addField(
+              ParameterizedTypeName.get(ClassName.get(AtomicReferenceArray.class), ti),
+              name,
+              Modifier.PRIVATE,
+              Modifier.FINAL);
+          ctorParameters.add(ParameterSpec.builder(supplierOf(ti), name).build());
+          ctorFieldInitBuilder
+              .addStatement("this.$1N$$supplier = $2T.requireNonNull($1N)", name, Objects.class)
+              .addStatement(
+                  "this.$N = new $T<>($T.highestOneBit($T.getRuntime().availableProcessors()) << 2)",
+                  name,
+                  AtomicReferenceArray.class,
+                  Integer.class,
+                  Runtime.class);
+          if (!hasShardHelper) {
+            classBuilder.addMethod(shardHelper());
+            hasShardHelper = true;
+          }
+          break;
+        case FUSED:
+          classBuilder.addField(ti, name, Modifier.PROTECTED, Modifier.FINAL);
+          ctorParameters.add(
+              ParameterSpec.builder(ClassName.get(delegate.fused.get(0).type), name).build());
+          ctorFieldInitBuilder.addStatement("this.$1N$$0 = $1N", name);
+          for (int i = 0; i < delegate.fused.size(); i++) {
+            Layer layer = delegate.fused.get(i);
+            classBuilder.addField(
+                ClassName.get(layer.type), name + "$" + i, Modifier.PRIVATE, Modifier.FINAL);
+            if (i > 0) {
+              ctorFieldInitBuilder.addStatement(
+                  "this.$1N$$$2L = ($3T) this.$1N$$$4L.$5N",
+                  name,
+                  i,
+                  layer.type,
+                  i - 1,
+                  delegate.fused.get(i - 1).name);
+            }
+          }
+          ctorFieldInitBuilder.addStatement(
+              "this.$1N = this.$1N$$$2L.$3N",
+              name,
+              delegate.fused.size() - 1,
+              delegate.fused.get(delegate.fused.size() - 1).name);
+          break;
+        case POOLED:
+          addPool(classBuilder, delegate, ti);
+          ctorParameters.add(ParameterSpec.builder(supplierOf(ti), name).build());
+          ctorFieldInitBuilder.addStatement(
+              "this.$1N$$supplier = $2T.requireNonNull($1N)", name, Objects.class);
+          break;
+      }
+      if (delegate.maxConcurrency > 0) {
+        classBuilder
+            .addField(
+                FieldSpec.builder(BULKHEAD, name + "$bulkhead", Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer(
+                        "new $T($S, $L, $L, $LL)",
+                        BULKHEAD,
+                        name,
+                        delegate.maxConcurrency,
+                        delegate.adaptiveConcurrency,
+                        delegate.concurrencyTimeoutMillis)
+                    .build())
+            .addMethod(
+                MethodSpec.methodBuilder(name + "Bulkhead")
+                    .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                    .returns(BULKHEAD)
+                    .addStatement("return this.$N$$bulkhead", name)
+                    .build());
+      }
+      if (delegate.timeoutMillis > 0) {
+        classBuilder
+            .addField(DEADLINE, name + "$deadline", Modifier.PRIVATE, Modifier.FINAL)
+            .addMethod(
+                MethodSpec.methodBuilder(name + "Deadline")
+                    .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                    .returns(DEADLINE)
+                    .addStatement("return this.$N$$deadline", name)
+                    .build());
+        ctorParameters.add(
+            ParameterSpec.builder(Executor.class, name + "TimeoutExecutor").build());
+        ctorFieldInitBuilder.addStatement(
+            "this.$N$$deadline = new $T($S, $LL, $N)",
+            name,
+            DEADLINE,
+            name,
+            delegate.timeoutMillis,
+            name + "TimeoutExecutor");
+      }
+      if (delegate.prefetch > 0) {
+        classBuilder.addField(
+            Executor.class, name + "$prefetchExecutor", Modifier.PRIVATE, Modifier.FINAL);
+        ctorParameters.add(
+            ParameterSpec.builder(Executor.class, name + "PrefetchExecutor").build());
+        ctorFieldInitBuilder.addStatement(
+            "this.$N$$prefetchExecutor = $N", name, name + "PrefetchExecutor");
+      }
+      if (!delegate.scattered.isEmpty()) {
+        classBuilder
+            .addField(SCATTER_GATHER, name + "$scatter", Modifier.PRIVATE, Modifier.FINAL)
+            .addMethod(
+                MethodSpec.methodBuilder(name + "ScatterGather")
+                    .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                    .returns(SCATTER_GATHER)
+                    .addStatement("return this.$N$$scatter", name)
+                    .build());
+        ctorParameters.add(
+            ParameterSpec.builder(Executor.class, name + "ScatterExecutor").build());
+        ctorFieldInitBuilder.addStatement(
+            "this.$N$$scatter = new $T($S, $L, $L, $N)",
+            name,
+            SCATTER_GATHER,
+            name,
+            delegate.scatterChunkSize,
+            delegate.scatterParallelism,
+            name + "ScatterExecutor");
+      }
+      if (delegate.locking != Locking.NONE) {
+        if (delegate.mode == Mode.SHARDED) {
+          classBuilder.addField(
+              ArrayTypeName.of(StampedLock.class),
+              name + "$lock",
+              Modifier.PRIVATE,
+              Modifier.FINAL);
+          ctorFieldInitBuilder
+              .addStatement("this.$N$$lock = new $T[$N.length]", name, StampedLock.class, name)
+              .beginControlFlow("for (int $$i = 0; $$i < $N.length; $$i++)", name)
+              .addStatement("this.$N$$lock[$$i] = new $T()", name, StampedLock.class)
+              .endControlFlow();
+        } else {
+          classBuilder.addField(
+              FieldSpec.builder(StampedLock.class, name + "$lock", Modifier.PRIVATE, Modifier.FINAL)
+                  .initializer("new $T()", StampedLock.class)
+                  .build());
+        }
+      }
+    }
+    CodeBlock ctorFieldInit = ctorFieldInitBuilder.build();
+    for (ExecutableElement ctor : ElementFilter.constructorsIn(info.extend.getEnclosedElements())) {
+      // TODO: filter out package-private constructors from other packages
+      if (ctor.getModifiers().contains(Modifier.PRIVATE)) {
+        continue;
+      }
+      classBuilder.addMethod(
+          MethodSpec.constructorBuilder()
+              // TODO: handle generics
+              .addParameters(ctorParameters)
+              .addParameters(
+                  ctor.getParameters().stream().map(ParameterSpec::get).collect(toList()))
+              .varargs(ctor.isVarArgs())
+              .addExceptions(ctor.getThrownTypes().stream().map(TypeName::get).collect(toList()))
+              .addStatement(
+                  "super($L)",
+                  ctor.getParameters().stream()
+                      .map(p -> CodeBlock.of("$N", p.getSimpleName()))
+                      .collect(joining(",")))
+              .addCode(ctorFieldInit)
+              .build());
+    }
+    if (info.reusable) {
+      addReset(classBuilder, info, resetParameters);
+    }
+    if (info.interfaces.values().stream().anyMatch(d -> !d.singleFlight.isEmpty())) {
+      addSingleFlightHelpers(classBuilder);
+    }
+    for (DelegateInfo delegate : info.interfaces.values()) {
+      List<ExecutableElement> methods = forwardableMethods(delegate.type);
+      if (delegate.traced) {
+        classBuilder.addField(
+            FieldSpec.builder(
+                    TypeName.INT,
+                    delegate.name + "$TRACE_ID",
+                    Modifier.PRIVATE,
+                    Modifier.STATIC,
+                    Modifier.FINAL)
+                .initializer(
+                    "$T.register($S, $S$L)",
+                    TRACE,
+                    info.targetName.reflectionName(),
+                    delegate.name,
+                    methods.stream()
+                        .map(m -> CodeBlock.of(", $S", signature(m)))
+                        .collect(joining("")))
+                .build());
+      }
+      if (delegate.instrumented) {
+        classBuilder.addField(
+            FieldSpec.builder(
+                    INSTRUMENTATION,
+                    delegate.name + "$INSTRUMENTATION",
+                    Modifier.PRIVATE,
+                    Modifier.STATIC,
+                    Modifier.FINAL)
+                .initializer(
+                    "$T.register($S, $S$L)",
+                    INSTRUMENTATION,
+                    info.targetName.reflectionName(),
+                    delegate.name,
+                    methods.stream()
+                        .map(m -> CodeBlock.of(", $S", signature(m)))
+                        .collect(joining("")))
+                .build());
+      }
+      for (int i = 0; i < methods.size(); i++) {
+        ExecutableElement m = methods.get(i);
+        // TODO: handle methods contributed from more than one interface
+        MethodSpec forwarder = forwarder(classBuilder, delegate, m);
+        if (delegate.singleFlight.contains(m.getSimpleName().toString())) {
+          forwarder = singleFlightForwarder(classBuilder, delegate, m, forwarder);
+        }
+        if (delegate.traced) {
+          forwarder = tracedForwarder(delegate, m, i, forwarder);
+        }
+        if (info.reusable) {
+          forwarder = reusableForwarder(info, delegate, m, forwarder);
+        }
+        classBuilder.addMethod(forwarder);
+        if (delegate.instrumented) {
+          addInstrumented(classBuilder, delegate, m, i);
+        }
+      }
+    }
+    if (!checkGeneratedNames(type, classBuilder)) {
+      // The error has been reported, there's no need to defer the type.
+      return true;
+    }
+    try {
+      JavaFile.builder(info.targetName.packageName(), classBuilder.build())
+          .build()
+          .writeTo(processingEnv.getFiler());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return true;
+  }
+
+  /**
+   * Checks that the generated members don't conflict with each other, e.g. the cached result of a
+   * stable method named {@code supplier} with the supplier of a lazy delegate, or the {@code swap}
+   * method of a swappable delegate with a delegated {@code swap} method, rather than generating
+   * code that doesn't compile.
+   */
+  private boolean checkGeneratedNames(TypeElement type, TypeSpec.Builder generated) {
+    boolean hasError = false;
+    Set<String> fields = new HashSet<>();
+    for (FieldSpec field : generated.fieldSpecs) {
+      if (!fields.add(field.name)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateName] @AutoDelegate generated field conflicts with another generated member, rename the delegate or the method: "
+                    + field.name,
+                type);
+        hasError = true;
+      }
+    }
+    Set<String> methods = new HashSet<>();
+    for (MethodSpec method : generated.methodSpecs) {
+      String signature =
+          method.name
+              + method.parameters.stream().map(p -> p.type.toString()).collect(toList());
+      if (!methods.add(signature)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "[AutoDelegateName] @AutoDelegate generated method conflicts with a delegated method, rename the delegate or the method: "
+                    + method.name,
+                type);
+        hasError = true;
+      }
+    }
+    return !hasError;
+  }
+
+  private static Modifier[] fieldModifiers(AutoDelegateInfo info) {
+    return info.reusable
+        ? new Modifier[] {Modifier.PROTECTED}
+        : new Modifier[] {Modifier.PROTECTED, Modifier.FINAL};
+  }
+
+  /**
+   * Adds the {@code reset} and {@code release} methods of a reusable class, replacing or clearing
+   * the delegates, and the cached results of their stable methods.
+   */
+  private void addReset(
+      TypeSpec.Builder classBuilder, AutoDelegateInfo info, List<ParameterSpec> parameters) {
+    MethodSpec.Builder reset =
+        MethodSpec.methodBuilder("reset")
+            .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+            .addParameters(parameters);
+    MethodSpec.Builder release =
+        MethodSpec.methodBuilder("release").addModifiers(Modifier.PUBLIC, Modifier.FINAL);
+    for (ParameterSpec parameter : parameters) {
+      reset.addStatement("this.$1N = $1N", parameter.name);
+      release.addStatement("this.$N = null", parameter.name);
+    }
+    CodeBlock.Builder clearStable = CodeBlock.builder();
+    for (DelegateInfo delegate : info.interfaces.values()) {
+      for (ExecutableElement m : forwardableMethods(delegate.type)) {
+        if (m.getParameters().isEmpty()
+            && delegate.stable.contains(m.getSimpleName().toString())) {
+          String valueField = delegate.name + "$" + m.getSimpleName();
+          clearStable.addStatement("this.$N$$set = false", valueField);
+          if (!m.getReturnType().getKind().isPrimitive()) {
+            clearStable.addStatement("this.$N = null", valueField);
+          }
+        }
+      }
+    }
+    classBuilder
+        .addMethod(reset.addCode(clearStable.build()).build())
+        .addMethod(release.addCode(clearStable.build()).build());
+  }
+
+  private static TypeName supplierOf(TypeName type) {
+    return ParameterizedTypeName.get(
+        ClassName.get(Supplier.class), WildcardTypeName.subtypeOf(type));
+  }
+
+  private MethodSpec forwarder(
+      TypeSpec.Builder classBuilder, DelegateInfo delegate, ExecutableElement m) {
+    MethodSpec.Builder forwarder = overriding(m);
+    CodeBlock arguments =
+        m.getParameters().stream()
+            .map(p -> CodeBlock.of("$N", p.getSimpleName()))
+            .collect(joining(","));
+    boolean readOnly = delegate.readOnly.contains(m.getSimpleName().toString());
+    boolean isVoid = m.getReturnType().getKind() == TypeKind.VOID;
+    CodeBlock target;
+    CodeBlock lock = null;
+    switch (delegate.mode) {
+      case COMPOSITE:
+        return forwarder.addCode(limited(delegate, compositeCall(delegate, m, arguments))).build();
+      case SHARDED:
+        CodeBlock index = shardIndex(delegate, m);
+        if (index == null) {
+          switch (delegate.shardFallback) {
+            case ALL:
+              return forwarder
+                  .addCode(
+                      limited(
+                          delegate,
+                          CodeBlock.builder()
+                              .beginControlFlow(
+                                  "for (int $$index = 0; $$index < this.$N.length; $$index++)",
+                                  delegate.name)
+                              .add(
+                                  locked(
+                                      delegate.locking == Locking.NONE
+                                          ? null
+                                          : CodeBlock.of("this.$N$$lock[$$index]", delegate.name),
+                                      readOnly,
+                                      CodeBlock.builder()
+                                          .addStatement(
+                                              "this.$N[$$index].$N($L)",
+                                              delegate.name,
+                                              m.getSimpleName(),
+                                              arguments)
+                                          .build()))
+                              .endControlFlow()
+                              .build()))
+                  .build();
+            case UNSUPPORTED:
+              return forwarder
+                  .addStatement(
+                      "throw new $T($S)",
+                      UnsupportedOperationException.class,
+                      m.getSimpleName() + " has no shard key")
+                  .build();
+            default:
+              index = CodeBlock.of("0");
+              break;
+          }
+        }
+        if (delegate.locking != Locking.NONE) {
+          forwarder.addStatement("int $$index = $L", index);
+          index = CodeBlock.of("$$index");
+          lock = CodeBlock.of("this.$N$$lock[$L]", delegate.name, index);
+        }
+        target = CodeBlock.of("this.$N[$L]", delegate.name, index);
+        break;
+      case STRIPED:
+      case POOLED:
+        target = CodeBlock.of("$$delegate");
+        break;
+      case HEDGED:
+        target = CodeBlock.of("this.$N[0]", delegate.name);
+        break;
+      case BALANCED:
+        target = CodeBlock.of("this.$N[$$replica]", delegate.name);
+        break;
+      case REMOTE:
+        target = CodeBlock.of("this.$N$$remote", delegate.name);
+        break;
+      case FUSED:
+        target = CodeBlock.of("this.$N", delegate.name);
+        for (int i = 0; i < delegate.fused.size(); i++) {
+          if (!canSkip(delegate.fused.get(i), m)) {
+            target = CodeBlock.of("this.$N$$$L", delegate.name, i);
+            break;
+          }
+        }
+        break;
+      default:
+        target =
+            delegate.mode.hasAccessor()
+                ? CodeBlock.of("this.$N()", delegate.name)
+                : CodeBlock.of("this.$N", delegate.name);
+        break;
+    }
+    if (lock == null && delegate.locking != Locking.NONE) {
+      lock = CodeBlock.of("this.$N$$lock", delegate.name);
+    }
+    CodeBlock call;
+    if (delegate.mode == Mode.REMOTE) {
+      call = remoteCall(delegate, m, target);
+    } else if (delegate.instrumented) {
+      call =
+          CodeBlock.of(
+              "$N$$invoke$$$L($L$L)",
+              delegate.name,
+              forwardableMethods(delegate.type).indexOf(m),
+              target,
+              m.getParameters().stream()
+                  .map(p -> CodeBlock.of(", $N", p.getSimpleName()))
+                  .collect(joining("")));
+    } else {
+      call = CodeBlock.of("$L.$N($L)", target, m.getSimpleName(), arguments);
+    }
+    String prefetchFactory = delegate.prefetch > 0 ? prefetchFactory(m.getReturnType()) : null;
+    if (prefetchFactory != null) {
+      call =
+          CodeBlock.of(
+              "$T.$N($L, $L, this.$N$$prefetchExecutor)",
+              PREFETCHING_ITERATOR,
+              prefetchFactory,
+              call,
+              delegate.prefetch,
+              delegate.name);
+    }
+    if (m.getParameters().isEmpty() && delegate.stable.contains(m.getSimpleName().toString())) {
+      CodeBlock guardedLock = lock;
+      return stableForwarder(
+          classBuilder,
+          forwarder,
+          delegate,
+          m,
+          call,
+          code -> limited(delegate, borrowed(delegate, locked(guardedLock, true, code))));
+    }
+    CodeBlock.Builder body = CodeBlock.builder();
+    if (delegate.mode == Mode.SHADOWED) {
+      return forwarder
+          .addCode(limited(delegate, locked(lock, readOnly, shadowedCall(delegate, m, call))))
+          .build();
+    }
+    if (delegate.mode == Mode.HEDGED && delegate.hedged.contains(m.getSimpleName().toString())) {
+      return forwarder
+          .addCode(limited(delegate, locked(lock, readOnly, hedgedCall(delegate, m, arguments))))
+          .build();
+    }
+    if (delegate.scattered.contains(m.getSimpleName().toString())) {
+      return forwarder
+          .addCode(limited(delegate, locked(lock, readOnly, scatteredCall(delegate, m, target))))
+          .build();
+    }
+    if (delegate.timeoutMillis > 0
+        && (delegate.timed.isEmpty() || delegate.timed.contains(m.getSimpleName().toString()))) {
+      // Timeouts cannot be combined with locking, so there's no lock to take here.
+      return forwarder.addCode(limited(delegate, timedCall(delegate, m, call))).build();
+    }
+    if (lock != null && readOnly && !isVoid && delegate.locking == Locking.OPTIMISTIC_READ) {
+      body.add(optimisticRead(lock, TypeName.get(m.getReturnType()), call));
+    }
+    body.add(
+        locked(
+            lock,
+            readOnly,
+            CodeBlock.builder().addStatement("$L$L", isVoid ? "" : "return ", call).build()));
+    return forwarder.addCode(limited(delegate, borrowed(delegate, body.build()))).build();
+  }
+
+  /**
+   * Adds the helpers shared by single-flight forwarders: the key standing for no argument or a
+   * null argument, and the method waiting for an in-flight call.
+   */
+  private static void addSingleFlightHelpers(TypeSpec.Builder classBuilder) {
+    TypeVariableName t = TypeVariableName.get("T");
+    classBuilder
+        .addField(
+            FieldSpec.builder(
+                    Object.class, "$NULL_KEY", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T()", Object.class)
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("$join")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addTypeVariable(t)
+                .returns(t)
+                .addParameter(
+                    ParameterizedTypeName.get(ClassName.get(CompletableFuture.class), t), "flight")
+                .beginControlFlow("try")
+                .addStatement("return flight.join()")
+                .nextControlFlow("catch ($T e)", CompletionException.class)
+                .beginControlFlow("if (e.getCause() instanceof $T)", RuntimeException.class)
+                .addStatement("throw ($T) e.getCause()", RuntimeException.class)
+                .endControlFlow()
+                .beginControlFlow("if (e.getCause() instanceof $T)", Error.class)
+                .addStatement("throw ($T) e.getCause()", Error.class)
+                .endControlFlow()
+                .addStatement("throw e")
+                .endControlFlow()
+                .build());
+  }
+
+  /**
+   * Turns a forwarder into the leader of single-flight calls, and returns the forwarder
+   * deduplicating concurrent calls with equal arguments.
+   *
+   * <p>In-flight calls are tracked in a {@link ConcurrentHashMap}, whose bins are locked
+   * independently, and looked up first so that followers don't allocate anything (besides the
+   * key when there's more than one argument). The leader removes its entry once complete, so
+   * results are shared only between concurrent calls, never cached.
+   */
+  private MethodSpec singleFlightForwarder(
+      TypeSpec.Builder classBuilder,
+      DelegateInfo delegate,
+      ExecutableElement m,
+      MethodSpec forwarder) {
+    String prefix = delegate.name + "$" + m.getSimpleName();
+    boolean isVoid = m.getReturnType().getKind() == TypeKind.VOID;
+    TypeName resultType = isVoid ? ClassName.get(Void.class) : forwarder.returnType.box();
+    TypeName futureType =
+        ParameterizedTypeName.get(ClassName.get(CompletableFuture.class), resultType);
+    classBuilder
+        .addField(
+            FieldSpec.builder(
+                    ParameterizedTypeName.get(
+                        ClassName.get(ConcurrentHashMap.class), ClassName.OBJECT, futureType),
+                    prefix + "$inFlight",
+                    Modifier.PRIVATE,
+                    Modifier.FINAL)
+                .initializer("new $T<>()", ConcurrentHashMap.class)
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder(prefix + "$leader")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(forwarder.returnType)
+                .addParameters(forwarder.parameters)
+                .varargs(forwarder.varargs)
+                .addExceptions(forwarder.exceptions)
+                .addCode(forwarder.code)
+                .build());
+    List<? extends VariableElement> parameters = m.getParameters();
+    CodeBlock key;
+    if (parameters.isEmpty()) {
+      key = CodeBlock.of("$$NULL_KEY");
+    } else if (parameters.size() > 1) {
+      key =
+          CodeBlock.of(
+              "$T.asList($L)",
+              Arrays.class,
+              parameters.stream()
+                  .map(p -> CodeBlock.of("$N", p.getSimpleName()))
+                  .collect(joining(", ")));
+    } else if (parameters.get(0).asType().getKind().isPrimitive()) {
+      key = CodeBlock.of("$N", parameters.get(0).getSimpleName());
+    } else {
+      key = CodeBlock.of("$1N != null ? $1N : $$NULL_KEY", parameters.get(0).getSimpleName());
+    }
+    CodeBlock arguments =
+        parameters.stream()
+            .map(p -> CodeBlock.of("$N", p.getSimpleName()))
+            .collect(joining(","));
+    CodeBlock.Builder leader = CodeBlock.builder().beginControlFlow("try");
+    if (isVoid) {
+      leader
+          .addStatement("this.$N$$leader($L)", prefix, arguments)
+          .addStatement("$$leader.complete(null)")
+          .addStatement("return");
+    } else {
+      leader
+          .addStatement(
+              "$T $$result = this.$N$$leader($L)", forwarder.returnType, prefix, arguments)
+          .addStatement("$$leader.complete($$result)")
+          .addStatement("return $$result");
+    }
+    leader
+        .nextControlFlow("catch ($T $$e)", Throwable.class)
+        .addStatement("$$leader.completeExceptionally($$e)")
+        .addStatement("throw $$e")
+        .nextControlFlow("finally")
+        .addStatement("this.$N$$inFlight.remove($$key, $$leader)", prefix)
+        .endControlFlow();
+    CodeBlock join =
+        CodeBlock.builder().addStatement("$L$$join($$flight)", isVoid ? "" : "return ").build();
+    List<TypeName> checkedExceptions = checkedExceptions(m);
+    if (!checkedExceptions.isEmpty()) {
+      CodeBlock.Builder rethrow =
+          CodeBlock.builder()
+              .beginControlFlow("try")
+              .add(join)
+              .nextControlFlow("catch ($T $$e)", CompletionException.class);
+      for (TypeName exception : checkedExceptions) {
+        rethrow
+            .beginControlFlow("if ($$e.getCause() instanceof $T)", exception)
+            .addStatement("throw ($T) $$e.getCause()", exception)
+            .endControlFlow();
+      }
+      join = rethrow.addStatement("throw $$e").endControlFlow().build();
+    }
+    return overriding(m)
+        .addStatement("$T $$key = $L", Object.class, key)
+        .addStatement("$T $$flight = this.$N$$inFlight.get($$key)", futureType, prefix)
+        .beginControlFlow("if ($$flight == null)")
+        .addStatement("$T $$leader = new $T<>()", futureType, CompletableFuture.class)
+        .addStatement("$$flight = this.$N$$inFlight.putIfAbsent($$key, $$leader)", prefix)
+        .beginControlFlow("if ($$flight == null)")
+        .addCode(leader.build())
+        .endControlFlow()
+        .endControlFlow()
+        .addCode(join)
+        .build();
+  }
+
+  /**
+   * Returns the checked exceptions declared by the given method, without those that are subclasses
+   * of another declared exception.
+   */
+  private List<TypeName> checkedExceptions(ExecutableElement m) {
+    Types types = processingEnv.getTypeUtils();
+    Elements elements = processingEnv.getElementUtils();
+    TypeMirror runtimeException =
+        elements.getTypeElement(RuntimeException.class.getCanonicalName()).asType();
+    TypeMirror error = elements.getTypeElement(Error.class.getCanonicalName()).asType();
+    List<? extends TypeMirror> thrownTypes = m.getThrownTypes();
+    return thrownTypes.stream()
+        .filter(e -> !types.isSubtype(e, runtimeException) && !types.isSubtype(e, error))
+        .filter(
+            e ->
+                thrownTypes.stream()
+                    .noneMatch(other -> other != e && types.isSubtype(e, other)))
+        .map(TypeName::get)
+        .collect(toList());
+  }
+
+  /**
+   * Adds the protected abstract methods combining the results of composite delegates, one per
+   * distinct method name and return type.
+   */
+  private void addCombiners(TypeSpec.Builder classBuilder, DelegateInfo delegate) {
+    Set<String> added = new HashSet<>();
+    for (ExecutableElement m : forwardableMethods(delegate.type)) {
+      if (m.getReturnType().getKind() == TypeKind.VOID) {
+        continue;
+      }
+      String combiner = combinerName(m);
+      TypeName returnType = TypeName.get(m.getReturnType());
+      if (!added.add(combiner + " " + returnType)) {
+        continue;
+      }
+      classBuilder.addMethod(
+          MethodSpec.methodBuilder(combiner)
+              .addModifiers(Modifier.PROTECTED, Modifier.ABSTRACT)
+              .addTypeVariables(
+                  m.getTypeParameters().stream().map(TypeVariableName::get).collect(toList()))
+              .returns(returnType)
+              .addParameter(returnType, "left")
+              .addParameter(returnType, "right")
+              .build());
+    }
+  }
+
+  private static String combinerName(ExecutableElement m) {
+    String name = m.getSimpleName().toString();
+    return "combine" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+  }
+
+  /**
+   * Generates the body of a forwarder to composite delegates: methods returning {@code void} are
+   * dispatched through the runtime, and the results of other methods are reduced in a loop.
+   */
+  private CodeBlock compositeCall(DelegateInfo delegate, ExecutableElement m, CodeBlock arguments) {
+    CharSequence name = m.getSimpleName();
+    if (m.getReturnType().getKind() == TypeKind.VOID) {
+      return rethrowing(
+          m,
+          CodeBlock.builder()
+              .addStatement(
+                  "this.$N$$composite.forEach($$delegate -> $$delegate.$N($L))",
+                  delegate.name,
+                  name,
+                  arguments)
+              .build());
+    }
+    TypeName ti = ClassName.get(delegate.type);
+    TypeName returnType = TypeName.get(m.getReturnType());
+    CodeBlock.Builder code = CodeBlock.builder();
+    switch (delegate.compositeReduction) {
+      case FIRST_NON_NULL:
+        return code.beginControlFlow(
+                "for ($T $$delegate : this.$N$$composite.get())", ti, delegate.name)
+            .addStatement("$T $$result = $$delegate.$N($L)", returnType, name, arguments)
+            .beginControlFlow("if ($$result != null)")
+            .addStatement("return $$result")
+            .endControlFlow()
+            .endControlFlow()
+            .addStatement("return null")
+            .build();
+      case ALL_TRUE:
+        return code.beginControlFlow(
+                "for ($T $$delegate : this.$N$$composite.get())", ti, delegate.name)
+            .beginControlFlow("if (!$$delegate.$N($L))", name, arguments)
+            .addStatement("return false")
+            .endControlFlow()
+            .endControlFlow()
+            .addStatement("return true")
+            .build();
+      case COMBINE:
+        return code.addStatement(
+                "$T[] $$delegates = this.$N$$composite.get()", ti, delegate.name)
+            .beginControlFlow("if ($$delegates.length == 0)")
+            .addStatement(
+                "throw new $T($S)", NoSuchElementException.class, delegate.name + " is empty")
+            .endControlFlow()
+            .addStatement("$T $$result = $$delegates[0].$N($L)", returnType, name, arguments)
+            .beginControlFlow("for (int $$i = 1; $$i < $$delegates.length; $$i++)")
+            .addStatement(
+                "$$result = $N($$result, $$delegates[$$i].$N($L))",
+                combinerName(m),
+                name,
+                arguments)
+            .endControlFlow()
+            .addStatement("return $$result")
+            .build();
+    }
+    throw new AssertionError(delegate.compositeReduction);
+  }
+
+  /**
+   * Returns the parameter of a bulk method split into chunks when scattered: its only {@code
+   * List}, {@code Collection} or array parameter; or {@code null} if there's no or several such
+   * parameters.
+   */
+  private static @Nullable VariableElement scatterParameter(ExecutableElement m) {
+    List<VariableElement> candidates =
+        m.getParameters().stream()
+            .filter(
+                p ->
+                    p.asType().getKind() == TypeKind.ARRAY
+                        || isType(p.asType(), "java.util.List")
+                        || isType(p.asType(), "java.util.Collection"))
+            .collect(toList());
+    return candidates.size() == 1 ? candidates.get(0) : null;
+  }
+
+  /**
+   * Returns the name of the {@code ScatterGather} method merging the results of a scattered bulk
+   * method, the empty string if it returns {@code void}, or {@code null} if it cannot be merged.
+   */
+  private static @Nullable String scatterResult(ExecutableElement m) {
+    TypeMirror returnType = m.getReturnType();
+    if (returnType.getKind() == TypeKind.VOID) {
+      return "";
+    }
+    if (isType(returnType, "java.util.List") || isType(returnType, "java.util.Collection")) {
+      return "concat";
+    }
+    if (isType(returnType, "java.util.Map")) {
+      return "merge";
+    }
+    return null;
+  }
+
+  /**
+   * Returns the suffix of the {@code RemoteMessage} methods encoding and decoding values of the
+   * given type, or {@code null} if it cannot be sent to a remote delegate.
+   */
+  private static @Nullable String remoteType(TypeMirror type) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+        return "Boolean";
+      case BYTE:
+        return "Byte";
+      case SHORT:
+        return "Short";
+      case CHAR:
+        return "Char";
+      case INT:
+        return "Int";
+      case LONG:
+        return "Long";
+      case FLOAT:
+        return "Float";
+      case DOUBLE:
+        return "Double";
+      case ARRAY:
+        return ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE ? "Bytes" : null;
+      case DECLARED:
+        return isType(type, "java.lang.String") ? "String" : null;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns a call to a remote delegate, encoding the arguments into the request and decoding the
+   * result from the response.
+   */
+  private CodeBlock remoteCall(DelegateInfo delegate, ExecutableElement m, CodeBlock target) {
+    CodeBlock.Builder request =
+        CodeBlock.builder()
+            .add("$L.request($L)", target, forwardableMethods(delegate.type).indexOf(m));
+    for (VariableElement p : m.getParameters()) {
+      request.add(".put$L($N)", remoteType(p.asType()), p.getSimpleName());
+    }
+    CodeBlock call = CodeBlock.of("$L.call($L)", target, request.build());
+    if (m.getReturnType().getKind() == TypeKind.VOID) {
+      return call;
+    }
+    return CodeBlock.of("$T.get$L($L)", REMOTE_MESSAGE, remoteType(m.getReturnType()), call);
+  }
+
+  /**
+   * Returns the method creating the dispatcher that serves requests from remote clients, decoding
+   * the arguments, calling the given delegate, and encoding its result.
+   */
+  private MethodSpec remoteSkeleton(DelegateInfo delegate, TypeName ti) {
+    CodeBlock.Builder dispatch = CodeBlock.builder().beginControlFlow("switch ($$method)");
+    List<ExecutableElement> methods = forwardableMethods(delegate.type);
+    for (int i = 0; i < methods.size(); i++) {
+      ExecutableElement m = methods.get(i);
+      CodeBlock call =
+          CodeBlock.of(
+              "$N.$N($L)",
+              delegate.name,
+              m.getSimpleName(),
+              m.getParameters().stream()
+                  .map(
+                      p ->
+                          CodeBlock.of(
+                              "$T.get$L($$request)", REMOTE_MESSAGE, remoteType(p.asType())))
+                  .collect(joining(", ")));
+      dispatch.add("case $L:\n", i).indent();
+      if (m.getReturnType().getKind() == TypeKind.VOID) {
+        dispatch.addStatement("$L", call);
+      } else {
+        dispatch.addStatement("$$response.put$L($L)", remoteType(m.getReturnType()), call);
+      }
+      dispatch.addStatement("break").unindent();
+    }
+    dispatch
+        .add("default:\n")
+        .indent()
+        .addStatement(
+            "throw new $T($S + $$method)",
+            UnsupportedOperationException.class,
+            "Unknown method id: ")
+        .unindent()
+        .endControlFlow();
+    return MethodSpec.methodBuilder(delegate.name + "Skeleton")
+        .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+        .addParameter(ti, delegate.name)
+        .returns(REMOTE_DISPATCHER)
+        .addCode("return ($$method, $$request, $$response) -> {\n$>$L$<};\n", dispatch.build())
+        .build();
+  }
+
+  private static boolean isType(TypeMirror type, String qualifiedName) {
+    return type.getKind() == TypeKind.DECLARED
+        && ((TypeElement) ((DeclaredType) type).asElement())
+            .getQualifiedName()
+            .contentEquals(qualifiedName);
+  }
+
+  /**
+   * Generates the body of a forwarder splitting the call into chunks, called concurrently through
+   * the runtime, when the bulk parameter is larger than a chunk.
+   *
+   * <p>The target is read once, on the calling thread, so that all chunks go to the same delegate
+   * even if it's swapped or initialized concurrently.
+   */
+  private CodeBlock scatteredCall(DelegateInfo delegate, ExecutableElement m, CodeBlock target) {
+    VariableElement bulk = Objects.requireNonNull(scatterParameter(m));
+    String merge = Objects.requireNonNull(scatterResult(m));
+    boolean isArray = bulk.asType().getKind() == TypeKind.ARRAY;
+    CodeBlock size =
+        isArray
+            ? CodeBlock.of("$N.length", bulk.getSimpleName())
+            : CodeBlock.of("$N.size()", bulk.getSimpleName());
+    CodeBlock.Builder code =
+        CodeBlock.builder()
+            .addStatement("$T $$target = $L", ClassName.get(delegate.type), target);
+    CodeBlock call =
+        CodeBlock.of(
+            "$$target.$N($L)",
+            m.getSimpleName(),
+            m.getParameters().stream()
+                .map(p -> CodeBlock.of("$N", p.getSimpleName()))
+                .collect(joining(",")));
+    code.beginControlFlow("if ($L <= $L)", size, delegate.scatterChunkSize);
+    if (merge.isEmpty()) {
+      code.addStatement("$L", call).addStatement("return");
+    } else {
+      code.addStatement("return $L", call);
+    }
+    code.endControlFlow();
+    CodeBlock chunk;
+    if (isArray) {
+      chunk = CodeBlock.of("$T.copyOfRange($N, $$from, $$to)", Arrays.class, bulk.getSimpleName());
+    } else if (isType(bulk.asType(), "java.util.List")) {
+      chunk = CodeBlock.of("$N.subList($$from, $$to)", bulk.getSimpleName());
+    } else {
+      List<? extends TypeMirror> typeArguments =
+          ((DeclaredType) bulk.asType()).getTypeArguments();
+      TypeName list =
+          typeArguments.isEmpty()
+              ? ClassName.get(List.class)
+              : ParameterizedTypeName.get(
+                  ClassName.get(List.class), TypeName.get(typeArguments.get(0)));
+      code.addStatement("$T $$list = $T.asList($N)", list, SCATTER_GATHER, bulk.getSimpleName());
+      chunk = CodeBlock.of("$$list.subList($$from, $$to)");
+    }
+    CodeBlock chunkCall =
+        CodeBlock.of(
+            "$$target.$N($L)",
+            m.getSimpleName(),
+            m.getParameters().stream()
+                .map(p -> p.equals(bulk) ? chunk : CodeBlock.of("$N", p.getSimpleName()))
+                .collect(joining(",")));
+    if (merge.isEmpty()) {
+      return code.add(
+              rethrowing(
+                  m,
+                  CodeBlock.builder()
+                      .addStatement(
+                          "this.$N$$scatter.map($L, ($$from, $$to) -> { $L; return null; })",
+                          delegate.name,
+                          size,
+                          chunkCall)
+                      .build()))
+          .build();
+    }
+    return code.add(
+            rethrowing(
+                m,
+                CodeBlock.builder()
+                    .addStatement(
+                        "return $T.$N(this.$N$$scatter.map($L, ($$from, $$to) -> $L))",
+                        SCATTER_GATHER,
+                        merge,
+                        delegate.name,
+                        size,
+                        chunkCall)
+                    .build()))
+        .build();
+  }
+
+  /**
+   * Returns a call hedged across the replicas of the delegate, rethrowing the exceptions declared
+   * by the method, and wrapping any other checked exception (that a replica can't throw) into an
+   * {@link UndeclaredThrowableException}.
+   */
+  private CodeBlock hedgedCall(DelegateInfo delegate, ExecutableElement m, CodeBlock arguments) {
+    if (m.getReturnType().getKind() == TypeKind.VOID) {
+      return rethrowing(
+          m,
+          CodeBlock.builder()
+              .addStatement(
+                  "this.$N$$hedger.call($$replica -> { $$replica.$N($L); return null; })",
+                  delegate.name,
+                  m.getSimpleName(),
+                  arguments)
+              .build());
+    }
+    return rethrowing(
+        m,
+        CodeBlock.builder()
+            .addStatement(
+                "return this.$N$$hedger.call($$replica -> $$replica.$N($L))",
+                delegate.name,
+                m.getSimpleName(),
+                arguments)
+            .build());
+  }
+
+  /**
+   * Generates the body of a forwarder calling the delegate against a deadline, on the executor
+   * passed to the constructor.
+   */
+  private CodeBlock timedCall(DelegateInfo delegate, ExecutableElement m, CodeBlock call) {
+    if (m.getReturnType().getKind() == TypeKind.VOID) {
+      return rethrowing(
+          m,
+          CodeBlock.builder()
+              .addStatement(
+                  "this.$N$$deadline.call($S, () -> { $L; return null; })",
+                  delegate.name,
+                  m.getSimpleName(),
+                  call)
+              .build());
+    }
+    return rethrowing(
+        m,
+        CodeBlock.builder()
+            .addStatement(
+                "return this.$N$$deadline.call($S, () -> $L)",
+                delegate.name,
+                m.getSimpleName(),
+                call)
+            .build());
+  }
+
+  /**
+   * Wraps code calling a runtime helper that throws {@link Exception}, rethrowing the exceptions
+   * declared by the method, and wrapping the others in an {@link UndeclaredThrowableException}.
+   */
+  private CodeBlock rethrowing(ExecutableElement m, CodeBlock body) {
+    List<TypeName> checkedExceptions = checkedExceptions(m);
+    if (checkedExceptions.stream()
+        .anyMatch(
+            e ->
+                e.equals(ClassName.get(Exception.class))
+                    || e.equals(ClassName.get(Throwable.class)))) {
+      return body;
+    }
+    List<TypeName> rethrown = new ArrayList<>();
+    rethrown.add(ClassName.get(RuntimeException.class));
+    rethrown.addAll(checkedExceptions);
+    return CodeBlock.builder()
+        .beginControlFlow("try")
+        .add(body)
+        .nextControlFlow(
+            "catch ($L $$e)",
+            rethrown.stream().map(e -> CodeBlock.of("$T", e)).collect(joining(" | ")))
+        .addStatement("throw $$e")
+        .nextControlFlow("catch ($T $$e)", Exception.class)
+        .addStatement("throw new $T($$e)", UndeclaredThrowableException.class)
+        .endControlFlow()
+        .build();
+  }
+
+  /** Wraps a forwarder so that it checks, when assertions are enabled, it wasn't released. */
+  private static MethodSpec reusableForwarder(
+      AutoDelegateInfo info, DelegateInfo delegate, ExecutableElement m, MethodSpec forwarder) {
+    return overriding(m)
+        .addStatement(
+            "assert this.$N != null : $S",
+            delegate.name,
+            info.targetName.simpleName() + " used after release()")
+        .addCode(forwarder.code)
+        .build();
+  }
+
+  /**
+   * Wraps a forwarder so that each call is recorded into the trace buffer, along with whether it
+   * threw.
+   */
+  private static MethodSpec tracedForwarder(
+      DelegateInfo delegate, ExecutableElement m, int methodId, MethodSpec forwarder) {
+    return overriding(m)
+        .addStatement("long $$traceStart = $T.start()", TRACE)
+        .addStatement("boolean $$traceFailed = false")
+        .beginControlFlow("try")
+        .addCode(forwarder.code)
+        .nextControlFlow("catch ($T $$traceError)", Throwable.class)
+        .addStatement("$$traceFailed = true")
+        .addStatement("throw $$traceError")
+        .nextControlFlow("finally")
+        .addStatement(
+            "$T.record($N$$TRACE_ID, $L, $$traceStart, $$traceFailed)",
+            TRACE,
+            delegate.name,
+            methodId)
+        .endControlFlow()
+        .build();
+  }
+
+  /**
+   * Adds the members through which an instrumented forwarder calls the delegate: the method handle
+   * guarded by the instrumentation switch point, the method invoking it, and the instrumented
+   * method it switches to.
+   */
+  private void addInstrumented(
+      TypeSpec.Builder classBuilder, DelegateInfo delegate, ExecutableElement m, int methodId) {
+    Types types = processingEnv.getTypeUtils();
+    TypeName ti = ClassName.get(delegate.type);
+    String handle = delegate.name + "$HANDLE$" + methodId;
+    String instrumented = delegate.name + "$instrumented$" + methodId;
+    boolean isVoid = m.getReturnType().getKind() == TypeKind.VOID;
+    List<ParameterSpec> parameters = new ArrayList<>();
+    parameters.add(ParameterSpec.builder(ti, "$delegate").build());
+    for (VariableElement p : m.getParameters()) {
+      parameters.add(ParameterSpec.get(p));
+    }
+    CodeBlock arguments =
+        m.getParameters().stream()
+            .map(p -> CodeBlock.of("$N", p.getSimpleName()))
+            .collect(joining(", "));
+    List<TypeName> thrownTypes =
+        m.getThrownTypes().stream().map(TypeName::get).collect(toList());
+    classBuilder.addField(
+        FieldSpec.builder(
+                MethodHandle.class, handle, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+            .initializer(
+                "$T.guard($T.lookup(), $T.class, $S, $S, $T.methodType($T.class, $T.class$L))",
+                INSTRUMENTATION,
+                MethodHandles.class,
+                ti,
+                m.getSimpleName(),
+                instrumented,
+                MethodType.class,
+                TypeName.get(types.erasure(m.getReturnType())),
+                ti,
+                m.getParameters().stream()
+                    .map(p -> CodeBlock.of(", $T.class", TypeName.get(types.erasure(p.asType()))))
+                    .collect(joining("")))
+            .build());
+    // invokeExact throws Throwable, rethrow what the method can throw.
+    List<TypeName> checkedExceptions = checkedExceptions(m);
+    CodeBlock invoke =
+        CodeBlock.builder()
+            .addStatement(
+                "$L$N.invokeExact($$delegate$L)",
+                isVoid ? CodeBlock.of("") : CodeBlock.of("return ($T) ", m.getReturnType()),
+                handle,
+                m.getParameters().stream()
+                    .map(p -> CodeBlock.of(", $N", p.getSimpleName()))
+                    .collect(joining("")))
+            .build();
+    if (!checkedExceptions.contains(ClassName.get(Throwable.class))) {
+      List<TypeName> rethrown = new ArrayList<>();
+      if (!checkedExceptions.contains(ClassName.get(Exception.class))) {
+        rethrown.add(ClassName.get(RuntimeException.class));
+      }
+      rethrown.add(ClassName.get(Error.class));
+      rethrown.addAll(checkedExceptions);
+      invoke =
+          CodeBlock.builder()
+              .beginControlFlow("try")
+              .add(invoke)
+              .nextControlFlow(
+                  "catch ($L $$e)",
+                  rethrown.stream().map(e -> CodeBlock.of("$T", e)).collect(joining(" | ")))
+              .addStatement("throw $$e")
+              .nextControlFlow("catch ($T $$e)", Throwable.class)
+              .addStatement("throw new $T($$e)", UndeclaredThrowableException.class)
+              .endControlFlow()
+              .build();
+    }
+    classBuilder
+        .addMethod(
+            MethodSpec.methodBuilder(delegate.name + "$invoke$" + methodId)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(TypeName.get(m.getReturnType()))
+                .addParameters(parameters)
+                .varargs(m.isVarArgs())
+                .addExceptions(thrownTypes)
+                .addCode(invoke)
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder(instrumented)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(TypeName.get(m.getReturnType()))
+                .addParameters(parameters)
+                .varargs(m.isVarArgs())
+                .addExceptions(thrownTypes)
+                .addStatement("long $$start = $N$$INSTRUMENTATION.start()", delegate.name)
+                .addStatement("boolean $$failed = false")
+                .beginControlFlow("try")
+                .addStatement(
+                    "$L$$delegate.$N($L)",
+                    isVoid ? "" : "return ",
+                    m.getSimpleName(),
+                    arguments)
+                .nextControlFlow("catch ($T $$e)", Throwable.class)
+                .addStatement("$$failed = true")
+                .addStatement("throw $$e")
+                .nextControlFlow("finally")
+                .addStatement(
+                    "$N$$INSTRUMENTATION.record($L, $$start, $$failed)", delegate.name, methodId)
+                .endControlFlow()
+                .build());
+  }
+
+  /**
+   * Returns a call to the primary delegate, mirrored to the shadow delegate if sampled.
+   *
+   * <p>The latency of the primary delegate is only measured for sampled calls, and the call is
+   * only mirrored if it succeeded.
+   */
+  private CodeBlock shadowedCall(DelegateInfo delegate, ExecutableElement m, CodeBlock call) {
+    boolean isVoid = m.getReturnType().getKind() == TypeKind.VOID;
+    CodeBlock arguments =
+        m.getParameters().stream()
+            .map(p -> CodeBlock.of("$N", p.getSimpleName()))
+            .collect(joining(","));
+    CodeBlock.Builder code =
+        CodeBlock.builder().beginControlFlow("if (!this.$N$$shadow.sample())", delegate.name);
+    if (isVoid) {
+      code.addStatement("$L", call).addStatement("return");
+    } else {
+      code.addStatement("return $L", call);
+    }
+    code.endControlFlow().addStatement("long $$shadowStart = $T.nanoTime()", System.class);
+    int index = forwardableMethods(delegate.type).indexOf(m);
+    if (isVoid) {
+      code.addStatement("$L", call)
+          .addStatement(
+              "this.$N$$shadow.mirror($L, $T.nanoTime() - $$shadowStart, null, "
+                  + "$$shadow -> { $$shadow.$N($L); return null; })",
+              delegate.name,
+              index,
+              System.class,
+              m.getSimpleName(),
+              arguments);
+    } else {
+      code.addStatement("$T $$result = $L", TypeName.get(m.getReturnType()), call)
+          .addStatement(
+              "this.$N$$shadow.mirror($L, $T.nanoTime() - $$shadowStart, $$result, "
+                  + "$$shadow -> $$shadow.$N($L))",
+              delegate.name,
+              index,
+              System.class,
+              m.getSimpleName(),
+              arguments)
+          .addStatement("return $$result");
+    }
+    return code.build();
+  }
+
+  /** Returns the signature of a method, as its name followed by its parameter types. */
+  private static String signature(ExecutableElement m) {
+    return m.getSimpleName()
+        + m.getParameters().stream()
+            .map(p -> p.asType().toString())
+            .collect(Collectors.joining(",", "(", ")"));
+  }
+
+  /**
+   * Returns the expression computing the index of the shard a call is routed to, or {@code null}
+   * if the method has no shard key and the fallback isn't based on the calling thread.
+   */
+  private @Nullable CodeBlock shardIndex(DelegateInfo delegate, ExecutableElement m) {
+    VariableElement key =
+        m.getParameters().stream().filter(this::isShardKey).findFirst().orElse(null);
+    CodeBlock hash;
+    if (key != null) {
+      hash =
+          key.asType().getKind().isPrimitive()
+              ? CodeBlock.of(
+                  "$T.hashCode($N)", TypeName.get(key.asType()).box(), key.getSimpleName())
+              : CodeBlock.of("$T.hashCode($N)", Objects.class, key.getSimpleName());
+    } else if (delegate.shardFallback == ShardFallback.CURRENT_THREAD) {
+      hash = CodeBlock.of("$T.currentThread().hashCode()", Thread.class);
+    } else {
+      return null;
+    }
+    return CodeBlock.of("$$shard($L, this.$N.length)", hash, delegate.name);
+  }
+
+  /**
+   * Returns the given statements, bracketed by the acquisition and release of a permit from the
+   * delegate's bulkhead if it has a max concurrency.
+   */
+  private static CodeBlock limited(DelegateInfo delegate, CodeBlock code) {
+    if (delegate.maxConcurrency == 0) {
+      return code;
+    }
+    return CodeBlock.builder()
+        .addStatement("long $$start = this.$N$$bulkhead.acquire()", delegate.name)
+        .beginControlFlow("try")
+        .add(code)
+        .nextControlFlow("finally")
+        .addStatement("this.$N$$bulkhead.release($$start)", delegate.name)
+        .endControlFlow()
+        .build();
+  }
+
+  /** Returns the given statements, guarded by the given lock if non-null. */
+  private static CodeBlock locked(@Nullable CodeBlock lock, boolean readOnly, CodeBlock code) {
+    if (lock == null) {
+      return code;
+    }
+    return CodeBlock.builder()
+        .addStatement("long $$stamp = $L.$L()", lock, readOnly ? "readLock" : "writeLock")
+        .beginControlFlow("try")
+        .add(code)
+        .nextControlFlow("finally")
+        .addStatement("$L.$L($$stamp)", lock, readOnly ? "unlockRead" : "unlockWrite")
+        .endControlFlow()
+        .build();
+  }
+
+  /**
+   * Returns an optimistic read, returning the result if no write happened concurrently; otherwise
+   * falls through to the following statements.
+   *
+   * <p>A runtime exception thrown while a write happened concurrently is considered a consequence
+   * of reading inconsistent state, and discarded too.
+   */
+  private static CodeBlock optimisticRead(CodeBlock lock, TypeName returnType, CodeBlock call) {
+    return CodeBlock.builder()
+        .addStatement("long $$optimisticStamp = $L.tryOptimisticRead()", lock)
+        .beginControlFlow("if ($$optimisticStamp != 0L)")
+        .beginControlFlow("try")
+        .addStatement("$T $$result = $L", returnType, call)
+        .beginControlFlow("if ($L.validate($$optimisticStamp))", lock)
+        .addStatement("return $$result")
+        .endControlFlow()
+        .nextControlFlow("catch ($T $$e)", RuntimeException.class)
+        .beginControlFlow("if ($L.validate($$optimisticStamp))", lock)
+        .addStatement("throw $$e")
+        .endControlFlow()
+        .endControlFlow()
+        .endControlFlow()
+        .build();
+  }
+
+  /**
+   * Returns the given statements, with a {@code $delegate} variable borrowed from the delegate's
+   * stripes for the duration of the call if the delegate is striped, or from its pool if pooled;
+   * or with a {@code $replica} variable selected by the balancer if the delegate is balanced.
+   *
+   * <p>The stripe is selected from a hash of the current thread, and the delegate is taken out of
+   * it while in use, so that a delegate is never used by two threads at the same time. If the
+   * stripe is empty (the first time, or if another thread with the same hash is using it), a new
+   * delegate is created; when the stripe has been filled by another thread in the mean time, the
+   * returned delegate is discarded.
+   */
+  private static CodeBlock borrowed(DelegateInfo delegate, CodeBlock code) {
+    if (delegate.mode == Mode.BALANCED) {
+      return CodeBlock.builder()
+          .addStatement("int $$replica = this.$N$$balancer.select()", delegate.name)
+          .addStatement("long $$replicaStart = $T.nanoTime()", System.class)
+          .addStatement("boolean $$replicaFailed = false")
+          .beginControlFlow("try")
+          .add(code)
+          .nextControlFlow("catch ($T $$replicaError)", Throwable.class)
+          .addStatement("$$replicaFailed = true")
+          .addStatement("throw $$replicaError")
+          .nextControlFlow("finally")
+          .addStatement(
+              "this.$N$$balancer.release($$replica, $$replicaStart, $$replicaFailed)",
+              delegate.name)
+          .endControlFlow()
+          .build();
+    }
+    if (delegate.mode == Mode.POOLED) {
+      return CodeBlock.builder()
+          .addStatement(
+              "$T $$delegate = this.$N$$borrow()", ClassName.get(delegate.type), delegate.name)
+          .beginControlFlow("try")
+          .add(code)
+          .nextControlFlow("finally")
+          .addStatement("this.$N$$release($$delegate)", delegate.name)
+          .endControlFlow()
+          .build();
+    }
+    if (delegate.mode != Mode.STRIPED) {
+      return code;
+    }
+    return CodeBlock.builder()
+        .addStatement(
+            "int $$index = $$shard($T.currentThread().hashCode(), this.$N.length())",
+            Thread.class,
+            delegate.name)
+        .addStatement(
+            "$T $$delegate = this.$N.getAndSet($$index, null)",
+            ClassName.get(delegate.type),
+            delegate.name)
+        .beginControlFlow("if ($$delegate == null)")
+        .addStatement(
+            "$$delegate = $T.requireNonNull(this.$N$$supplier.get(), $S)",
+            Objects.class,
+            delegate.name,
+            delegate.name)
+        .endControlFlow()
+        .beginControlFlow("try")
+        .add(code)
+        .nextControlFlow("finally")
+        .addStatement("this.$N.compareAndSet($$index, null, $$delegate)", delegate.name)
+        .endControlFlow()
+        .build();
+  }
+
+  /**
+   * Generates the helper selecting a shard from a hash.
+   *
+   * <p>Like in {@link java.util.HashMap}, high bits are spread to lower bits so that hashes
+   * differing only in their high bits don't always end up in the same shard.
+   */
+  private static MethodSpec shardHelper() {
+    return MethodSpec.methodBuilder("$shard")
+        .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+        .returns(TypeName.INT)
+        .addParameter(TypeName.INT, "hash")
+        .addParameter(TypeName.INT, "length")
+        .addStatement("return (hash ^ (hash >>> 16)) & (length - 1)")
+        .build();
+  }
+
+  /**
+   * Generates the protected method initializing and returning a lazy delegate.
+   *
+   * <p>This uses double-checked locking on a volatile field, so the steady-state path is a single
+   * volatile read (a plain load on most architectures), and the supplier is called only once. The
+   * supplier is only read while holding the lock, and is then released so that it (and whatever it
+   * captures) can be garbage collected.
+   */
+  private static MethodSpec lazyAccessor(TypeName ti, String name) {
+    return MethodSpec.methodBuilder(name)
+        .addModifiers(Modifier.PROTECTED, Modifier.FINAL)
+        .returns(ti)
+        .addStatement("$T delegate = this.$N", ti, name)
+        .beginControlFlow("if (delegate == null)")
+        .beginControlFlow("synchronized (this)")
+        .addStatement("delegate = this.$N", name)
+        .beginControlFlow("if (delegate == null)")
+        .addStatement(
+            "delegate = $T.requireNonNull(this.$N$$supplier.get(), $S)", Objects.class, name, name)
+        .addStatement("this.$N = delegate", name)
+        .addStatement("this.$N$$supplier = null", name)
+        .endControlFlow()
+        .endControlFlow()
+        .endControlFlow()
+        .addStatement("return delegate")
+        .build();
+  }
+
+  /**
+   * Generates the field, {@link java.lang.invoke.VarHandle} and methods for a swappable delegate.
+   *
+   * <p>Reads use acquire semantics, which compile to plain loads on x86 and ARMv8.3+, and writes
+   * use release semantics, so the fast path is as cheap as reading a final field.
+   */
+  private static void addSwappable(
+      TypeSpec.Builder classBuilder, ClassName targetName, TypeName ti, String name) {
+    ClassName varHandle = ClassName.bestGuess(VAR_HANDLE_TYPE_NAME);
+    String handle = name + "$HANDLE";
+    classBuilder
+        .addField(varHandle, handle, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+        .addStaticBlock(
+            CodeBlock.builder()
+                .beginControlFlow("try")
+                .addStatement(
+                    "$N = $T.lookup().findVarHandle($T.class, $S, $T.class)",
+                    handle,
+                    ClassName.get("java.lang.invoke", "MethodHandles"),
+                    targetName,
+                    name,
+                    ti)
+                .nextControlFlow("catch ($T e)", ReflectiveOperationException.class)
+                .addStatement("throw new $T(e)", ExceptionInInitializerError.class)
+                .endControlFlow()
+                .build())
+        .addField(ti, name, Modifier.PRIVATE)
+        .addMethod(
+            MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PROTECTED, Modifier.FINAL)
+                .returns(ti)
+                .addStatement("return ($T) $N.getAcquire(this)", ti, handle)
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("swap")
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .returns(ti)
+                .addParameter(ti, name)
+                .addStatement(
+                    "return ($T) $N.getAndSetRelease(this, $T.requireNonNull($N))",
+                    ti,
+                    handle,
+                    Objects.class,
+                    name)
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("compareAndSwap")
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .returns(TypeName.BOOLEAN)
+                .addParameter(ti, "expected")
+                .addParameter(ti, name)
+                .addStatement(
+                    "return $N.compareAndSet(this, expected, $T.requireNonNull($N))",
+                    handle,
+                    Objects.class,
+                    name)
+                .build());
+  }
+
+  /**
+   * Generates the fields and methods for a pooled delegate.
+   *
+   * <p>The pool is made of an array of slots for idle delegates, bounded by a semaphore whose
+   * permits are the delegates that can still be borrowed (idle or not created yet). Borrowing and
+   * returning a delegate scan the slots with compare-and-set, so they don't allocate, unlike a
+   * lock-free queue. Idle delegates are validated before being borrowed, and destroyed if invalid;
+   * a returned delegate is also destroyed if there's no free slot, which can only happen when
+   * borrowers raced to create delegates.
+   */
+  private static void addPool(TypeSpec.Builder classBuilder, DelegateInfo delegate, TypeName ti) {
+    String name = delegate.name;
+    String capitalizedName = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    CodeBlock.Builder acquire = CodeBlock.builder();
+    if (delegate.poolTimeoutMillis > 0) {
+      acquire
+          .addStatement("boolean acquired")
+          .beginControlFlow("try")
+          .addStatement(
+              "acquired = this.$N$$permits.tryAcquire($LL, $T.MILLISECONDS)",
+              name,
+              delegate.poolTimeoutMillis,
+              TimeUnit.class)
+          .nextControlFlow("catch ($T e)", InterruptedException.class)
+          .addStatement("$T.currentThread().interrupt()", Thread.class)
+          .addStatement(
+              "throw new $T($S, e)",
+              RejectedExecutionException.class,
+              "Interrupted while waiting for " + name)
+          .endControlFlow();
+    } else {
+      acquire.addStatement("boolean acquired = this.$N$$permits.tryAcquire()", name);
+    }
+    classBuilder
+        .addField(supplierOf(ti), name + "$supplier", Modifier.PRIVATE, Modifier.FINAL)
+        .addField(
+            FieldSpec.builder(
+                    ParameterizedTypeName.get(ClassName.get(AtomicReferenceArray.class), ti),
+                    name + "$idle",
+                    Modifier.PRIVATE,
+                    Modifier.FINAL)
+                .initializer("new $T<>($L)", AtomicReferenceArray.class, delegate.poolSize)
+                .build())
+        .addField(
+            FieldSpec.builder(Semaphore.class, name + "$permits", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T($L)", Semaphore.class, delegate.poolSize)
+                .build())
+        .addField(
+            FieldSpec.builder(
+                    AtomicLong.class, name + "$rejected", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", AtomicLong.class)
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("validate" + capitalizedName)
+                .addModifiers(Modifier.PROTECTED)
+                .returns(TypeName.BOOLEAN)
+                .addParameter(ti, name)
+                .addStatement("return true")
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("destroy" + capitalizedName)
+                .addModifiers(Modifier.PROTECTED)
+                .addParameter(ti, name)
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder(name + "PoolInUse")
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .returns(TypeName.INT)
+                .addStatement(
+                    "return $L - this.$N$$permits.availablePermits()", delegate.poolSize, name)
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder(name + "PoolWaiting")
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .returns(TypeName.INT)
+                .addStatement("return this.$N$$permits.getQueueLength()", name)
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder(name + "PoolRejected")
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .returns(TypeName.LONG)
+                .addStatement("return this.$N$$rejected.get()", name)
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder(name + "$borrow")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(ti)
+                .addCode(acquire.build())
+                .beginControlFlow("if (!acquired)")
+                .addStatement("this.$N$$rejected.incrementAndGet()", name)
+                .addStatement(
+                    "throw new $T($S)", RejectedExecutionException.class, name + " pool exhausted")
+                .endControlFlow()
+                .beginControlFlow("try")
+                .beginControlFlow("for (int $$i = 0; $$i < $L; $$i++)", delegate.poolSize)
+                .addStatement("$T delegate = this.$N$$idle.get($$i)", ti, name)
+                .beginControlFlow(
+                    "if (delegate != null && this.$N$$idle.compareAndSet($$i, delegate, null))",
+                    name)
+                .beginControlFlow("if (this.validate$N(delegate))", capitalizedName)
+                .addStatement("return delegate")
+                .endControlFlow()
+                .addStatement("this.destroy$N(delegate)", capitalizedName)
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement(
+                    "return $T.requireNonNull(this.$N$$supplier.get(), $S)",
+                    Objects.class,
+                    name,
+                    name)
+                .nextControlFlow("catch ($T | $T e)", RuntimeException.class, Error.class)
+                .addStatement("this.$N$$permits.release()", name)
+                .addStatement("throw e")
+                .endControlFlow()
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder(name + "$release")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(ti, "delegate")
+                .beginControlFlow("try")
+                .beginControlFlow("for (int $$i = 0; $$i < $L; $$i++)", delegate.poolSize)
+                .beginControlFlow(
+                    "if (this.$N$$idle.get($$i) == null "
+                        + "&& this.$N$$idle.compareAndSet($$i, null, delegate))",
+                    name,
+                    name)
+                .addStatement("return")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("this.destroy$N(delegate)", capitalizedName)
+                .nextControlFlow("finally")
+                .addStatement("this.$N$$permits.release()", name)
+                .endControlFlow()
+                .build());
+  }
+
+  /**
+   * Generates a forwarder that caches the result of a stable method.
+   *
+   * <p>This uses the racy single-check idiom: the value is published through a volatile flag, so a
+   * thread that sees the flag set also sees the value; threads racing on the first call can all
+   * call the delegate, but will all see one of the (supposedly equal) values.
+   */
+  private static MethodSpec stableForwarder(
+      TypeSpec.Builder classBuilder,
+      MethodSpec.Builder forwarder,
+      DelegateInfo delegate,
+      ExecutableElement m,
+      CodeBlock call,
+      UnaryOperator<CodeBlock> guard) {
+    String valueField = delegate.name + "$" + m.getSimpleName();
+    String flagField = valueField + "$set";
+    classBuilder.addField(TypeName.BOOLEAN, flagField, Modifier.PRIVATE, Modifier.VOLATILE);
+    classBuilder.addField(TypeName.get(m.getReturnType()), valueField, Modifier.PRIVATE);
+    return forwarder
+        .beginControlFlow("if (!this.$N)", flagField)
+        .addCode(
+            guard.apply(
+                CodeBlock.builder().addStatement("this.$N = $L", valueField, call).build()))
+        .addStatement("this.$N = true", flagField)
+        .endControlFlow()
+        .addStatement("return this.$N", valueField)
+        .build();
+  }
+
+  static class AutoDelegateInfo {
+    final ClassName targetName;
+    final Map<? extends TypeElement, DelegateInfo> interfaces;
+    final TypeElement extend;
+    final boolean compact;
+    final boolean reusable;
+
+    AutoDelegateInfo(
+        ClassName targetName,
+        Map<? extends TypeElement, DelegateInfo> interfaces,
+        TypeElement extend,
+        boolean compact,
+        boolean reusable) {
+      this.targetName = targetName;
+      this.interfaces = interfaces;
+      this.extend = extend;
+      this.compact = compact;
+      this.reusable = reusable;
+    }
+  }
+
+  static class DelegateInfo {
+    final AnnotationMirror annotation;
+    final TypeElement type;
+    final String name;
+    final Mode mode;
+    final Set<String> stable;
+    final ShardFallback shardFallback;
+    final CompositeDispatch compositeDispatch;
+    final CompositeReduction compositeReduction;
+    final double balanceEjectionFactor;
+    final long balanceEjectionMillis;
+    final Locking locking;
+    final Set<String> readOnly;
+    final int poolSize;
+    final long poolTimeoutMillis;
+    final Set<String> singleFlight;
+    final int maxConcurrency;
+    final boolean adaptiveConcurrency;
+    final long concurrencyTimeoutMillis;
+    final Set<String> hedged;
+    final long hedgeDelayMillis;
+    final double hedgePercentile;
+    final int hedgeBudgetPercent;
+    final double shadowSampleRate;
+    final int shadowQueueCapacity;
+    final boolean traced;
+    final boolean instrumented;
+    final List<Layer> fused;
+    final long timeoutMillis;
+    final Set<String> timed;
+    final int prefetch;
+    final Set<String> scattered;
+    final int scatterChunkSize;
+    final int scatterParallelism;
+
+    private DelegateInfo(Builder builder) {
+      this.annotation = builder.annotation;
+      this.type = builder.type;
+      this.name = builder.name;
+      this.mode = builder.mode;
+      this.stable = builder.stable;
+      this.shardFallback = builder.shardFallback;
+      this.compositeDispatch = builder.compositeDispatch;
+      this.compositeReduction = builder.compositeReduction;
+      this.balanceEjectionFactor = builder.balanceEjectionFactor;
+      this.balanceEjectionMillis = builder.balanceEjectionMillis;
+      this.locking = builder.locking;
+      this.readOnly = builder.readOnly;
+      this.poolSize = builder.poolSize;
+      this.poolTimeoutMillis = builder.poolTimeoutMillis;
+      this.singleFlight = builder.singleFlight;
+      this.maxConcurrency = builder.maxConcurrency;
+      this.adaptiveConcurrency = builder.adaptiveConcurrency;
+      this.concurrencyTimeoutMillis = builder.concurrencyTimeoutMillis;
+      this.hedged = builder.hedged;
+      this.hedgeDelayMillis = builder.hedgeDelayMillis;
+      this.hedgePercentile = builder.hedgePercentile;
+      this.hedgeBudgetPercent = builder.hedgeBudgetPercent;
+      this.shadowSampleRate = builder.shadowSampleRate;
+      this.shadowQueueCapacity = builder.shadowQueueCapacity;
+      this.traced = builder.traced;
+      this.instrumented = builder.instrumented;
+      this.fused = builder.fused;
+      this.timeoutMillis = builder.timeoutMillis;
+      this.timed = builder.timed;
+      this.prefetch = builder.prefetch;
+      this.scattered = builder.scattered;
+      this.scatterChunkSize = builder.scatterChunkSize;
+      this.scatterParallelism = builder.scatterParallelism;
+    }
+
+    static Builder builder(AnnotationMirror annotation, TypeElement type, String name, Mode mode) {
+      return new Builder(annotation, type, name, mode);
+    }
+
+    /** Builds a {@link DelegateInfo}; options default to those of {@code @Delegate}. */
+    static class Builder {
+      private final AnnotationMirror annotation;
+      private final TypeElement type;
+      private final String name;
+      private final Mode mode;
+      private Set<String> stable = Collections.emptySet();
+      private ShardFallback shardFallback = ShardFallback.FIRST;
+      private CompositeDispatch compositeDispatch = CompositeDispatch.SERIAL;
+      private CompositeReduction compositeReduction = CompositeReduction.FIRST_NON_NULL;
+      private double balanceEjectionFactor = 3;
+      private long balanceEjectionMillis = 10_000;
+      private Locking locking = Locking.NONE;
+      private Set<String> readOnly = Collections.emptySet();
+      private int poolSize;
+      private long poolTimeoutMillis;
+      private Set<String> singleFlight = Collections.emptySet();
+      private int maxConcurrency;
+      private boolean adaptiveConcurrency;
+      private long concurrencyTimeoutMillis;
+      private Set<String> hedged = Collections.emptySet();
+      private long hedgeDelayMillis;
+      private double hedgePercentile = 95;
+      private int hedgeBudgetPercent = 10;
+      private double shadowSampleRate;
+      private int shadowQueueCapacity = 1024;
+      private boolean traced;
+      private boolean instrumented;
+      private List<Layer> fused = Collections.emptyList();
+      private long timeoutMillis;
+      private Set<String> timed = Collections.emptySet();
+      private int prefetch;
+      private Set<String> scattered = Collections.emptySet();
+      private int scatterChunkSize = 1000;
+      private int scatterParallelism;
+
+      private Builder(AnnotationMirror annotation, TypeElement type, String name, Mode mode) {
+        this.annotation = annotation;
+        this.type = type;
+        this.name = name;
+        this.mode = mode;
+      }
+
+      Builder stable(Set<String> stable) {
+        this.stable = stable;
+        return this;
+      }
+
+      Builder shardFallback(ShardFallback shardFallback) {
+        this.shardFallback = shardFallback;
+        return this;
+      }
+
+      Builder compositeDispatch(CompositeDispatch compositeDispatch) {
+        this.compositeDispatch = compositeDispatch;
+        return this;
+      }
+
+      Builder compositeReduction(CompositeReduction compositeReduction) {
+        this.compositeReduction = compositeReduction;
+        return this;
+      }
+
+      Builder balanceEjectionFactor(double balanceEjectionFactor) {
+        this.balanceEjectionFactor = balanceEjectionFactor;
+        return this;
+      }
+
+      Builder balanceEjectionMillis(long balanceEjectionMillis) {
+        this.balanceEjectionMillis = balanceEjectionMillis;
+        return this;
+      }
+
+      Builder locking(Locking locking) {
+        this.locking = locking;
+        return this;
+      }
+
+      Builder readOnly(Set<String> readOnly) {
+        this.readOnly = readOnly;
+        return this;
+      }
+
+      Builder poolSize(int poolSize) {
+        this.poolSize = poolSize;
+        return this;
+      }
+
+      Builder poolTimeoutMillis(long poolTimeoutMillis) {
+        this.poolTimeoutMillis = poolTimeoutMillis;
+        return this;
+      }
+
+      Builder singleFlight(Set<String> singleFlight) {
+        this.singleFlight = singleFlight;
+        return this;
+      }
+
+      Builder maxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+        return this;
+      }
+
+      Builder adaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+        return this;
+      }
+
+      Builder concurrencyTimeoutMillis(long concurrencyTimeoutMillis) {
+        this.concurrencyTimeoutMillis = concurrencyTimeoutMillis;
+        return this;
+      }
+
+      Builder hedged(Set<String> hedged) {
+        this.hedged = hedged;
+        return this;
+      }
+
+      Builder hedgeDelayMillis(long hedgeDelayMillis) {
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        return this;
+      }
+
+      Builder hedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+        return this;
+      }
+
+      Builder hedgeBudgetPercent(int hedgeBudgetPercent) {
+        this.hedgeBudgetPercent = hedgeBudgetPercent;
+        return this;
+      }
+
+      Builder shadowSampleRate(double shadowSampleRate) {
+        this.shadowSampleRate = shadowSampleRate;
+        return this;
+      }
+
+      Builder shadowQueueCapacity(int shadowQueueCapacity) {
+        this.shadowQueueCapacity = shadowQueueCapacity;
+        return this;
+      }
+
+      Builder traced(boolean traced) {
+        this.traced = traced;
+        return this;
+      }
+
+      Builder instrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+        return this;
+      }
+
+      Builder fused(List<Layer> fused) {
+        this.fused = fused;
+        return this;
+      }
+
+      Builder timeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+      }
+
+      Builder timed(Set<String> timed) {
+        this.timed = timed;
+        return this;
+      }
+
+      Builder prefetch(int prefetch) {
+        this.prefetch = prefetch;
+        return this;
+      }
+
+      Builder scattered(Set<String> scattered) {
+        this.scattered = scattered;
+        return this;
+      }
+
+      Builder scatterChunkSize(int scatterChunkSize) {
+        this.scatterChunkSize = scatterChunkSize;
+        return this;
+      }
+
+      Builder scatterParallelism(int scatterParallelism) {
+        this.scatterParallelism = scatterParallelism;
+        return this;
+      }
+
+      DelegateInfo build() {
+        return new DelegateInfo(this);
+      }
+    }
+  }
+
+
+  /** A decorator fused in front of a delegate. */
+  static class Layer {
+    final TypeElement type;
+    /** The name of the decorator's own delegate. */
+    final String name;
+    /** Whether the decorator only adds its own overrides, and can thus be skipped otherwise. */
+    final boolean transparent;
+
+    Layer(TypeElement type, String name, boolean transparent) {
+      this.type = type;
+      this.name = name;
+      this.transparent = transparent;
+    }
+  }
+
+  /** How the generated class holds and accesses a delegate; modes are mutually exclusive. */
+  enum Mode {
+    DIRECT(""),
+    LAZY("lazy"),
+    SWAPPABLE("swappable"),
+    SHARDED("sharded"),
+    COMPOSITE("composite"),
+    BALANCED("balanced"),
+    REMOTE("remote"),
+    THREAD_LOCAL("perThread"),
+    STRIPED("perThread"),
+    POOLED("poolSize"),
+    HEDGED("hedged"),
+    SHADOWED("shadowSampleRate"),
+    FUSED("fused");
+
+    /** The annotation member enabling the mode. */
+    private final String member;
+
+    Mode(String member) {
+      this.member = member;
+    }
+
+    /** Whether the given value of the annotation member enables the mode. */
+    boolean isEnabledBy(AnnotationValue value) {
+      switch (this) {
+        case DIRECT:
+          return false;
+        case THREAD_LOCAL:
+        case STRIPED:
+          return enumValue(value).equals(name());
+        case POOLED:
+          return (Integer) value.getValue() > 0;
+        case HEDGED:
+        case FUSED:
+          return !((List<?>) value.getValue()).isEmpty();
+        case SHADOWED:
+          return (Double) value.getValue() > 0;
+        default:
+          return (Boolean) value.getValue();
+      }
+    }
+
+    /** Whether the delegate is exposed to subclasses through a method rather than a field. */
+    boolean hasAccessor() {
+      return this == LAZY || this == SWAPPABLE || this == THREAD_LOCAL;
+    }
+
+    @Override
+    public String toString() {
+      return member;
+    }
+  }
+
+  /** Mirrors {@code AutoDelegate.ShardFallback}. */
+  enum ShardFallback {
+    FIRST,
+    CURRENT_THREAD,
+    ALL,
+    UNSUPPORTED,
+  }
+
+  /** Mirrors {@code AutoDelegate.CompositeDispatch}. */
+  enum CompositeDispatch {
+    SERIAL,
+    PARALLEL,
+    ASYNC,
+  }
+
+  /** Mirrors {@code AutoDelegate.CompositeReduction}. */
+  enum CompositeReduction {
+    FIRST_NON_NULL,
+    ALL_TRUE,
+    COMBINE,
+  }
+
+  /** Mirrors {@code AutoDelegate.Locking}. */
+  enum Locking {
+    NONE,
+    READ_WRITE,
+    OPTIMISTIC_READ,
   }
 }
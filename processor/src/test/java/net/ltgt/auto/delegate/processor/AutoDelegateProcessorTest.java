@@ -80,6 +80,120 @@ public class AutoDelegateProcessorTest {
                 """));
   }
 
+  @Test
+  public void sharedInterface() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+
+                      String j(int k);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C1",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = I.class, name = "i"))
+                    class C1 extends AutoDelegate_C1 {
+                      C1(I i) {
+                        super(i);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C2",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = I.class, name = "other"))
+                    class C2 extends AutoDelegate_C2 {
+                      C2(I other) {
+                        super(other);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C1")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C1",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.lang.String;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C1 implements I {
+                  protected final I i;
+
+                  AutoDelegate_C1(I i) {
+                    super();
+                    this.i = i;
+                  }
+
+                  @Override
+                  public void i() {
+                    this.i.i();
+                  }
+
+                  @Override
+                  public String j(int k) {
+                    return this.i.j(k);
+                  }
+                }
+                """));
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C2")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C2",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.lang.String;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C2 implements I {
+                  protected final I other;
+
+                  AutoDelegate_C2(I other) {
+                    super();
+                    this.other = other;
+                  }
+
+                  @Override
+                  public void i() {
+                    this.other.i();
+                  }
+
+                  @Override
+                  public String j(int k) {
+                    return this.other.j(k);
+                  }
+                }
+                """));
+  }
+
   @Test
   public void targetJava8() {
     var compilation =
@@ -348,4 +462,2755 @@ public class AutoDelegateProcessorTest {
                     """));
     assertThat(compilation).succeededWithoutWarnings();
   }
+
+  @Test
+  public void stable() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      String version();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.II",
+                    """
+                    package foo.bar;
+
+                    interface II {
+                      int count();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate({
+                      @Delegate(value = I.class, name = "i", stable = "version"),
+                      @Delegate(value = II.class, name = "ii", stable = "count")
+                    })
+                    class C extends AutoDelegate_C {
+                      C(I i, II ii) {
+                        super(i, ii);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.lang.String;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements I, II {
+                  protected final I i;
+                  protected final II ii;
+                  private volatile boolean i$version$set;
+                  private String i$version;
+                  private volatile boolean ii$count$set;
+                  private int ii$count;
+
+                  AutoDelegate_C(I i, II ii) {
+                    super();
+                    this.i = i;
+                    this.ii = ii;
+                  }
+
+                  @Override
+                  public String version() {
+                    if (!this.i$version$set) {
+                      this.i$version = this.i.version();
+                      this.i$version$set = true;
+                    }
+                    return this.i$version;
+                  }
+
+                  @Override
+                  public int count() {
+                    if (!this.ii$count$set) {
+                      this.ii$count = this.ii.count();
+                      this.ii$count$set = true;
+                    }
+                    return this.ii$count;
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void lazy() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.function.Supplier;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = I.class, name = "delegate", lazy = true))
+                    class C extends AutoDelegate_C {
+                      C(Supplier<I> delegate) {
+                        super(delegate);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.util.Objects;
+                import java.util.function.Supplier;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements I {
+                  private Supplier<? extends I> delegate$supplier;
+                  private volatile I delegate;
+
+                  AutoDelegate_C(Supplier<? extends I> delegate) {
+                    super();
+                    this.delegate$supplier = Objects.requireNonNull(delegate);
+                  }
+
+                  protected final I delegate() {
+                    I delegate = this.delegate;
+                    if (delegate == null) {
+                      synchronized (this) {
+                        delegate = this.delegate;
+                        if (delegate == null) {
+                          delegate = Objects.requireNonNull(this.delegate$supplier.get(), "delegate");
+                          this.delegate = delegate;
+                          this.delegate$supplier = null;
+                        }
+                      }
+                    }
+                    return delegate;
+                  }
+
+                  @Override
+                  public void i() {
+                    this.delegate().i();
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void swappable() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = I.class, name = "delegate", swappable = true))
+                    class C extends AutoDelegate_C {
+                      C(I delegate) {
+                        super(delegate);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.ExceptionInInitializerError;
+                import java.lang.Override;
+                import java.lang.ReflectiveOperationException;
+                import java.lang.invoke.MethodHandles;
+                import java.lang.invoke.VarHandle;
+                import java.util.Objects;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements I {
+                  private static final VarHandle delegate$HANDLE;
+
+                  static {
+                    try {
+                      delegate$HANDLE =
+                          MethodHandles.lookup().findVarHandle(AutoDelegate_C.class, "delegate", I.class);
+                    } catch (ReflectiveOperationException e) {
+                      throw new ExceptionInInitializerError(e);
+                    }
+                  }
+
+                  private I delegate;
+
+                  AutoDelegate_C(I delegate) {
+                    super();
+                    delegate$HANDLE.setRelease(this, Objects.requireNonNull(delegate));
+                  }
+
+                  protected final I delegate() {
+                    return (I) delegate$HANDLE.getAcquire(this);
+                  }
+
+                  public final I swap(I delegate) {
+                    return (I) delegate$HANDLE.getAndSetRelease(this, Objects.requireNonNull(delegate));
+                  }
+
+                  public final boolean compareAndSwap(I expected, I delegate) {
+                    return delegate$HANDLE.compareAndSet(this, expected, Objects.requireNonNull(delegate));
+                  }
+
+                  @Override
+                  public void i() {
+                    this.delegate().i();
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void sharded() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Store",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate.ShardKey;
+
+                    interface Store {
+                      void put(@ShardKey String key, int value);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Counter",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate.ShardKey;
+
+                    interface Counter {
+                      long get(@ShardKey long id);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Buffer",
+                    """
+                    package foo.bar;
+
+                    interface Buffer {
+                      void clear();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.ShardFallback;
+
+                    @AutoDelegate({
+                      @Delegate(value = Store.class, name = "store", sharded = true),
+                      @Delegate(value = Counter.class, name = "counter", sharded = true),
+                      @Delegate(
+                          value = Buffer.class,
+                          name = "buffer",
+                          sharded = true,
+                          shardFallback = ShardFallback.ALL)
+                    })
+                    class C extends AutoDelegate_C {
+                      C(Store[] store, Counter[] counter, Buffer[] buffer) {
+                        super(store, counter, buffer);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.IllegalArgumentException;
+                import java.lang.Long;
+                import java.lang.Override;
+                import java.lang.String;
+                import java.util.Objects;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Store, Counter, Buffer {
+                  protected final Store[] store;
+                  protected final Counter[] counter;
+                  protected final Buffer[] buffer;
+
+                  AutoDelegate_C(Store[] store, Counter[] counter, Buffer[] buffer) {
+                    super();
+                    if (store.length == 0 || (store.length & (store.length - 1)) != 0) {
+                      throw new IllegalArgumentException(
+                          "store length must be a power of two: " + store.length);
+                    }
+                    this.store = store.clone();
+                    if (counter.length == 0 || (counter.length & (counter.length - 1)) != 0) {
+                      throw new IllegalArgumentException(
+                          "counter length must be a power of two: " + counter.length);
+                    }
+                    this.counter = counter.clone();
+                    if (buffer.length == 0 || (buffer.length & (buffer.length - 1)) != 0) {
+                      throw new IllegalArgumentException(
+                          "buffer length must be a power of two: " + buffer.length);
+                    }
+                    this.buffer = buffer.clone();
+                  }
+
+                  private static int $shard(int hash, int length) {
+                    return (hash ^ (hash >>> 16)) & (length - 1);
+                  }
+
+                  @Override
+                  public void put(String key, int value) {
+                    this.store[$shard(Objects.hashCode(key), this.store.length)].put(key, value);
+                  }
+
+                  @Override
+                  public long get(long id) {
+                    return this.counter[$shard(Long.hashCode(id), this.counter.length)].get(id);
+                  }
+
+                  @Override
+                  public void clear() {
+                    for (int $index = 0; $index < this.buffer.length; $index++) {
+                      this.buffer[$index].clear();
+                    }
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void locking() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Cache",
+                    """
+                    package foo.bar;
+
+                    interface Cache {
+                      String get(String key);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Sink",
+                    """
+                    package foo.bar;
+
+                    interface Sink {
+                      void put(String value);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Counter",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate.ShardKey;
+
+                    interface Counter {
+                      int increment(@ShardKey String key);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Locking;
+
+                    @AutoDelegate({
+                      @Delegate(
+                          value = Cache.class,
+                          name = "cache",
+                          locking = Locking.OPTIMISTIC_READ,
+                          readOnly = "get"),
+                      @Delegate(value = Sink.class, name = "sink", locking = Locking.READ_WRITE),
+                      @Delegate(value = Counter.class, name = "counter", sharded = true, locking = Locking.READ_WRITE)
+                    })
+                    class C extends AutoDelegate_C {
+                      C(Cache cache, Sink sink, Counter[] counter) {
+                        super(cache, sink, counter);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.IllegalArgumentException;
+                import java.lang.Override;
+                import java.lang.RuntimeException;
+                import java.lang.String;
+                import java.util.Objects;
+                import java.util.concurrent.locks.StampedLock;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Cache, Sink, Counter {
+                  protected final Cache cache;
+                  private final StampedLock cache$lock = new StampedLock();
+                  protected final Sink sink;
+                  private final StampedLock sink$lock = new StampedLock();
+                  protected final Counter[] counter;
+                  private final StampedLock[] counter$lock;
+
+                  AutoDelegate_C(Cache cache, Sink sink, Counter[] counter) {
+                    super();
+                    this.cache = cache;
+                    this.sink = sink;
+                    if (counter.length == 0 || (counter.length & (counter.length - 1)) != 0) {
+                      throw new IllegalArgumentException(
+                          "counter length must be a power of two: " + counter.length);
+                    }
+                    this.counter = counter.clone();
+                    this.counter$lock = new StampedLock[counter.length];
+                    for (int $i = 0; $i < counter.length; $i++) {
+                      this.counter$lock[$i] = new StampedLock();
+                    }
+                  }
+
+                  private static int $shard(int hash, int length) {
+                    return (hash ^ (hash >>> 16)) & (length - 1);
+                  }
+
+                  @Override
+                  public String get(String key) {
+                    long $optimisticStamp = this.cache$lock.tryOptimisticRead();
+                    if ($optimisticStamp != 0L) {
+                      try {
+                        String $result = this.cache.get(key);
+                        if (this.cache$lock.validate($optimisticStamp)) {
+                          return $result;
+                        }
+                      } catch (RuntimeException $e) {
+                        if (this.cache$lock.validate($optimisticStamp)) {
+                          throw $e;
+                        }
+                      }
+                    }
+                    long $stamp = this.cache$lock.readLock();
+                    try {
+                      return this.cache.get(key);
+                    } finally {
+                      this.cache$lock.unlockRead($stamp);
+                    }
+                  }
+
+                  @Override
+                  public void put(String value) {
+                    long $stamp = this.sink$lock.writeLock();
+                    try {
+                      this.sink.put(value);
+                    } finally {
+                      this.sink$lock.unlockWrite($stamp);
+                    }
+                  }
+
+                  @Override
+                  public int increment(String key) {
+                    int $index = $shard(Objects.hashCode(key), this.counter.length);
+                    long $stamp = this.counter$lock[$index].writeLock();
+                    try {
+                      return this.counter[$index].increment(key);
+                    } finally {
+                      this.counter$lock[$index].unlockWrite($stamp);
+                    }
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void perThread() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Hasher",
+                    """
+                    package foo.bar;
+
+                    interface Hasher {
+                      byte[] hash(byte[] input);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Parser",
+                    """
+                    package foo.bar;
+
+                    interface Parser {
+                      int parse(String text);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.function.Supplier;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.PerThread;
+
+                    @AutoDelegate({
+                      @Delegate(value = Hasher.class, name = "hasher", perThread = PerThread.THREAD_LOCAL),
+                      @Delegate(value = Parser.class, name = "parser", perThread = PerThread.STRIPED)
+                    })
+                    class C extends AutoDelegate_C {
+                      C(Supplier<Hasher> hasher, Supplier<Parser> parser) {
+                        super(hasher, parser);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Integer;
+                import java.lang.Override;
+                import java.lang.Runtime;
+                import java.lang.String;
+                import java.lang.Thread;
+                import java.lang.ThreadLocal;
+                import java.util.Objects;
+                import java.util.concurrent.atomic.AtomicReferenceArray;
+                import java.util.function.Supplier;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Hasher, Parser {
+                  private final ThreadLocal<Hasher> hasher;
+                  private final Supplier<? extends Parser> parser$supplier;
+                  private final AtomicReferenceArray<Parser> parser;
+
+                  AutoDelegate_C(Supplier<? extends Hasher> hasher, Supplier<? extends Parser> parser) {
+                    super();
+                    this.hasher = ThreadLocal.withInitial(Objects.requireNonNull(hasher));
+                    this.parser$supplier = Objects.requireNonNull(parser);
+                    this.parser =
+                        new AtomicReferenceArray<>(
+                            Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) << 2);
+                  }
+
+                  protected final Hasher hasher() {
+                    return this.hasher.get();
+                  }
+
+                  private static int $shard(int hash, int length) {
+                    return (hash ^ (hash >>> 16)) & (length - 1);
+                  }
+
+                  @Override
+                  public byte[] hash(byte[] input) {
+                    return this.hasher().hash(input);
+                  }
+
+                  @Override
+                  public int parse(String text) {
+                    int $index = $shard(Thread.currentThread().hashCode(), this.parser.length());
+                    Parser $delegate = this.parser.getAndSet($index, null);
+                    if ($delegate == null) {
+                      $delegate = Objects.requireNonNull(this.parser$supplier.get(), "parser");
+                    }
+                    try {
+                      return $delegate.parse(text);
+                    } finally {
+                      this.parser.compareAndSet($index, null, $delegate);
+                    }
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void pooled() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Codec",
+                    """
+                    package foo.bar;
+
+                    interface Codec {
+                      byte[] encode(String text);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.function.Supplier;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Codec.class, name = "codec", poolSize = 8, poolTimeoutMillis = 100))
+                    class C extends AutoDelegate_C {
+                      C(Supplier<Codec> codec) {
+                        super(codec);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Error;
+                import java.lang.InterruptedException;
+                import java.lang.Override;
+                import java.lang.RuntimeException;
+                import java.lang.String;
+                import java.lang.Thread;
+                import java.util.Objects;
+                import java.util.concurrent.RejectedExecutionException;
+                import java.util.concurrent.Semaphore;
+                import java.util.concurrent.TimeUnit;
+                import java.util.concurrent.atomic.AtomicLong;
+                import java.util.concurrent.atomic.AtomicReferenceArray;
+                import java.util.function.Supplier;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Codec {
+                  private final Supplier<? extends Codec> codec$supplier;
+
+                  private final AtomicReferenceArray<Codec> codec$idle = new AtomicReferenceArray<>(8);
+
+                  private final Semaphore codec$permits = new Semaphore(8);
+
+                  private final AtomicLong codec$rejected = new AtomicLong();
+
+                  AutoDelegate_C(Supplier<? extends Codec> codec) {
+                    super();
+                    this.codec$supplier = Objects.requireNonNull(codec);
+                  }
+
+                  protected boolean validateCodec(Codec codec) {
+                    return true;
+                  }
+
+                  protected void destroyCodec(Codec codec) {
+                  }
+
+                  public final int codecPoolInUse() {
+                    return 8 - this.codec$permits.availablePermits();
+                  }
+
+                  public final int codecPoolWaiting() {
+                    return this.codec$permits.getQueueLength();
+                  }
+
+                  public final long codecPoolRejected() {
+                    return this.codec$rejected.get();
+                  }
+
+                  private Codec codec$borrow() {
+                    boolean acquired;
+                    try {
+                      acquired = this.codec$permits.tryAcquire(100L, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                      throw new RejectedExecutionException("Interrupted while waiting for codec", e);
+                    }
+                    if (!acquired) {
+                      this.codec$rejected.incrementAndGet();
+                      throw new RejectedExecutionException("codec pool exhausted");
+                    }
+                    try {
+                      for (int $i = 0; $i < 8; $i++) {
+                        Codec delegate = this.codec$idle.get($i);
+                        if (delegate != null && this.codec$idle.compareAndSet($i, delegate, null)) {
+                          if (this.validateCodec(delegate)) {
+                            return delegate;
+                          }
+                          this.destroyCodec(delegate);
+                        }
+                      }
+                      return Objects.requireNonNull(this.codec$supplier.get(), "codec");
+                    } catch (RuntimeException | Error e) {
+                      this.codec$permits.release();
+                      throw e;
+                    }
+                  }
+
+                  private void codec$release(Codec delegate) {
+                    try {
+                      for (int $i = 0; $i < 8; $i++) {
+                        if (this.codec$idle.get($i) == null && this.codec$idle.compareAndSet($i, null, delegate)) {
+                          return;
+                        }
+                      }
+                      this.destroyCodec(delegate);
+                    } finally {
+                      this.codec$permits.release();
+                    }
+                  }
+
+                  @Override
+                  public byte[] encode(String text) {
+                    Codec $delegate = this.codec$borrow();
+                    try {
+                      return $delegate.encode(text);
+                    } finally {
+                      this.codec$release($delegate);
+                    }
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void singleFlight() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Loader",
+                    """
+                    package foo.bar;
+
+                    import java.io.IOException;
+
+                    interface Loader {
+                      String load(String key) throws IOException;
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Refresher",
+                    """
+                    package foo.bar;
+
+                    interface Refresher {
+                      void refresh(int region, boolean force);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate({
+                      @Delegate(value = Loader.class, name = "loader", singleFlight = "load"),
+                      @Delegate(value = Refresher.class, name = "refresher", singleFlight = "refresh")
+                    })
+                    class C extends AutoDelegate_C {
+                      C(Loader loader, Refresher refresher) {
+                        super(loader, refresher);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.io.IOException;
+                import java.lang.Error;
+                import java.lang.Object;
+                import java.lang.Override;
+                import java.lang.RuntimeException;
+                import java.lang.String;
+                import java.lang.Throwable;
+                import java.lang.Void;
+                import java.util.Arrays;
+                import java.util.concurrent.CompletableFuture;
+                import java.util.concurrent.CompletionException;
+                import java.util.concurrent.ConcurrentHashMap;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Loader, Refresher {
+                  private static final Object $NULL_KEY = new Object();
+
+                  protected final Loader loader;
+
+                  protected final Refresher refresher;
+
+                  private final ConcurrentHashMap<Object, CompletableFuture<String>> loader$load$inFlight =
+                      new ConcurrentHashMap<>();
+
+                  private final ConcurrentHashMap<Object, CompletableFuture<Void>> refresher$refresh$inFlight =
+                      new ConcurrentHashMap<>();
+
+                  AutoDelegate_C(Loader loader, Refresher refresher) {
+                    super();
+                    this.loader = loader;
+                    this.refresher = refresher;
+                  }
+
+                  private static <T> T $join(CompletableFuture<T> flight) {
+                    try {
+                      return flight.join();
+                    } catch (CompletionException e) {
+                      if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                      }
+                      if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                      }
+                      throw e;
+                    }
+                  }
+
+                  private String loader$load$leader(String key) throws IOException {
+                    return this.loader.load(key);
+                  }
+
+                  @Override
+                  public String load(String key) throws IOException {
+                    Object $key = key != null ? key : $NULL_KEY;
+                    CompletableFuture<String> $flight = this.loader$load$inFlight.get($key);
+                    if ($flight == null) {
+                      CompletableFuture<String> $leader = new CompletableFuture<>();
+                      $flight = this.loader$load$inFlight.putIfAbsent($key, $leader);
+                      if ($flight == null) {
+                        try {
+                          String $result = this.loader$load$leader(key);
+                          $leader.complete($result);
+                          return $result;
+                        } catch (Throwable $e) {
+                          $leader.completeExceptionally($e);
+                          throw $e;
+                        } finally {
+                          this.loader$load$inFlight.remove($key, $leader);
+                        }
+                      }
+                    }
+                    try {
+                      return $join($flight);
+                    } catch (CompletionException $e) {
+                      if ($e.getCause() instanceof IOException) {
+                        throw (IOException) $e.getCause();
+                      }
+                      throw $e;
+                    }
+                  }
+
+                  private void refresher$refresh$leader(int region, boolean force) {
+                    this.refresher.refresh(region, force);
+                  }
+
+                  @Override
+                  public void refresh(int region, boolean force) {
+                    Object $key = Arrays.asList(region, force);
+                    CompletableFuture<Void> $flight = this.refresher$refresh$inFlight.get($key);
+                    if ($flight == null) {
+                      CompletableFuture<Void> $leader = new CompletableFuture<>();
+                      $flight = this.refresher$refresh$inFlight.putIfAbsent($key, $leader);
+                      if ($flight == null) {
+                        try {
+                          this.refresher$refresh$leader(region, force);
+                          $leader.complete(null);
+                          return;
+                        } catch (Throwable $e) {
+                          $leader.completeExceptionally($e);
+                          throw $e;
+                        } finally {
+                          this.refresher$refresh$inFlight.remove($key, $leader);
+                        }
+                      }
+                    }
+                    $join($flight);
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void bulkhead() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Backend",
+                    """
+                    package foo.bar;
+
+                    interface Backend {
+                      String call(String request);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(
+                        @Delegate(
+                            value = Backend.class,
+                            name = "backend",
+                            maxConcurrency = 16,
+                            adaptiveConcurrency = true,
+                            concurrencyTimeoutMillis = 50))
+                    class C extends AutoDelegate_C {
+                      C(Backend backend) {
+                        super(backend);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.lang.String;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.Bulkhead;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Backend {
+                  protected final Backend backend;
+
+                  private final Bulkhead backend$bulkhead = new Bulkhead("backend", 16, true, 50L);
+
+                  AutoDelegate_C(Backend backend) {
+                    super();
+                    this.backend = backend;
+                  }
+
+                  public final Bulkhead backendBulkhead() {
+                    return this.backend$bulkhead;
+                  }
+
+                  @Override
+                  public String call(String request) {
+                    long $start = this.backend$bulkhead.acquire();
+                    try {
+                      return this.backend.call(request);
+                    } finally {
+                      this.backend$bulkhead.release($start);
+                    }
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void hedged() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Store",
+                    """
+                    package foo.bar;
+
+                    import java.io.IOException;
+
+                    interface Store {
+                      String get(String key) throws IOException;
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Cache",
+                    """
+                    package foo.bar;
+
+                    interface Cache {
+                      void warm(String key);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.concurrent.Executor;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate({
+                      @Delegate(value = Store.class, name = "store", hedged = "get"),
+                      @Delegate(
+                          value = Cache.class,
+                          name = "cache",
+                          hedged = "warm",
+                          hedgeDelayMillis = 5,
+                          hedgeBudgetPercent = 5)
+                    })
+                    class C extends AutoDelegate_C {
+                      C(Store[] store, Executor storeExecutor, Cache[] cache, Executor cacheExecutor) {
+                        super(store, storeExecutor, cache, cacheExecutor);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.io.IOException;
+                import java.lang.Exception;
+                import java.lang.Override;
+                import java.lang.RuntimeException;
+                import java.lang.String;
+                import java.lang.reflect.UndeclaredThrowableException;
+                import java.util.concurrent.Executor;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.Hedger;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Store, Cache {
+                  protected final Store[] store;
+
+                  private final Hedger<Store> store$hedger;
+
+                  protected final Cache[] cache;
+
+                  private final Hedger<Cache> cache$hedger;
+
+                  AutoDelegate_C(Store[] store, Executor storeExecutor, Cache[] cache, Executor cacheExecutor) {
+                    super();
+                    this.store = store.clone();
+                    this.store$hedger = new Hedger<>("store", this.store, storeExecutor, 0L, 95.0, 10);
+                    this.cache = cache.clone();
+                    this.cache$hedger = new Hedger<>("cache", this.cache, cacheExecutor, 5L, 95.0, 5);
+                  }
+
+                  public final Hedger<Store> storeHedger() {
+                    return this.store$hedger;
+                  }
+
+                  public final Hedger<Cache> cacheHedger() {
+                    return this.cache$hedger;
+                  }
+
+                  @Override
+                  public String get(String key) throws IOException {
+                    try {
+                      return this.store$hedger.call($replica -> $replica.get(key));
+                    } catch (RuntimeException | IOException $e) {
+                      throw $e;
+                    } catch (Exception $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+
+                  @Override
+                  public void warm(String key) {
+                    try {
+                      this.cache$hedger.call($replica -> { $replica.warm(key); return null; });
+                    } catch (RuntimeException $e) {
+                      throw $e;
+                    } catch (Exception $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void shadow() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Ranker",
+                    """
+                    package foo.bar;
+
+                    interface Ranker {
+                      int rank(String query, long userId);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Sink",
+                    """
+                    package foo.bar;
+
+                    interface Sink {
+                      void accept(String event);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.concurrent.Executor;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate({
+                      @Delegate(value = Ranker.class, name = "ranker", shadowSampleRate = 0.05),
+                      @Delegate(value = Sink.class, name = "sink", shadowSampleRate = 1, shadowQueueCapacity = 16)
+                    })
+                    class C extends AutoDelegate_C {
+                      C(
+                          Ranker ranker,
+                          Ranker rankerShadow,
+                          Executor rankerShadowExecutor,
+                          Sink sink,
+                          Sink sinkShadow,
+                          Executor sinkShadowExecutor) {
+                        super(ranker, rankerShadow, rankerShadowExecutor, sink, sinkShadow, sinkShadowExecutor);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.lang.String;
+                import java.lang.System;
+                import java.util.concurrent.Executor;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.Shadow;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Ranker, Sink {
+                  protected final Ranker ranker;
+
+                  private final Shadow<Ranker> ranker$shadow;
+
+                  protected final Sink sink;
+
+                  private final Shadow<Sink> sink$shadow;
+
+                  AutoDelegate_C(
+                      Ranker ranker,
+                      Ranker rankerShadow,
+                      Executor rankerShadowExecutor,
+                      Sink sink,
+                      Sink sinkShadow,
+                      Executor sinkShadowExecutor) {
+                    super();
+                    this.ranker = ranker;
+                    this.ranker$shadow =
+                        new Shadow<>(rankerShadow, rankerShadowExecutor, 0.05, 1024, "rank(java.lang.String,long)");
+                    this.sink = sink;
+                    this.sink$shadow = new Shadow<>(sinkShadow, sinkShadowExecutor, 1.0, 16, "accept(java.lang.String)");
+                  }
+
+                  public final Shadow<Ranker> rankerShadow() {
+                    return this.ranker$shadow;
+                  }
+
+                  public final Shadow<Sink> sinkShadow() {
+                    return this.sink$shadow;
+                  }
+
+                  @Override
+                  public int rank(String query, long userId) {
+                    if (!this.ranker$shadow.sample()) {
+                      return this.ranker.rank(query, userId);
+                    }
+                    long $shadowStart = System.nanoTime();
+                    int $result = this.ranker.rank(query, userId);
+                    this.ranker$shadow.mirror(
+                        0, System.nanoTime() - $shadowStart, $result, $shadow -> $shadow.rank(query, userId));
+                    return $result;
+                  }
+
+                  @Override
+                  public void accept(String event) {
+                    if (!this.sink$shadow.sample()) {
+                      this.sink.accept(event);
+                      return;
+                    }
+                    long $shadowStart = System.nanoTime();
+                    this.sink.accept(event);
+                    this.sink$shadow.mirror(
+                        0,
+                        System.nanoTime() - $shadowStart,
+                        null,
+                        $shadow -> {
+                          $shadow.accept(event);
+                          return null;
+                        });
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void shadowWithBulkhead() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Ranker",
+                    """
+                    package foo.bar;
+
+                    interface Ranker {
+                      int rank(String query);
+
+                      void reset();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.concurrent.Executor;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(
+                        @Delegate(
+                            value = Ranker.class,
+                            name = "ranker",
+                            shadowSampleRate = 0.05,
+                            maxConcurrency = 16))
+                    class C extends AutoDelegate_C {
+                      C(Ranker ranker, Ranker rankerShadow, Executor rankerShadowExecutor) {
+                        super(ranker, rankerShadow, rankerShadowExecutor);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+  }
+
+  @Test
+  public void traced() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Store",
+                    """
+                    package foo.bar;
+
+                    import java.io.IOException;
+
+                    interface Store {
+                      String get(String key) throws IOException;
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Store.class, name = "store", traced = true))
+                    class C extends AutoDelegate_C {
+                      C(Store store) {
+                        super(store);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.io.IOException;
+                import java.lang.Override;
+                import java.lang.String;
+                import java.lang.Throwable;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.Trace;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Store {
+                  private static final int store$TRACE_ID =
+                      Trace.register("foo.bar.AutoDelegate_C", "store", "get(java.lang.String)");
+
+                  protected final Store store;
+
+                  AutoDelegate_C(Store store) {
+                    super();
+                    this.store = store;
+                  }
+
+                  @Override
+                  public String get(String key) throws IOException {
+                    long $traceStart = Trace.start();
+                    boolean $traceFailed = false;
+                    try {
+                      return this.store.get(key);
+                    } catch (Throwable $traceError) {
+                      $traceFailed = true;
+                      throw $traceError;
+                    } finally {
+                      Trace.record(store$TRACE_ID, 0, $traceStart, $traceFailed);
+                    }
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void compact() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Connection",
+                    """
+                    package foo.bar;
+
+                    interface Connection {
+                      void close();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Tagged",
+                    """
+                    package foo.bar;
+
+                    interface Tagged {
+                      String tag();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(
+                        value = {
+                          @Delegate(value = Connection.class, name = "connection"),
+                          @Delegate(value = Tagged.class, name = "connection")
+                        },
+                        compact = true)
+                    class C<D extends Connection & Tagged> extends AutoDelegate_C<D> {
+                      C(D connection) {
+                        super(connection);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.lang.String;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C<D extends Connection & Tagged> implements Connection, Tagged {
+                  protected final D connection;
+
+                  AutoDelegate_C(D connection) {
+                    super();
+                    this.connection = connection;
+                  }
+
+                  @Override
+                  public void close() {
+                    this.connection.close();
+                  }
+
+                  @Override
+                  public String tag() {
+                    return this.connection.tag();
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void reusable() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Handler",
+                    """
+                    package foo.bar;
+
+                    interface Handler {
+                      String handle(String request);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(value = @Delegate(value = Handler.class, name = "handler"), reusable = true)
+                    class C extends AutoDelegate_C {
+                      C(Handler handler) {
+                        super(handler);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.lang.String;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Handler {
+                  protected Handler handler;
+
+                  AutoDelegate_C(Handler handler) {
+                    super();
+                    this.handler = handler;
+                  }
+
+                  public final void reset(Handler handler) {
+                    this.handler = handler;
+                  }
+
+                  public final void release() {
+                    this.handler = null;
+                  }
+
+                  @Override
+                  public String handle(String request) {
+                    assert this.handler != null : "AutoDelegate_C used after release()";
+                    return this.handler.handle(request);
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void reusableResetsOnlyDelegates() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Handler",
+                    """
+                    package foo.bar;
+
+                    interface Handler {
+                      String name();
+
+                      int priority();
+
+                      String handle(String request);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.concurrent.Executor;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(
+                        value =
+                            @Delegate(
+                                value = Handler.class,
+                                name = "handler",
+                                stable = {"name", "priority"},
+                                timeoutMillis = 100),
+                        reusable = true)
+                    class C extends AutoDelegate_C {
+                      C(Handler handler, Executor executor) {
+                        super(handler, executor);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Exception;
+                import java.lang.Override;
+                import java.lang.RuntimeException;
+                import java.lang.String;
+                import java.lang.reflect.UndeclaredThrowableException;
+                import java.util.concurrent.Executor;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.Deadline;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Handler {
+                  protected Handler handler;
+
+                  private final Deadline handler$deadline;
+
+                  private volatile boolean handler$name$set;
+
+                  private String handler$name;
+
+                  private volatile boolean handler$priority$set;
+
+                  private int handler$priority;
+
+                  AutoDelegate_C(Handler handler, Executor handlerTimeoutExecutor) {
+                    super();
+                    this.handler = handler;
+                    this.handler$deadline = new Deadline("handler", 100L, handlerTimeoutExecutor);
+                  }
+
+                  public final Deadline handlerDeadline() {
+                    return this.handler$deadline;
+                  }
+
+                  public final void reset(Handler handler) {
+                    this.handler = handler;
+                    this.handler$name$set = false;
+                    this.handler$name = null;
+                    this.handler$priority$set = false;
+                  }
+
+                  public final void release() {
+                    this.handler = null;
+                    this.handler$name$set = false;
+                    this.handler$name = null;
+                    this.handler$priority$set = false;
+                  }
+
+                  @Override
+                  public String name() {
+                    assert this.handler != null : "AutoDelegate_C used after release()";
+                    if (!this.handler$name$set) {
+                      this.handler$name = this.handler.name();
+                      this.handler$name$set = true;
+                    }
+                    return this.handler$name;
+                  }
+
+                  @Override
+                  public int priority() {
+                    assert this.handler != null : "AutoDelegate_C used after release()";
+                    if (!this.handler$priority$set) {
+                      this.handler$priority = this.handler.priority();
+                      this.handler$priority$set = true;
+                    }
+                    return this.handler$priority;
+                  }
+
+                  @Override
+                  public String handle(String request) {
+                    assert this.handler != null : "AutoDelegate_C used after release()";
+                    try {
+                      return this.handler$deadline.call("handle", () -> this.handler.handle(request));
+                    } catch (RuntimeException $e) {
+                      throw $e;
+                    } catch (Exception $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+                }
+                """));
+  }
+
+  /**
+   * Bulk methods must be forwarded as-is, rather than inherited and degrading into loops calling
+   * the single-element methods (as in {@link java.io.FilterInputStream}).
+   */
+  @Test
+  public void abstractClass() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Source",
+                    """
+                    package foo.bar;
+
+                    import java.io.IOException;
+                    import java.io.OutputStream;
+
+                    abstract class Source {
+                      protected Source() {}
+
+                      public abstract int read() throws IOException;
+
+                      public int read(byte[] b, int off, int len) throws IOException {
+                        for (int i = 0; i < len; i++) {
+                          b[off + i] = (byte) read();
+                        }
+                        return len;
+                      }
+
+                      public long transferTo(OutputStream out) throws IOException {
+                        long transferred = 0;
+                        for (int c = read(); c >= 0; c = read()) {
+                          out.write(c);
+                          transferred++;
+                        }
+                        return transferred;
+                      }
+
+                      public synchronized void mark(int readLimit) {}
+
+                      public final boolean isOpen() {
+                        return true;
+                      }
+
+                      protected void fill() {}
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Source.class, name = "source"))
+                    class C extends AutoDelegate_C {
+                      C(Source source) {
+                        super(source);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.io.IOException;
+                import java.io.OutputStream;
+                import java.lang.Override;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C extends Source {
+                  protected final Source source;
+
+                  AutoDelegate_C(Source source) {
+                    super();
+                    this.source = source;
+                  }
+
+                  @Override
+                  public int read() throws IOException {
+                    return this.source.read();
+                  }
+
+                  @Override
+                  public int read(byte[] b, int off, int len) throws IOException {
+                    return this.source.read(b, off, len);
+                  }
+
+                  @Override
+                  public long transferTo(OutputStream out) throws IOException {
+                    return this.source.transferTo(out);
+                  }
+
+                  @Override
+                  public void mark(int readLimit) {
+                    this.source.mark(readLimit);
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void fused() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Client",
+                    """
+                    package foo.bar;
+
+                    interface Client {
+                      String get(String key);
+
+                      void put(String key, String value);
+
+                      void close();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Metrics",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Client.class, name = "client"))
+                    final class Metrics extends AutoDelegate_Metrics {
+                      int gets;
+
+                      Metrics(Client client) {
+                        super(client);
+                      }
+
+                      @Override
+                      public String get(String key) {
+                        gets++;
+                        return super.get(key);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Retry",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Client.class, name = "client"))
+                    final class Retry extends AutoDelegate_Retry {
+                      Retry(Client client) {
+                        super(client);
+                      }
+
+                      @Override
+                      public void put(String key, String value) {
+                        try {
+                          super.put(key, value);
+                        } catch (RuntimeException e) {
+                          super.put(key, value);
+                        }
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(
+                        @Delegate(value = Client.class, name = "client", fused = {Metrics.class, Retry.class}))
+                    class C extends AutoDelegate_C {
+                      C(Metrics client) {
+                        super(client);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.lang.String;
+                import javax.annotation.processing.Generated;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Client {
+                  protected final Client client;
+
+                  private final Metrics client$0;
+
+                  private final Retry client$1;
+
+                  AutoDelegate_C(Metrics client) {
+                    super();
+                    this.client$0 = client;
+                    this.client$1 = (Retry) this.client$0.client;
+                    this.client = this.client$1.client;
+                  }
+
+                  @Override
+                  public String get(String key) {
+                    return this.client$0.get(key);
+                  }
+
+                  @Override
+                  public void put(String key, String value) {
+                    this.client$1.put(key, value);
+                  }
+
+                  @Override
+                  public void close() {
+                    this.client.close();
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void timeout() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Client",
+                    """
+                    package foo.bar;
+
+                    import java.io.IOException;
+
+                    interface Client {
+                      String get(String key) throws IOException;
+
+                      void close();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.concurrent.Executor;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(
+                        @Delegate(value = Client.class, name = "client", timeoutMillis = 500, timed = "get"))
+                    class C extends AutoDelegate_C {
+                      C(Client client, Executor executor) {
+                        super(client, executor);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.io.IOException;
+                import java.lang.Exception;
+                import java.lang.Override;
+                import java.lang.RuntimeException;
+                import java.lang.String;
+                import java.lang.reflect.UndeclaredThrowableException;
+                import java.util.concurrent.Executor;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.Deadline;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Client {
+                  protected final Client client;
+
+                  private final Deadline client$deadline;
+
+                  AutoDelegate_C(Client client, Executor clientTimeoutExecutor) {
+                    super();
+                    this.client = client;
+                    this.client$deadline = new Deadline("client", 500L, clientTimeoutExecutor);
+                  }
+
+                  public final Deadline clientDeadline() {
+                    return this.client$deadline;
+                  }
+
+                  @Override
+                  public String get(String key) throws IOException {
+                    try {
+                      return this.client$deadline.call("get", () -> this.client.get(key));
+                    } catch (RuntimeException | IOException $e) {
+                      throw $e;
+                    } catch (Exception $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+
+                  @Override
+                  public void close() {
+                    this.client.close();
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void prefetch() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Repository",
+                    """
+                    package foo.bar;
+
+                    import java.io.IOException;
+                    import java.util.Iterator;
+                    import java.util.stream.Stream;
+
+                    interface Repository {
+                      Iterator<String> keys();
+
+                      Stream<String> lines(String path) throws IOException;
+
+                      Iterable<Integer> pages();
+
+                      int count();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.concurrent.Executor;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Repository.class, name = "repository", prefetch = 16))
+                    class C extends AutoDelegate_C {
+                      C(Repository repository, Executor executor) {
+                        super(repository, executor);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.io.IOException;
+                import java.lang.Integer;
+                import java.lang.Iterable;
+                import java.lang.Override;
+                import java.lang.String;
+                import java.util.Iterator;
+                import java.util.concurrent.Executor;
+                import java.util.stream.Stream;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.PrefetchingIterator;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Repository {
+                  protected final Repository repository;
+
+                  private final Executor repository$prefetchExecutor;
+
+                  AutoDelegate_C(Repository repository, Executor repositoryPrefetchExecutor) {
+                    super();
+                    this.repository = repository;
+                    this.repository$prefetchExecutor = repositoryPrefetchExecutor;
+                  }
+
+                  @Override
+                  public Iterator<String> keys() {
+                    return PrefetchingIterator.of(this.repository.keys(), 16, this.repository$prefetchExecutor);
+                  }
+
+                  @Override
+                  public Stream<String> lines(String path) throws IOException {
+                    return PrefetchingIterator.stream(
+                        this.repository.lines(path), 16, this.repository$prefetchExecutor);
+                  }
+
+                  @Override
+                  public Iterable<Integer> pages() {
+                    return PrefetchingIterator.iterable(
+                        this.repository.pages(), 16, this.repository$prefetchExecutor);
+                  }
+
+                  @Override
+                  public int count() {
+                    return this.repository.count();
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void composite() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Sink",
+                    """
+                    package foo.bar;
+
+                    import java.io.IOException;
+
+                    interface Sink {
+                      void accept(String event) throws IOException;
+
+                      int pending();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.concurrent.Executor;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.CompositeDispatch;
+                    import net.ltgt.auto.delegate.AutoDelegate.CompositeReduction;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(
+                        @Delegate(
+                            value = Sink.class,
+                            name = "sinks",
+                            composite = true,
+                            compositeDispatch = CompositeDispatch.PARALLEL,
+                            compositeReduction = CompositeReduction.COMBINE))
+                    class C extends AutoDelegate_C {
+                      C(Sink[] sinks, Executor executor) {
+                        super(sinks, executor);
+                      }
+
+                      @Override
+                      protected int combinePending(int left, int right) {
+                        return left + right;
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.io.IOException;
+                import java.lang.Exception;
+                import java.lang.Override;
+                import java.lang.RuntimeException;
+                import java.lang.String;
+                import java.lang.reflect.UndeclaredThrowableException;
+                import java.util.NoSuchElementException;
+                import java.util.concurrent.Executor;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.Composite;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Sink {
+                  private final Composite<Sink> sinks$composite;
+
+                  AutoDelegate_C(Sink[] sinks, Executor sinksExecutor) {
+                    super();
+                    this.sinks$composite = new Composite<>("sinks", sinks, sinksExecutor, true);
+                  }
+
+                  public final Composite<Sink> sinksComposite() {
+                    return this.sinks$composite;
+                  }
+
+                  protected abstract int combinePending(int left, int right);
+
+                  @Override
+                  public void accept(String event) throws IOException {
+                    try {
+                      this.sinks$composite.forEach($delegate -> $delegate.accept(event));
+                    } catch (RuntimeException | IOException $e) {
+                      throw $e;
+                    } catch (Exception $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+
+                  @Override
+                  public int pending() {
+                    Sink[] $delegates = this.sinks$composite.get();
+                    if ($delegates.length == 0) {
+                      throw new NoSuchElementException("sinks is empty");
+                    }
+                    int $result = $delegates[0].pending();
+                    for (int $i = 1; $i < $delegates.length; $i++) {
+                      $result = combinePending($result, $delegates[$i].pending());
+                    }
+                    return $result;
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void scattered() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Store",
+                    """
+                    package foo.bar;
+
+                    import java.io.IOException;
+                    import java.util.Collection;
+                    import java.util.List;
+                    import java.util.Map;
+
+                    interface Store {
+                      Map<String, String> getAll(Collection<String> keys) throws IOException;
+
+                      void putAll(List<String> entries);
+
+                      List<Integer> index(String field, String[] docs);
+
+                      int size();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.util.concurrent.Executor;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(
+                        @Delegate(
+                            value = Store.class,
+                            name = "store",
+                            scattered = {"getAll", "putAll", "index"},
+                            scatterChunkSize = 100,
+                            scatterParallelism = 4))
+                    class C extends AutoDelegate_C {
+                      C(Store store, Executor executor) {
+                        super(store, executor);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.io.IOException;
+                import java.lang.Exception;
+                import java.lang.Integer;
+                import java.lang.Override;
+                import java.lang.RuntimeException;
+                import java.lang.String;
+                import java.lang.reflect.UndeclaredThrowableException;
+                import java.util.Arrays;
+                import java.util.Collection;
+                import java.util.List;
+                import java.util.Map;
+                import java.util.concurrent.Executor;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.ScatterGather;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Store {
+                  protected final Store store;
+
+                  private final ScatterGather store$scatter;
+
+                  AutoDelegate_C(Store store, Executor storeScatterExecutor) {
+                    super();
+                    this.store = store;
+                    this.store$scatter = new ScatterGather("store", 100, 4, storeScatterExecutor);
+                  }
+
+                  public final ScatterGather storeScatterGather() {
+                    return this.store$scatter;
+                  }
+
+                  @Override
+                  public Map<String, String> getAll(Collection<String> keys) throws IOException {
+                    Store $target = this.store;
+                    if (keys.size() <= 100) {
+                      return $target.getAll(keys);
+                    }
+                    List<String> $list = ScatterGather.asList(keys);
+                    try {
+                      return ScatterGather.merge(this.store$scatter.map(keys.size(), ($from, $to) -> $target.getAll($list.subList($from, $to))));
+                    } catch (RuntimeException | IOException $e) {
+                      throw $e;
+                    } catch (Exception $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+
+                  @Override
+                  public void putAll(List<String> entries) {
+                    Store $target = this.store;
+                    if (entries.size() <= 100) {
+                      $target.putAll(entries);
+                      return;
+                    }
+                    try {
+                      this.store$scatter.map(entries.size(), ($from, $to) -> { $target.putAll(entries.subList($from, $to)); return null; });
+                    } catch (RuntimeException $e) {
+                      throw $e;
+                    } catch (Exception $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+
+                  @Override
+                  public List<Integer> index(String field, String[] docs) {
+                    Store $target = this.store;
+                    if (docs.length <= 100) {
+                      return $target.index(field, docs);
+                    }
+                    try {
+                      return ScatterGather.concat(this.store$scatter.map(docs.length, ($from, $to) -> $target.index(field, Arrays.copyOfRange(docs, $from, $to))));
+                    } catch (RuntimeException $e) {
+                      throw $e;
+                    } catch (Exception $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+
+                  @Override
+                  public int size() {
+                    return this.store.size();
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void balanced() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Db",
+                    """
+                    package foo.bar;
+
+                    import java.sql.SQLException;
+
+                    interface Db {
+                      String query(String sql) throws SQLException;
+
+                      void ping();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(
+                        @Delegate(value = Db.class, name = "db", balanced = true, balanceEjectionMillis = 5000))
+                    class C extends AutoDelegate_C {
+                      C(Db... db) {
+                        super(db);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.lang.String;
+                import java.lang.System;
+                import java.lang.Throwable;
+                import java.sql.SQLException;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.Balancer;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Db {
+                  protected final Db[] db;
+
+                  private final Balancer db$balancer;
+
+                  AutoDelegate_C(Db[] db) {
+                    super();
+                    this.db = db.clone();
+                    this.db$balancer = new Balancer("db", this.db.length, 3.0, 5000L);
+                  }
+
+                  public final Balancer dbBalancer() {
+                    return this.db$balancer;
+                  }
+
+                  @Override
+                  public String query(String sql) throws SQLException {
+                    int $replica = this.db$balancer.select();
+                    long $replicaStart = System.nanoTime();
+                    boolean $replicaFailed = false;
+                    try {
+                      return this.db[$replica].query(sql);
+                    } catch (Throwable $replicaError) {
+                      $replicaFailed = true;
+                      throw $replicaError;
+                    } finally {
+                      this.db$balancer.release($replica, $replicaStart, $replicaFailed);
+                    }
+                  }
+
+                  @Override
+                  public void ping() {
+                    int $replica = this.db$balancer.select();
+                    long $replicaStart = System.nanoTime();
+                    boolean $replicaFailed = false;
+                    try {
+                      this.db[$replica].ping();
+                    } catch (Throwable $replicaError) {
+                      $replicaFailed = true;
+                      throw $replicaError;
+                    } finally {
+                      this.db$balancer.release($replica, $replicaStart, $replicaFailed);
+                    }
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void remote() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Db",
+                    """
+                    package foo.bar;
+
+                    import java.sql.SQLException;
+
+                    interface Db {
+                      String query(String sql) throws SQLException;
+
+                      void ping();
+
+                      boolean put(long id, byte[] value);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import java.nio.channels.ByteChannel;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Db.class, name = "db", remote = true))
+                    class C extends AutoDelegate_C {
+                      C(ByteChannel db) {
+                        super(db);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Override;
+                import java.lang.String;
+                import java.lang.UnsupportedOperationException;
+                import java.nio.channels.ByteChannel;
+                import java.sql.SQLException;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.RemoteClient;
+                import net.ltgt.auto.delegate.runtime.RemoteMessage;
+                import net.ltgt.auto.delegate.runtime.RemoteServer;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Db {
+                  private final RemoteClient db$remote;
+
+                  AutoDelegate_C(ByteChannel db) {
+                    super();
+                    this.db$remote = new RemoteClient("db", db);
+                  }
+
+                  public final RemoteClient dbRemote() {
+                    return this.db$remote;
+                  }
+
+                  public static RemoteServer.Dispatcher dbSkeleton(Db db) {
+                    return ($method, $request, $response) -> {
+                      switch ($method) {
+                        case 0:
+                          $response.putString(db.query(RemoteMessage.getString($request)));
+                          break;
+                        case 1:
+                          db.ping();
+                          break;
+                        case 2:
+                          $response.putBoolean(
+                              db.put(RemoteMessage.getLong($request), RemoteMessage.getBytes($request)));
+                          break;
+                        default:
+                          throw new UnsupportedOperationException("Unknown method id: " + $method);
+                      }
+                    };
+                  }
+
+                  @Override
+                  public String query(String sql) throws SQLException {
+                    return RemoteMessage.getString(this.db$remote.call(this.db$remote.request(0).putString(sql)));
+                  }
+
+                  @Override
+                  public void ping() {
+                    this.db$remote.call(this.db$remote.request(1));
+                  }
+
+                  @Override
+                  public boolean put(long id, byte[] value) {
+                    return RemoteMessage.getBoolean(
+                        this.db$remote.call(this.db$remote.request(2).putLong(id).putBytes(value)));
+                  }
+                }
+                """));
+  }
+
+  @Test
+  public void instrumented() {
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Db",
+                    """
+                    package foo.bar;
+
+                    import java.sql.SQLException;
+
+                    interface Db {
+                      String query(String sql) throws SQLException;
+
+                      void ping();
+
+                      int join(String... parts);
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.C",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Db.class, name = "db", instrumented = true))
+                    class C extends AutoDelegate_C {
+                      C(Db db) {
+                        super(db);
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeededWithoutWarnings();
+    assertThat(compilation)
+        .generatedSourceFile("foo.bar.AutoDelegate_C")
+        .hasSourceEquivalentTo(
+            JavaFileObjects.forSourceString(
+                "foo.bar.AutoDelegate_C",
+                """
+                package foo.bar;
+
+                import java.lang.Error;
+                import java.lang.Override;
+                import java.lang.RuntimeException;
+                import java.lang.String;
+                import java.lang.Throwable;
+                import java.lang.invoke.MethodHandle;
+                import java.lang.invoke.MethodHandles;
+                import java.lang.invoke.MethodType;
+                import java.lang.reflect.UndeclaredThrowableException;
+                import java.sql.SQLException;
+                import javax.annotation.processing.Generated;
+                import net.ltgt.auto.delegate.runtime.Instrumentation;
+
+                @Generated("net.ltgt.auto.delegate.processor.AutoDelegateProcessor")
+                abstract class AutoDelegate_C implements Db {
+                  private static final Instrumentation db$INSTRUMENTATION =
+                      Instrumentation.register(
+                          "foo.bar.AutoDelegate_C",
+                          "db",
+                          "query(java.lang.String)",
+                          "ping()",
+                          "join(java.lang.String[])");
+
+                  private static final MethodHandle db$HANDLE$0 =
+                      Instrumentation.guard(
+                          MethodHandles.lookup(),
+                          Db.class,
+                          "query",
+                          "db$instrumented$0",
+                          MethodType.methodType(String.class, Db.class, String.class));
+
+                  private static final MethodHandle db$HANDLE$1 =
+                      Instrumentation.guard(
+                          MethodHandles.lookup(),
+                          Db.class,
+                          "ping",
+                          "db$instrumented$1",
+                          MethodType.methodType(void.class, Db.class));
+
+                  private static final MethodHandle db$HANDLE$2 =
+                      Instrumentation.guard(
+                          MethodHandles.lookup(),
+                          Db.class,
+                          "join",
+                          "db$instrumented$2",
+                          MethodType.methodType(int.class, Db.class, String[].class));
+
+                  protected final Db db;
+
+                  AutoDelegate_C(Db db) {
+                    super();
+                    this.db = db;
+                  }
+
+                  @Override
+                  public String query(String sql) throws SQLException {
+                    return db$invoke$0(this.db, sql);
+                  }
+
+                  private static String db$invoke$0(Db $delegate, String sql) throws SQLException {
+                    try {
+                      return (String) db$HANDLE$0.invokeExact($delegate, sql);
+                    } catch (RuntimeException | Error | SQLException $e) {
+                      throw $e;
+                    } catch (Throwable $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+
+                  private static String db$instrumented$0(Db $delegate, String sql) throws SQLException {
+                    long $start = db$INSTRUMENTATION.start();
+                    boolean $failed = false;
+                    try {
+                      return $delegate.query(sql);
+                    } catch (Throwable $e) {
+                      $failed = true;
+                      throw $e;
+                    } finally {
+                      db$INSTRUMENTATION.record(0, $start, $failed);
+                    }
+                  }
+
+                  @Override
+                  public void ping() {
+                    db$invoke$1(this.db);
+                  }
+
+                  private static void db$invoke$1(Db $delegate) {
+                    try {
+                      db$HANDLE$1.invokeExact($delegate);
+                    } catch (RuntimeException | Error $e) {
+                      throw $e;
+                    } catch (Throwable $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+
+                  private static void db$instrumented$1(Db $delegate) {
+                    long $start = db$INSTRUMENTATION.start();
+                    boolean $failed = false;
+                    try {
+                      $delegate.ping();
+                    } catch (Throwable $e) {
+                      $failed = true;
+                      throw $e;
+                    } finally {
+                      db$INSTRUMENTATION.record(1, $start, $failed);
+                    }
+                  }
+
+                  @Override
+                  public int join(String... parts) {
+                    return db$invoke$2(this.db, parts);
+                  }
+
+                  private static int db$invoke$2(Db $delegate, String... parts) {
+                    try {
+                      return (int) db$HANDLE$2.invokeExact($delegate, parts);
+                    } catch (RuntimeException | Error $e) {
+                      throw $e;
+                    } catch (Throwable $e) {
+                      throw new UndeclaredThrowableException($e);
+                    }
+                  }
+
+                  private static int db$instrumented$2(Db $delegate, String... parts) {
+                    long $start = db$INSTRUMENTATION.start();
+                    boolean $failed = false;
+                    try {
+                      return $delegate.join(parts);
+                    } catch (Throwable $e) {
+                      $failed = true;
+                      throw $e;
+                    } finally {
+                      db$INSTRUMENTATION.record(2, $start, $failed);
+                    }
+                  }
+                }
+                """));
+  }
 }
@@ -453,4 +453,1086 @@ public class ErrorTest {
         .onLine(8)
         .atColumn(3);
   }
+
+  @Test
+  public void stable() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(
+                @Delegate(value = I.class, name = "i", stable = {"v", "p", "missing"}))
+            class C extends AutoDelegate_C {
+              C(I i) {
+                super(i);
+              }
+            }
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void v();
+                      String p(int x);
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateStable]")
+        .inFile(source)
+        .onLine(7)
+        .atColumn(54);
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateStable]")
+        .inFile(source)
+        .onLine(7)
+        .atColumn(59);
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateStable]")
+        .inFile(source)
+        .onLine(7)
+        .atColumn(64);
+  }
+
+  @Test
+  public void accessor() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", lazy = true))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateAccessor]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(15);
+  }
+
+  @Test
+  public void stableNameConflict() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", lazy = true, stable = "supplier"))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      String supplier();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateName]")
+        .inFile(source)
+        .onLine(7)
+        .atColumn(1);
+  }
+
+  @Test
+  public void swapConflict() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", swappable = true))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void swap(I other);
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateName]")
+        .inFile(source)
+        .onLine(7)
+        .atColumn(1);
+  }
+
+  @Test
+  public void mode() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "delegate", lazy = true, swappable = true))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateMode]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(15);
+  }
+
+  @Test
+  public void swappableJava8() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "delegate", swappable = true))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .withOptions("--release", "8")
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateSwappable]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(73);
+  }
+
+  @Test
+  public void shardKey() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", sharded = true))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate.ShardKey;
+
+                    interface I {
+                      void i(@ShardKey String a, @ShardKey String b);
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateShardKey]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(15);
+  }
+
+  @Test
+  public void readOnly() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", readOnly = "missing"))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateReadOnly]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(65);
+  }
+
+  @Test
+  public void poolSize() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", poolSize = -1))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegatePool]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(65);
+  }
+
+  @Test
+  public void singleFlight() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", singleFlight = "i"))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+
+                      void i(int x);
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateSingleFlight]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(69);
+  }
+
+  @Test
+  public void maxConcurrency() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", maxConcurrency = -1))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateBulkhead]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(71);
+  }
+
+  @Test
+  public void hedged() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", hedged = "missing"))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateHedged]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(63);
+  }
+
+  @Test
+  public void shadowSampleRate() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", shadowSampleRate = 2))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateShadow]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(73);
+  }
+
+  @Test
+  public void shadowArrayParameter() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", shadowSampleRate = 0.5))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      int sum(int[] values);
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateShadow]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(15);
+  }
+
+  @Test
+  public void compact() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(
+                value = {@Delegate(value = I.class, name = "i"), @Delegate(value = J.class, name = "j")},
+                compact = true)
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.J",
+                    """
+                    package foo.bar;
+
+                    interface J {
+                      void j();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateCompact]")
+        .inFile(source)
+        .onLine(7)
+        .atColumn(54);
+  }
+
+  @Test
+  public void reusable() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(value = @Delegate(value = I.class, name = "i", lazy = true), reusable = true)
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateReusable]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(23);
+  }
+
+  @Test
+  public void abstractClassAndExtend() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(value = @Delegate(value = S.class, name = "s"), extend = B.class)
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.S",
+                    """
+                    package foo.bar;
+
+                    abstract class S {
+                      public abstract void s();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.B",
+                    """
+                    package foo.bar;
+
+                    class B {}
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateClass]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(23);
+  }
+
+  @Test
+  public void fused() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", fused = S.class))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.S",
+                    """
+                    package foo.bar;
+
+                    class S implements I {
+                      @Override
+                      public void i() {}
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateFused]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(63);
+  }
+
+  @Test
+  public void fusedNotFinal() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", fused = S.class))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.S",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = I.class, name = "i"))
+                    class S extends AutoDelegate_S {
+                      S(I i) {
+                        super(i);
+                      }
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateFused]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(63);
+  }
+
+  @Test
+  public void timeoutMillis() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", timeoutMillis = -1))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateTimeout]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(70);
+  }
+
+  @Test
+  public void timeoutWithLocking() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Locking;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", locking = Locking.READ_WRITE, timeoutMillis = 100))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateTimeout]")
+        .inFile(source)
+        .onLine(7)
+        .atColumn(100);
+  }
+
+  @Test
+  public void prefetch() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", prefetch = -1))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    import java.util.Iterator;
+
+                    interface I {
+                      Iterator<String> i();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegatePrefetch]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(65);
+  }
+
+  @Test
+  public void compositeReduction() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", composite = true))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      int size();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateComposite]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(15);
+  }
+
+  @Test
+  public void scattered() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", scattered = "get"))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    import java.util.Set;
+
+                    interface I {
+                      Set<String> get(Set<String> keys);
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateScatter]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(66);
+  }
+
+  @Test
+  public void scatteredThreadLocal() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+            import net.ltgt.auto.delegate.AutoDelegate.PerThread;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", perThread = PerThread.THREAD_LOCAL, scattered = "get"))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    import java.util.List;
+
+                    interface I {
+                      List<String> get(List<String> keys);
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateScatter]")
+        .inFile(source)
+        .onLine(7)
+        .atColumn(102);
+  }
+
+  @Test
+  public void balanceEjectionFactor() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", balanced = true, balanceEjectionFactor = 1))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      void run();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateBalanced]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(95);
+  }
+
+  @Test
+  public void remote() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", remote = true))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    import java.util.List;
+
+                    interface I {
+                      List<String> get();
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateRemote]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(15);
+  }
+
+  @Test
+  public void instrumentedGeneric() {
+    var source =
+        JavaFileObjects.forSourceString(
+            "foo.bar.C",
+            """
+            package foo.bar;
+
+            import net.ltgt.auto.delegate.AutoDelegate;
+            import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+            @AutoDelegate(@Delegate(value = I.class, name = "i", instrumented = true))
+            class C extends AutoDelegate_C {}
+            """);
+    var compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.I",
+                    """
+                    package foo.bar;
+
+                    interface I {
+                      <T> T get(Class<T> type);
+                    }
+                    """),
+                source);
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("[AutoDelegateInstrumented]")
+        .inFile(source)
+        .onLine(6)
+        .atColumn(15);
+  }
 }
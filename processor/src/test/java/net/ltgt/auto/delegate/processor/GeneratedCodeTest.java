@@ -0,0 +1,584 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.processor;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntToLongFunction;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the performance contract of the generated code: forwarders don't allocate, and are small
+ * enough to be inlined.
+ *
+ * <p>Representative classes are compiled with the processor, then loaded and called in a loop,
+ * measuring the allocated bytes after warm-up; and their class files are parsed to check the
+ * bytecode size of forwarders.
+ */
+public class GeneratedCodeTest {
+  /** HotSpot's default {@code MaxInlineSize}: smaller methods are inlined even when not hot. */
+  private static final int MAX_INLINE_SIZE = 35;
+
+  private static final int ITERATIONS = 100_000;
+
+  /**
+   * The bytes the measurement itself may account for. This doesn't depend on the number of
+   * iterations: a single allocation per call would exceed it by orders of magnitude.
+   */
+  private static final long MEASUREMENT_OVERHEAD = 256;
+
+  private static final Set<String> FORWARDERS =
+      Set.of("size", "count", "ratio", "isEmpty", "accept", "join", "defaultMethod");
+
+  private static Compilation compilation;
+  private static ClassLoader classLoader;
+
+  @BeforeClass
+  public static void compile() throws IOException {
+    compilation =
+        javac()
+            .withProcessors(new AutoDelegateProcessor())
+            .compile(
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Api",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate.ShardKey;
+
+                    public interface Api {
+                      int size();
+
+                      long count(@ShardKey int i);
+
+                      double ratio();
+
+                      boolean isEmpty();
+
+                      void accept(int i, String s);
+
+                      int join(String... parts);
+
+                      default int defaultMethod() {
+                        return 42;
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Impl",
+                    """
+                    package foo.bar;
+
+                    class Impl implements Api {
+                      private int last;
+
+                      @Override
+                      public int size() {
+                        return last;
+                      }
+
+                      @Override
+                      public long count(int i) {
+                        return i;
+                      }
+
+                      @Override
+                      public double ratio() {
+                        return 0.5;
+                      }
+
+                      @Override
+                      public boolean isEmpty() {
+                        return last == 0;
+                      }
+
+                      @Override
+                      public void accept(int i, String s) {
+                        last = i;
+                      }
+
+                      @Override
+                      public int join(String... parts) {
+                        return parts.length;
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Direct",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Api.class, name = "api"))
+                    class Direct extends AutoDelegate_Direct {
+                      Direct(Api api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Lazy",
+                    """
+                    package foo.bar;
+
+                    import java.util.function.Supplier;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Api.class, name = "api", lazy = true))
+                    class Lazy extends AutoDelegate_Lazy {
+                      Lazy(Supplier<? extends Api> api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Swappable",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Api.class, name = "api", swappable = true))
+                    class Swappable extends AutoDelegate_Swappable {
+                      Swappable(Api api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Compact",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(value = @Delegate(value = Api.class, name = "api"), compact = true)
+                    class Compact<D extends Api> extends AutoDelegate_Compact<D> {
+                      Compact(D api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Reusable",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(value = @Delegate(value = Api.class, name = "api"), reusable = true)
+                    class Reusable extends AutoDelegate_Reusable {
+                      Reusable(Api api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Instrumented",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Api.class, name = "api", instrumented = true))
+                    class Instrumented extends AutoDelegate_Instrumented {
+                      Instrumented(Api api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Stable",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Api.class, name = "api", stable = {"size", "ratio"}))
+                    class Stable extends AutoDelegate_Stable {
+                      Stable(Api api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Locked",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Locking;
+
+                    @AutoDelegate(
+                        @Delegate(
+                            value = Api.class,
+                            name = "api",
+                            locking = Locking.OPTIMISTIC_READ,
+                            readOnly = {"size", "count", "ratio", "isEmpty"}))
+                    class Locked extends AutoDelegate_Locked {
+                      Locked(Api api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Sharded",
+                    """
+                    package foo.bar;
+
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Api.class, name = "api", sharded = true))
+                    class Sharded extends AutoDelegate_Sharded {
+                      Sharded(Api[] api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Striped",
+                    """
+                    package foo.bar;
+
+                    import java.util.function.Supplier;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.PerThread;
+
+                    @AutoDelegate(@Delegate(value = Api.class, name = "api", perThread = PerThread.STRIPED))
+                    class Striped extends AutoDelegate_Striped {
+                      Striped(Supplier<Api> api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Pooled",
+                    """
+                    package foo.bar;
+
+                    import java.util.function.Supplier;
+                    import net.ltgt.auto.delegate.AutoDelegate;
+                    import net.ltgt.auto.delegate.AutoDelegate.Delegate;
+
+                    @AutoDelegate(@Delegate(value = Api.class, name = "api", poolSize = 4))
+                    class Pooled extends AutoDelegate_Pooled {
+                      Pooled(Supplier<Api> api) {
+                        super(api);
+                      }
+                    }
+                    """),
+                JavaFileObjects.forSourceString(
+                    "foo.bar.Driver",
+                    """
+                    package foo.bar;
+
+                    import java.util.function.IntToLongFunction;
+
+                    public class Driver implements IntToLongFunction {
+                      private static final String[] PARTS = {"a", "b"};
+
+                      private final Api api;
+
+                      public Driver(String mode) {
+                        Api impl = new Impl();
+                        this.api =
+                            switch (mode) {
+                              case "direct" -> new Direct(impl);
+                              case "lazy" -> new Lazy(() -> impl);
+                              case "swappable" -> new Swappable(impl);
+                              case "compact" -> new Compact<>(impl);
+                              case "reusable" -> new Reusable(impl);
+                              case "instrumented" -> new Instrumented(impl);
+                              case "stable" -> new Stable(impl);
+                              case "locked" -> new Locked(impl);
+                              case "sharded" -> new Sharded(new Api[] {impl, new Impl()});
+                              case "striped" -> new Striped(Impl::new);
+                              case "pooled" -> new Pooled(Impl::new);
+                              default -> throw new IllegalArgumentException(mode);
+                            };
+                      }
+
+                      @Override
+                      public long applyAsLong(int iterations) {
+                        long sum = 0;
+                        for (int i = 0; i < iterations; i++) {
+                          sum += api.size() + api.count(i) + (long) api.ratio();
+                          sum += api.join(PARTS) + api.defaultMethod();
+                          if (api.isEmpty()) {
+                            sum++;
+                          }
+                          api.accept(i, "x");
+                        }
+                        return sum;
+                      }
+                    }
+                    """));
+    assertThat(compilation).succeeded();
+    classLoader = new CompilationClassLoader(compilation);
+  }
+
+  @Test
+  public void direct() throws Exception {
+    assertNoAllocation("direct");
+    assertForwardersInlinable("foo.bar.AutoDelegate_Direct");
+  }
+
+  @Test
+  public void lazy() throws Exception {
+    assertNoAllocation("lazy");
+    assertForwardersInlinable("foo.bar.AutoDelegate_Lazy");
+  }
+
+  @Test
+  public void swappable() throws Exception {
+    assertNoAllocation("swappable");
+    assertForwardersInlinable("foo.bar.AutoDelegate_Swappable");
+  }
+
+  @Test
+  public void compact() throws Exception {
+    assertNoAllocation("compact");
+    assertForwardersInlinable("foo.bar.AutoDelegate_Compact");
+  }
+
+  @Test
+  public void reusable() throws Exception {
+    // The check that the instance hasn't been released takes most of the budget: accept(int,
+    // String), the forwarder with the most arguments, is exactly MAX_INLINE_SIZE bytes. Adding
+    // anything to reusable forwarders will need another way to keep them inlinable (e.g. moving
+    // the check to a shared method).
+    assertNoAllocation("reusable");
+    assertForwardersInlinable("foo.bar.AutoDelegate_Reusable");
+  }
+
+  @Test
+  public void instrumented() throws Exception {
+    // Instrumentation is never enabled in this JVM, so calls go through the switch point's
+    // uninstrumented path.
+    assertNoAllocation("instrumented");
+    assertForwardersInlinable("foo.bar.AutoDelegate_Instrumented");
+    Map<String, Integer> invokers = new LinkedHashMap<>();
+    codeLengths(classBytes("foo.bar.AutoDelegate_Instrumented"))
+        .forEach(
+            (method, length) -> {
+              if (method.startsWith("api$invoke$")) {
+                invokers.put(method, length);
+              }
+            });
+    assertThat(invokers).hasSize(FORWARDERS.size());
+    invokers.forEach(
+        (method, length) ->
+            assertWithMessage("bytecode size of %s", method)
+                .that(length)
+                .isAtMost(MAX_INLINE_SIZE));
+  }
+
+  // Forwarders guarded by a lock, or going through a pool, shard or stripe, are too large to be
+  // inlined when not hot; only their allocation is checked.
+
+  @Test
+  public void stable() throws Exception {
+    assertNoAllocation("stable");
+  }
+
+  @Test
+  public void locked() throws Exception {
+    assertNoAllocation("locked");
+  }
+
+  @Test
+  public void sharded() throws Exception {
+    assertNoAllocation("sharded");
+  }
+
+  @Test
+  public void striped() throws Exception {
+    assertNoAllocation("striped");
+  }
+
+  @Test
+  public void pooled() throws Exception {
+    assertNoAllocation("pooled");
+  }
+
+  private static void assertNoAllocation(String mode) throws Exception {
+    var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    var driver =
+        (IntToLongFunction)
+            classLoader.loadClass("foo.bar.Driver").getConstructor(String.class).newInstance(mode);
+    // Warm up, so that the measured loop runs compiled code.
+    for (int i = 0; i < 20; i++) {
+      driver.applyAsLong(ITERATIONS);
+    }
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    driver.applyAsLong(ITERATIONS);
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+    assertWithMessage("bytes allocated by %s forwarders over %s iterations", mode, ITERATIONS)
+        .that(allocated)
+        .isAtMost(MEASUREMENT_OVERHEAD);
+  }
+
+  private static void assertForwardersInlinable(String className) throws IOException {
+    Map<String, Integer> forwarders = new LinkedHashMap<>();
+    codeLengths(classBytes(className))
+        .forEach(
+            (method, length) -> {
+              if (FORWARDERS.contains(method.substring(0, method.indexOf('(')))) {
+                forwarders.put(method, length);
+              }
+            });
+    assertThat(forwarders).hasSize(FORWARDERS.size());
+    forwarders.forEach(
+        (method, length) ->
+            assertWithMessage("bytecode size of %s.%s", className, method)
+                .that(length)
+                .isAtMost(MAX_INLINE_SIZE));
+  }
+
+  private static byte[] classBytes(String className) throws IOException {
+    JavaFileObject file =
+        compilation
+            .generatedFile(StandardLocation.CLASS_OUTPUT, className.replace('.', '/') + ".class")
+            .orElseThrow(() -> new AssertionError("No class file for " + className));
+    try (InputStream in = file.openInputStream()) {
+      return in.readAllBytes();
+    }
+  }
+
+  /**
+   * Returns the bytecode size of each method of a class, keyed by name and descriptor.
+   *
+   * <p>This only parses what's needed from the class file format (JVMS §4).
+   */
+  private static Map<String, Integer> codeLengths(byte[] bytes) throws IOException {
+    var in = new DataInputStream(new ByteArrayInputStream(bytes));
+    // magic, minor_version, major_version
+    in.skipBytes(8);
+    int constantPoolCount = in.readUnsignedShort();
+    var utf8 = new String[constantPoolCount];
+    for (int i = 1; i < constantPoolCount; i++) {
+      int tag = in.readUnsignedByte();
+      switch (tag) {
+        case 1 -> utf8[i] = in.readUTF();
+        case 7, 8, 16, 19, 20 -> in.skipBytes(2);
+        case 15 -> in.skipBytes(3);
+        case 3, 4, 9, 10, 11, 12, 17, 18 -> in.skipBytes(4);
+        case 5, 6 -> {
+          in.skipBytes(8);
+          // Longs and doubles take two entries
+          i++;
+        }
+        default -> throw new IOException("Unknown constant pool tag " + tag);
+      }
+    }
+    // access_flags, this_class, super_class, interfaces
+    in.skipBytes(6);
+    in.skipBytes(2 * in.readUnsignedShort());
+    // fields
+    int fieldCount = in.readUnsignedShort();
+    for (int i = 0; i < fieldCount; i++) {
+      in.skipBytes(6);
+      int attributeCount = in.readUnsignedShort();
+      for (int j = 0; j < attributeCount; j++) {
+        in.skipBytes(2);
+        in.skipBytes(in.readInt());
+      }
+    }
+    var codeLengths = new LinkedHashMap<String, Integer>();
+    int methodCount = in.readUnsignedShort();
+    for (int i = 0; i < methodCount; i++) {
+      in.skipBytes(2);
+      String name = utf8[in.readUnsignedShort()];
+      String descriptor = utf8[in.readUnsignedShort()];
+      int attributeCount = in.readUnsignedShort();
+      for (int j = 0; j < attributeCount; j++) {
+        String attributeName = utf8[in.readUnsignedShort()];
+        int length = in.readInt();
+        if (attributeName.equals("Code")) {
+          // max_stack, max_locals
+          in.skipBytes(4);
+          codeLengths.put(name + descriptor, in.readInt());
+          in.skipBytes(length - 8);
+        } else {
+          in.skipBytes(length);
+        }
+      }
+    }
+    return codeLengths;
+  }
+
+  /** Loads the classes compiled by a {@link Compilation}. */
+  private static class CompilationClassLoader extends ClassLoader {
+    private final Map<String, byte[]> classes = new HashMap<>();
+
+    CompilationClassLoader(Compilation compilation) throws IOException {
+      super(GeneratedCodeTest.class.getClassLoader());
+      for (JavaFileObject file : compilation.generatedFiles()) {
+        if (file.getKind() != JavaFileObject.Kind.CLASS) {
+          continue;
+        }
+        String path = file.toUri().getPath();
+        String name =
+            path.substring(path.indexOf("CLASS_OUTPUT/") + "CLASS_OUTPUT/".length())
+                .replace(".class", "")
+                .replace('/', '.');
+        try (InputStream in = file.openInputStream()) {
+          classes.put(name, in.readAllBytes());
+        }
+      }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      byte[] bytes = classes.get(name);
+      if (bytes == null) {
+        throw new ClassNotFoundException(name);
+      }
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+}
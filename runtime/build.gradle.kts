@@ -0,0 +1,24 @@
+plugins {
+    id("local.java-library")
+    id("local.maven-publish")
+}
+
+base.archivesName.set("auto-delegate-runtime")
+
+nullaway {
+    annotatedPackages.add("net.ltgt.auto.delegate.runtime")
+}
+
+dependencies {
+    compileOnly(libs.checkerQual)
+}
+
+testing {
+    suites {
+        named<JvmTestSuite>("test") {
+            dependencies {
+                implementation(libs.truth)
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Balances calls across interchangeable replicas of a delegate.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for {@code balanced}
+ * delegates, each call being bracketed by {@link #select()} and {@link #release(int, long,
+ * boolean)}.
+ *
+ * <p>Each call picks two distinct replicas at random and goes to the one with the lowest cost
+ * ("power of two choices"), unless both costs are within an eighth of each other: its number of
+ * calls in flight weighted by its average latency, an exponentially weighted moving average of the
+ * latency of its calls. Failed calls count as twice as slow as the slowest of their latency and the
+ * average, so that a replica failing fast doesn't attract more calls. A replica that hasn't
+ * completed any call yet, or for more than a second, has no known latency, and is thus preferred
+ * until it has.
+ *
+ * <p>A replica whose average latency exceeds the average latency of the fastest other replica by
+ * the ejection factor is removed from rotation for the ejection duration, unless it's the last one
+ * in rotation; it's then back with no latency, to be measured again. Only averages over enough
+ * calls are compared.
+ *
+ * <p>Counters of each replica are spread 128 bytes apart, so that calls to different replicas
+ * don't contend on the same cache lines.
+ */
+public final class Balancer {
+  /** The distance between the counters of two replicas, in longs: two cache lines. */
+  private static final int STRIDE = 16;
+
+  private static final int IN_FLIGHT = 0;
+  private static final int LATENCY = 1;
+  private static final int EJECTED_UNTIL = 2;
+  private static final int SAMPLES = 3;
+  private static final int LAST_SAMPLE = 4;
+
+  /** How long an average latency is trusted without new calls. */
+  private static final long STALE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** The number of calls needed for an average latency to be trusted for ejections. */
+  private static final int MIN_SAMPLES = 16;
+
+  /** The weight of the previous average in the new average is 1 - 2^-DECAY_SHIFT. */
+  private static final int DECAY_SHIFT = 3;
+
+  private final int replicas;
+  private final double ejectionFactor;
+  private final long ejectionNanos;
+
+  // Padded before the first replica and after the last one too.
+  private final AtomicLongArray counters;
+  private final AtomicLong ejections = new AtomicLong();
+
+  /**
+   * Creates a balancer.
+   *
+   * @param name The name of the delegate, used in exception messages.
+   * @param replicas The number of replicas, must be positive.
+   * @param ejectionFactor How many times slower than the fastest other replica a replica has to be
+   *     to be removed from rotation, must be greater than 1.
+   * @param ejectionMillis How long a replica is removed from rotation, in milliseconds.
+   */
+  public Balancer(String name, int replicas, double ejectionFactor, long ejectionMillis) {
+    if (replicas <= 0) {
+      throw new IllegalArgumentException(name + " must have at least one replica");
+    }
+    if (!(ejectionFactor > 1)) {
+      throw new IllegalArgumentException(
+          "ejectionFactor must be greater than 1: " + ejectionFactor);
+    }
+    this.replicas = replicas;
+    this.ejectionFactor = ejectionFactor;
+    this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(ejectionMillis);
+    this.counters = new AtomicLongArray((replicas + 2) * STRIDE);
+  }
+
+  /**
+   * Selects the replica for a call.
+   *
+   * @return The index of the selected replica, to be passed to {@link #release(int, long,
+   *     boolean)}.
+   */
+  public int select() {
+    int choice = 0;
+    if (replicas > 1) {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int a = random.nextInt(replicas);
+      int b = random.nextInt(replicas - 1);
+      if (b >= a) {
+        b++;
+      }
+      long now = System.nanoTime();
+      boolean aEjected = isEjected(a, now);
+      boolean bEjected = isEjected(b, now);
+      if (aEjected && bEjected) {
+        choice = firstInRotation(a, now);
+      } else if (aEjected || bEjected) {
+        choice = aEjected ? b : a;
+      } else {
+        long aCost = cost(a, now);
+        long bCost = cost(b, now);
+        choice = aCost - (aCost >> 3) <= bCost ? a : b;
+      }
+    }
+    counters.incrementAndGet(index(choice, IN_FLIGHT));
+    return choice;
+  }
+
+  /**
+   * Records the end of a call.
+   *
+   * @param replica The index of the replica, as returned by {@link #select()}.
+   * @param startNanos The start time of the call.
+   * @param failed Whether the call threw.
+   */
+  public void release(int replica, long startNanos, boolean failed) {
+    long now = System.nanoTime();
+    counters.decrementAndGet(index(replica, IN_FLIGHT));
+    if (isEjected(replica, now)) {
+      // Keep it unmeasured until it's back.
+      return;
+    }
+    // Racy updates are fine, these are only estimates; 0 means no latency.
+    long latency = Math.max(1, now - startNanos);
+    long average = counters.get(index(replica, LATENCY));
+    long samples = counters.incrementAndGet(index(replica, SAMPLES));
+    counters.set(index(replica, LAST_SAMPLE), now);
+    if (failed) {
+      latency = Math.min(Long.MAX_VALUE >> 2, Math.max(latency, average)) * 2;
+    }
+    if (average == 0) {
+      counters.set(index(replica, LATENCY), latency);
+      return;
+    }
+    long updated = average + ((latency - average) >> DECAY_SHIFT);
+    counters.set(index(replica, LATENCY), updated);
+    if (updated > average && samples >= MIN_SAMPLES) {
+      maybeEject(replica, updated, now);
+    }
+  }
+
+  /**
+   * Returns the number of replicas.
+   *
+   * @return The number of replicas.
+   */
+  public int replicas() {
+    return replicas;
+  }
+
+  /**
+   * Returns the number of calls currently in flight to the given replica.
+   *
+   * @param replica The index of the replica.
+   * @return The number of calls currently in flight to the given replica.
+   */
+  public long inFlight(int replica) {
+    return counters.get(index(replica, IN_FLIGHT));
+  }
+
+  /**
+   * Returns the average latency of the given replica, in nanoseconds.
+   *
+   * @param replica The index of the replica.
+   * @return The average latency of the given replica, in nanoseconds, or 0 if unknown.
+   */
+  public long latencyNanos(int replica) {
+    return counters.get(index(replica, LATENCY));
+  }
+
+  /**
+   * Returns whether the given replica is currently removed from rotation.
+   *
+   * @param replica The index of the replica.
+   * @return Whether the given replica is currently removed from rotation.
+   */
+  public boolean isEjected(int replica) {
+    return isEjected(replica, System.nanoTime());
+  }
+
+  /**
+   * Returns the number of times a replica has been removed from rotation so far.
+   *
+   * @return The number of times a replica has been removed from rotation so far.
+   */
+  public long ejections() {
+    return ejections.get();
+  }
+
+  private static int index(int replica, int counter) {
+    return (replica + 1) * STRIDE + counter;
+  }
+
+  private boolean isEjected(int replica, long now) {
+    long until = counters.get(index(replica, EJECTED_UNTIL));
+    return until != 0 && until - now > 0;
+  }
+
+  private long cost(int replica, long now) {
+    if (now - counters.get(index(replica, LAST_SAMPLE)) > STALE_NANOS) {
+      return 0;
+    }
+    return counters.get(index(replica, LATENCY)) * (counters.get(index(replica, IN_FLIGHT)) + 1);
+  }
+
+  private int firstInRotation(int from, long now) {
+    for (int i = 0; i < replicas; i++) {
+      int replica = (from + i) % replicas;
+      if (!isEjected(replica, now)) {
+        return replica;
+      }
+    }
+    return from;
+  }
+
+  private void maybeEject(int replica, long latency, long now) {
+    long fastest = 0;
+    for (int i = 0; i < replicas; i++) {
+      if (i == replica || isEjected(i, now)) {
+        continue;
+      }
+      long other = counters.get(index(i, LATENCY));
+      if (other != 0
+          && counters.get(index(i, SAMPLES)) >= MIN_SAMPLES
+          && (fastest == 0 || other < fastest)) {
+        fastest = other;
+      }
+    }
+    // Never eject the last replica in rotation.
+    if (fastest == 0 || latency <= ejectionFactor * fastest) {
+      return;
+    }
+    long until = counters.get(index(replica, EJECTED_UNTIL));
+    if (counters.compareAndSet(index(replica, EJECTED_UNTIL), until, now + ejectionNanos)) {
+      ejections.incrementAndGet();
+      counters.set(index(replica, LATENCY), 0);
+      counters.set(index(replica, SAMPLES), 0);
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caps the number of concurrent calls into a delegate.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for delegates with a {@code
+ * maxConcurrency}, each call being bracketed by {@link #acquire()} and {@link #release(long)}.
+ *
+ * <p>Calls are admitted with a compare-and-set on the number of in-flight calls; only calls that
+ * have to wait for a permit take a lock. When the limit is adaptive, it's adjusted with an AIMD
+ * (additive increase, multiplicative decrease) algorithm driven by the observed latency: it's
+ * decreased by a quarter (at most once per round trip) when a call takes more than twice the
+ * baseline latency, and increased by one after as many fast calls as the current limit.
+ */
+public final class Bulkhead {
+  private final String name;
+  private final int maxLimit;
+  private final boolean adaptive;
+  private final long timeoutNanos;
+
+  private final AtomicInteger limit;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final AtomicLong rejected = new AtomicLong();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+
+  // Adaptive limit state; racy updates are fine, these are only estimates.
+  private final AtomicInteger fastCalls = new AtomicInteger();
+  private volatile long baselineNanos;
+  private volatile long lastDecreaseNanos;
+
+  /**
+   * Creates a bulkhead.
+   *
+   * @param name The name of the delegate, used in exception messages.
+   * @param maxLimit The maximum number of concurrent calls, must be positive.
+   * @param adaptive Whether the limit adapts to the observed latency, between 1 and {@code
+   *     maxLimit}.
+   * @param timeoutMillis How long a call waits for a permit, in milliseconds; 0 to reject calls
+   *     immediately when the limit is reached.
+   */
+  public Bulkhead(String name, int maxLimit, boolean adaptive, long timeoutMillis) {
+    if (maxLimit <= 0) {
+      throw new IllegalArgumentException("maxLimit must be positive: " + maxLimit);
+    }
+    this.name = name;
+    this.maxLimit = maxLimit;
+    this.adaptive = adaptive;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    this.limit = new AtomicInteger(maxLimit);
+    // Far enough in the past that any call can decrease the limit.
+    this.lastDecreaseNanos = System.nanoTime() - TimeUnit.HOURS.toNanos(1);
+  }
+
+  /**
+   * Acquires a permit, waiting for one if needed and configured to.
+   *
+   * @return The start time of the call, to be passed to {@link #release(long)}.
+   * @throws RejectedExecutionException if no permit could be acquired in time, or the thread was
+   *     interrupted while waiting (its interrupt status is then restored).
+   */
+  public long acquire() {
+    if (!tryAcquire()) {
+      awaitPermit();
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * Releases a permit.
+   *
+   * @param startNanos The start time of the call, as returned by {@link #acquire()}.
+   */
+  public void release(long startNanos) {
+    inFlight.decrementAndGet();
+    if (adaptive) {
+      adapt(startNanos, System.nanoTime());
+    }
+    if (waiting.get() > 0) {
+      lock.lock();
+      try {
+        available.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Returns the current limit of concurrent calls.
+   *
+   * @return The current limit of concurrent calls.
+   */
+  public int limit() {
+    return limit.get();
+  }
+
+  /**
+   * Returns the number of calls currently in flight.
+   *
+   * @return The number of calls currently in flight.
+   */
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Returns the number of calls currently waiting for a permit.
+   *
+   * @return The number of calls currently waiting for a permit.
+   */
+  public int queueDepth() {
+    return waiting.get();
+  }
+
+  /**
+   * Returns the number of calls rejected so far.
+   *
+   * @return The number of calls rejected so far.
+   */
+  public long rejected() {
+    return rejected.get();
+  }
+
+  private boolean tryAcquire() {
+    for (; ; ) {
+      int current = inFlight.get();
+      if (current >= limit.get()) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private void awaitPermit() {
+    if (timeoutNanos <= 0) {
+      throw reject(name + " concurrency limit reached");
+    }
+    // Incremented before checking again, so a concurrent release will signal us.
+    waiting.incrementAndGet();
+    lock.lock();
+    try {
+      long remainingNanos = timeoutNanos;
+      while (!tryAcquire()) {
+        if (remainingNanos <= 0) {
+          throw reject(name + " concurrency limit reached");
+        }
+        remainingNanos = available.awaitNanos(remainingNanos);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      RejectedExecutionException ree = reject("Interrupted while waiting for " + name);
+      ree.initCause(e);
+      throw ree;
+    } finally {
+      lock.unlock();
+      waiting.decrementAndGet();
+    }
+  }
+
+  private RejectedExecutionException reject(String message) {
+    rejected.incrementAndGet();
+    return new RejectedExecutionException(message);
+  }
+
+  private void adapt(long startNanos, long endNanos) {
+    long latencyNanos = endNanos - startNanos;
+    long baseline = baselineNanos;
+    if (baseline == 0 || latencyNanos < baseline) {
+      baselineNanos = latencyNanos;
+      baseline = latencyNanos;
+    }
+    int current = limit.get();
+    if (latencyNanos > 2 * baseline) {
+      // Slowly let the baseline follow a latency that's durably higher.
+      baselineNanos = baseline + ((latencyNanos - baseline) >> 8);
+      if (startNanos - lastDecreaseNanos > 0 && current > 1) {
+        if (limit.compareAndSet(current, current - Math.max(1, current >> 2))) {
+          lastDecreaseNanos = endNanos;
+          fastCalls.set(0);
+        }
+      }
+    } else if (current < maxLimit && fastCalls.incrementAndGet() >= current) {
+      fastCalls.set(0);
+      if (limit.compareAndSet(current, current + 1) && waiting.get() > 0) {
+        lock.lock();
+        try {
+          available.signal();
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Broadcasts calls to several delegates.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for {@code composite}
+ * delegates. Calls are either made serially on the calling thread, or in parallel on the given
+ * executor, with the calling thread optionally waiting for all of them to complete. Either way, a
+ * failing delegate doesn't prevent the others from being called.
+ *
+ * <p>Delegates are held in a copy-on-write array, so they can be replaced, added or removed
+ * without locking, concurrently with calls; a call is made to the delegates that were present when
+ * it started.
+ *
+ * @param <T> The type of the delegates.
+ */
+public final class Composite<T> {
+  /** A call to a delegate. */
+  @FunctionalInterface
+  public interface Call<T> {
+    /**
+     * Calls the given delegate.
+     *
+     * @param delegate The delegate to call.
+     * @throws Exception if the call threw.
+     */
+    void call(T delegate) throws Exception;
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<Composite, Object[]> DELEGATES =
+      AtomicReferenceFieldUpdater.newUpdater(Composite.class, Object[].class, "delegates");
+
+  private final String name;
+  private final @Nullable Executor executor;
+  private final boolean join;
+
+  private volatile T[] delegates;
+
+  private final AtomicLong failures = new AtomicLong();
+
+  /**
+   * Creates a composite calling its delegates serially.
+   *
+   * @param name The name of the delegate, used in exception messages.
+   * @param delegates The delegates, in the order they're called.
+   */
+  public Composite(String name, T[] delegates) {
+    this.name = name;
+    this.delegates = checkDelegates(delegates);
+    this.executor = null;
+    this.join = true;
+  }
+
+  /**
+   * Creates a composite calling its delegates in parallel.
+   *
+   * @param name The name of the delegate, used in exception messages.
+   * @param delegates The delegates.
+   * @param executor The executor calls are run on.
+   * @param join Whether the calling thread waits for all calls to complete.
+   */
+  public Composite(String name, T[] delegates, Executor executor, boolean join) {
+    this.name = name;
+    this.delegates = checkDelegates(delegates);
+    this.executor = Objects.requireNonNull(executor);
+    this.join = join;
+  }
+
+  /**
+   * Returns the current delegates.
+   *
+   * <p>The returned array is shared and must not be modified.
+   *
+   * @return The current delegates.
+   */
+  public T[] get() {
+    return delegates;
+  }
+
+  /**
+   * Replaces the delegates.
+   *
+   * @param delegates The new delegates.
+   */
+  public void set(T[] delegates) {
+    this.delegates = checkDelegates(delegates);
+  }
+
+  /**
+   * Adds a delegate, called after the current ones.
+   *
+   * @param delegate The delegate to add.
+   */
+  public void add(T delegate) {
+    Objects.requireNonNull(delegate, name);
+    for (; ; ) {
+      T[] current = delegates;
+      T[] updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = delegate;
+      if (DELEGATES.compareAndSet(this, current, updated)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Removes the first occurrence of a delegate.
+   *
+   * @param delegate The delegate to remove.
+   * @return Whether the delegate was present.
+   */
+  public boolean remove(T delegate) {
+    for (; ; ) {
+      T[] current = delegates;
+      int index = Arrays.asList(current).indexOf(delegate);
+      if (index < 0) {
+        return false;
+      }
+      T[] updated = Arrays.copyOf(current, current.length - 1);
+      System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+      if (DELEGATES.compareAndSet(this, current, updated)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Calls every delegate.
+   *
+   * <p>When calls aren't waited for, failures are reported to the uncaught exception handler of
+   * the thread they ran on.
+   *
+   * @param call The call to make to each delegate.
+   * @throws InterruptedException if the calling thread was interrupted while waiting; calls
+   *     already submitted to the executor are not interrupted.
+   * @throws Exception The exception thrown by the first failing call, with those thrown by the
+   *     other failing calls {@linkplain Throwable#addSuppressed(Throwable) suppressed}.
+   */
+  public void forEach(Call<? super T> call) throws Exception {
+    T[] current = delegates;
+    if (executor == null) {
+      Throwable failure = null;
+      for (T delegate : current) {
+        try {
+          call.call(delegate);
+        } catch (Throwable t) {
+          failure = failed(failure, t);
+        }
+      }
+      rethrow(failure);
+    } else if (!join) {
+      for (T delegate : current) {
+        executor.execute(
+            () -> {
+              try {
+                call.call(delegate);
+              } catch (Throwable t) {
+                failures.incrementAndGet();
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+              }
+            });
+      }
+    } else if (current.length > 0) {
+      Fanout fanout = new Fanout(current.length);
+      // The last delegate is called on the calling thread, which would wait otherwise.
+      for (int i = 0; i < current.length - 1; i++) {
+        T delegate = current[i];
+        try {
+          executor.execute(() -> fanout.run(call, delegate));
+        } catch (Throwable t) {
+          fanout.done(t);
+        }
+      }
+      fanout.run(call, current[current.length - 1]);
+      try {
+        fanout.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw e;
+      }
+      rethrow(fanout.failure);
+    }
+  }
+
+  /**
+   * Returns the number of failed calls so far, counting each delegate separately.
+   *
+   * @return The number of failed calls so far.
+   */
+  public long failures() {
+    return failures.get();
+  }
+
+  private T[] checkDelegates(T[] delegates) {
+    T[] copy = delegates.clone();
+    for (T delegate : copy) {
+      Objects.requireNonNull(delegate, name);
+    }
+    return copy;
+  }
+
+  private Throwable failed(@Nullable Throwable failure, Throwable t) {
+    failures.incrementAndGet();
+    if (failure == null) {
+      return t;
+    }
+    failure.addSuppressed(t);
+    return failure;
+  }
+
+  private static void rethrow(@Nullable Throwable failure) throws Exception {
+    if (failure == null) {
+      return;
+    }
+    if (failure instanceof Exception) {
+      throw (Exception) failure;
+    }
+    if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+    throw new IllegalStateException(failure);
+  }
+
+  /** The calls of a single {@link #forEach(Call)} made in parallel, and their outcome. */
+  private final class Fanout {
+    private final CountDownLatch pending;
+    @Nullable Throwable failure;
+
+    Fanout(int count) {
+      this.pending = new CountDownLatch(count);
+    }
+
+    void run(Call<? super T> call, T delegate) {
+      Throwable t = null;
+      try {
+        call.call(delegate);
+      } catch (Throwable e) {
+        t = e;
+      }
+      done(t);
+    }
+
+    void done(@Nullable Throwable t) {
+      if (t != null) {
+        synchronized (this) {
+          failure = failed(failure, t);
+        }
+      }
+      pending.countDown();
+    }
+
+    void await() throws InterruptedException {
+      pending.await();
+    }
+  }
+}
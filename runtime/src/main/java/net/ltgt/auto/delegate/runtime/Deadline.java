@@ -0,0 +1,176 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs calls to a delegate against a deadline.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for delegates with a {@code
+ * timeoutMillis}. Each call runs on the given executor (e.g. one creating a virtual thread per
+ * task), while the calling thread waits for it until the deadline; past the deadline, the call is
+ * interrupted and abandoned, and a {@link DeadlineExceededException} is thrown.
+ *
+ * <p>The deadline is passed down to the call, and can be read by the delegate with {@link
+ * #remainingNanos()}, e.g. to configure its own I/O timeouts. A call made while another one is
+ * running against a deadline (i.e. through nested delegates) is bounded by the earliest of both
+ * deadlines, and fails fast if that deadline has already expired.
+ */
+public final class Deadline {
+  /** A call to the delegate. */
+  @FunctionalInterface
+  public interface Call<R> {
+    /**
+     * Calls the delegate.
+     *
+     * @return The result of the call.
+     * @throws Exception if the call threw.
+     */
+    R call() throws Exception;
+  }
+
+  /** The deadline of the call running on the current thread, if any. */
+  private static final class Scope {
+    boolean active;
+    long deadlineNanos;
+  }
+
+  private static final ThreadLocal<Scope> SCOPE = ThreadLocal.withInitial(Scope::new);
+
+  /**
+   * Returns the time remaining before the deadline of the call running on the current thread.
+   *
+   * @return The time remaining before the deadline of the call running on the current thread, in
+   *     nanoseconds (possibly negative); or {@link Long#MAX_VALUE} if there's no such call.
+   */
+  public static long remainingNanos() {
+    Scope scope = SCOPE.get();
+    return scope.active ? scope.deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+  }
+
+  private final String name;
+  private final long timeoutNanos;
+  private final Executor executor;
+
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong timedOut = new AtomicLong();
+
+  /**
+   * Creates a deadline.
+   *
+   * @param name The name of the delegate, used in exception messages.
+   * @param timeoutMillis The timeout of each call, in milliseconds, must be positive.
+   * @param executor The executor calls are run on.
+   */
+  public Deadline(String name, long timeoutMillis, Executor executor) {
+    if (timeoutMillis <= 0) {
+      throw new IllegalArgumentException("timeoutMillis must be positive: " + timeoutMillis);
+    }
+    this.name = name;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    this.executor = executor;
+  }
+
+  /**
+   * Calls the delegate against the deadline.
+   *
+   * @param method The name of the called method, used in exception messages.
+   * @param call The call to the delegate.
+   * @return The result of the call.
+   * @throws DeadlineExceededException if the call didn't complete before the deadline.
+   * @throws InterruptedException if the calling thread was interrupted while waiting; the call is
+   *     then interrupted too.
+   * @throws Exception The exception thrown by the call.
+   */
+  public <R> R call(String method, Call<? extends R> call) throws Exception {
+    calls.incrementAndGet();
+    long start = System.nanoTime();
+    long deadlineNanos = start + timeoutNanos;
+    Scope scope = SCOPE.get();
+    if (scope.active && scope.deadlineNanos - deadlineNanos < 0) {
+      deadlineNanos = scope.deadlineNanos;
+      if (deadlineNanos - start <= 0) {
+        throw timeout(method);
+      }
+    }
+    long callDeadlineNanos = deadlineNanos;
+    FutureTask<R> task =
+        new FutureTask<>(
+            () -> {
+              Scope callScope = SCOPE.get();
+              boolean wasActive = callScope.active;
+              long previousDeadlineNanos = callScope.deadlineNanos;
+              callScope.active = true;
+              callScope.deadlineNanos = callDeadlineNanos;
+              try {
+                return call.call();
+              } finally {
+                callScope.active = wasActive;
+                callScope.deadlineNanos = previousDeadlineNanos;
+              }
+            });
+    executor.execute(task);
+    try {
+      return task.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      task.cancel(true);
+      throw timeout(method);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    } catch (InterruptedException e) {
+      task.cancel(true);
+      Thread.currentThread().interrupt();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the number of calls so far.
+   *
+   * @return The number of calls so far.
+   */
+  public long calls() {
+    return calls.get();
+  }
+
+  /**
+   * Returns the number of calls that didn't complete before their deadline so far.
+   *
+   * @return The number of calls that didn't complete before their deadline so far.
+   */
+  public long timedOut() {
+    return timedOut.get();
+  }
+
+  private DeadlineExceededException timeout(String method) {
+    timedOut.incrementAndGet();
+    return new DeadlineExceededException(name + "." + method + "() deadline exceeded");
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Reads length-prefixed frames from a channel, through a direct buffer.
+ *
+ * <p>As many bytes as available are read at once, so that pipelined frames are read with a single
+ * system call.
+ */
+final class FrameReader {
+  private final ReadableByteChannel channel;
+  private ByteBuffer buffer;
+
+  FrameReader(ReadableByteChannel channel, int capacity) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    this.buffer.limit(0);
+  }
+
+  /**
+   * Reads the next frame.
+   *
+   * @return The next frame, without its length, only valid until the next call; or {@code null}
+   *     if the channel reached end of stream between two frames.
+   */
+  @Nullable ByteBuffer next() throws IOException {
+    if (!fill(4)) {
+      return null;
+    }
+    int length = buffer.getInt(buffer.position());
+    if (length < 0) {
+      throw new IOException("Invalid frame length: " + length);
+    }
+    if (!fill(4 + length)) {
+      throw new EOFException("End of stream in the middle of a frame");
+    }
+    ByteBuffer frame = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    frame.limit(4 + length);
+    frame.position(4);
+    buffer.position(buffer.position() + 4 + length);
+    return frame;
+  }
+
+  /** Returns whether a whole frame has already been read from the channel. */
+  boolean hasNext() {
+    return buffer.remaining() >= 4 && buffer.remaining() - 4 >= buffer.getInt(buffer.position());
+  }
+
+  private boolean fill(int size) throws IOException {
+    if (buffer.remaining() >= size) {
+      return true;
+    }
+    if (buffer.capacity() < size) {
+      ByteBuffer grown =
+          ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, size))
+              .order(ByteOrder.LITTLE_ENDIAN);
+      grown.put(buffer);
+      buffer = grown;
+    } else {
+      buffer.compact();
+    }
+    while (buffer.position() < size) {
+      if (channel.read(buffer) < 0) {
+        boolean empty = buffer.position() == 0;
+        buffer.flip();
+        if (empty) {
+          return false;
+        }
+        throw new EOFException("End of stream in the middle of a frame");
+      }
+    }
+    buffer.flip();
+    return true;
+  }
+}
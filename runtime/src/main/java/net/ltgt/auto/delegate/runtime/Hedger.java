@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sends hedged requests to replicas of a delegate.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for delegates with {@code
+ * hedged} methods. A call is sent to the primary replica and, if it hasn't completed within the
+ * hedge delay, to another replica (in turn); the first successful result wins. Losing calls are
+ * skipped if they haven't started yet, and their result is otherwise ignored.
+ *
+ * <p>The hedge delay is either fixed, or the given percentile of the latencies observed so far
+ * (tracked in a histogram with power-of-two buckets, and recomputed periodically rather than on
+ * each call); no call is hedged until enough latencies have been observed. Extra load is capped by
+ * a budget: each call earns a percentage of a hedge, and a call is only hedged if a whole hedge
+ * has been earned.
+ *
+ * @param <T> The type of the replicas.
+ */
+public final class Hedger<T> {
+  /** A call to a replica. */
+  @FunctionalInterface
+  public interface Call<T, R> {
+    /**
+     * Calls the given replica.
+     *
+     * @param replica The replica to call.
+     * @return The result of the call.
+     * @throws Exception if the call threw.
+     */
+    R call(T replica) throws Exception;
+  }
+
+  private static final int MIN_SAMPLES = 100;
+  private static final int RECOMPUTE_INTERVAL = 64;
+  private static final int DECAY_INTERVAL = 1024;
+  private static final long MAX_BUDGET = 10 * 100;
+
+  private final T[] replicas;
+  private final Executor executor;
+  private final long delayNanos;
+  private final double percentile;
+  private final int budgetPercent;
+
+  private final AtomicLongArray histogram = new AtomicLongArray(Long.SIZE);
+  private final AtomicInteger samples = new AtomicInteger();
+  private final AtomicInteger nextReplica = new AtomicInteger();
+  private final AtomicLong budget = new AtomicLong();
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong hedged = new AtomicLong();
+  private volatile long observedDelayNanos = -1;
+
+  /**
+   * Creates a hedger.
+   *
+   * @param name The name of the delegate, used in exception messages.
+   * @param replicas The replicas, the first one being the primary.
+   * @param executor The executor calls are run on.
+   * @param delayMillis The hedge delay, in milliseconds; 0 to derive it from the observed
+   *     latencies.
+   * @param percentile The percentile of the observed latencies used as the hedge delay, when not
+   *     fixed.
+   * @param budgetPercent The maximum number of hedged calls, as a percentage of calls.
+   */
+  public Hedger(
+      String name,
+      T[] replicas,
+      Executor executor,
+      long delayMillis,
+      double percentile,
+      int budgetPercent) {
+    if (replicas.length == 0) {
+      throw new IllegalArgumentException(name + " must have at least one replica");
+    }
+    if (!(percentile > 0 && percentile <= 100)) {
+      throw new IllegalArgumentException("percentile must be in ]0, 100]: " + percentile);
+    }
+    this.replicas = replicas;
+    this.executor = executor;
+    this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    this.percentile = percentile;
+    this.budgetPercent = budgetPercent;
+  }
+
+  /**
+   * Calls the primary replica, hedging the call to another replica if it's too slow.
+   *
+   * @param call The call to send to replicas.
+   * @return The first successful result.
+   * @throws Exception The exception thrown by the last failing call, if all calls failed.
+   */
+  public <R> R call(Call<? super T, ? extends R> call) throws Exception {
+    calls.incrementAndGet();
+    long tokens = budget.addAndGet(budgetPercent);
+    if (tokens > MAX_BUDGET) {
+      budget.compareAndSet(tokens, MAX_BUDGET);
+    }
+    long start = System.nanoTime();
+    CompletableFuture<R> result = new CompletableFuture<>();
+    AtomicInteger pending = new AtomicInteger(1);
+    execute(replicas[0], call, result, pending);
+    long delay = replicas.length > 1 ? hedgeDelayNanos() : -1;
+    try {
+      if (delay >= 0) {
+        try {
+          return record(start, result.get(delay, TimeUnit.NANOSECONDS));
+        } catch (TimeoutException e) {
+          if (tryHedge()) {
+            pending.incrementAndGet();
+            execute(nextReplica(), call, result, pending);
+          }
+        }
+      }
+      return record(start, result.get());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    } catch (InterruptedException e) {
+      // Losing calls will be skipped if not started already.
+      result.cancel(false);
+      Thread.currentThread().interrupt();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the number of calls so far.
+   *
+   * @return The number of calls so far.
+   */
+  public long calls() {
+    return calls.get();
+  }
+
+  /**
+   * Returns the number of hedged calls so far.
+   *
+   * @return The number of hedged calls so far.
+   */
+  public long hedged() {
+    return hedged.get();
+  }
+
+  /**
+   * Returns the current hedge delay, in nanoseconds, or -1 if calls aren't hedged (yet).
+   *
+   * @return The current hedge delay, in nanoseconds, or -1 if calls aren't hedged (yet).
+   */
+  public long hedgeDelayNanos() {
+    return delayNanos > 0 ? delayNanos : observedDelayNanos;
+  }
+
+  /** Computes the hedge delay from the histogram, walking it in place. */
+  private long computeDelayNanos() {
+    long total = 0;
+    for (int i = 0; i < histogram.length(); i++) {
+      total += histogram.get(i);
+    }
+    if (total < MIN_SAMPLES) {
+      return -1;
+    }
+    long threshold = (long) Math.ceil(total * percentile / 100);
+    long cumulated = 0;
+    for (int i = 0; i < histogram.length(); i++) {
+      // Counts may have changed since the first pass; this only shifts the percentile slightly.
+      cumulated += histogram.get(i);
+      if (cumulated >= threshold) {
+        // Upper bound of the bucket
+        return i >= Long.SIZE - 2 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  private <R> void execute(
+      T replica,
+      Call<? super T, ? extends R> call,
+      CompletableFuture<R> result,
+      AtomicInteger pending) {
+    try {
+      executor.execute(
+          () -> {
+            if (result.isDone()) {
+              return;
+            }
+            try {
+              result.complete(call.call(replica));
+            } catch (Throwable e) {
+              failed(result, pending, e);
+            }
+          });
+    } catch (RuntimeException e) {
+      failed(result, pending, e);
+    }
+  }
+
+  private static void failed(CompletableFuture<?> result, AtomicInteger pending, Throwable e) {
+    // Only fail if no other call can still succeed.
+    if (pending.decrementAndGet() == 0) {
+      result.completeExceptionally(e);
+    }
+  }
+
+  private boolean tryHedge() {
+    for (; ; ) {
+      long tokens = budget.get();
+      if (tokens < 100) {
+        return false;
+      }
+      if (budget.compareAndSet(tokens, tokens - 100)) {
+        hedged.incrementAndGet();
+        return true;
+      }
+    }
+  }
+
+  private T nextReplica() {
+    int index = 1 + Math.floorMod(nextReplica.getAndIncrement(), replicas.length - 1);
+    return replicas[index];
+  }
+
+  private <R> R record(long start, R result) {
+    long latency = Math.max(1, System.nanoTime() - start);
+    histogram.incrementAndGet(Long.SIZE - 1 - Long.numberOfLeadingZeros(latency));
+    int count = samples.incrementAndGet();
+    if (count % DECAY_INTERVAL == 0) {
+      // Halve all counts so the percentile follows changes in latency.
+      for (int i = 0; i < histogram.length(); i++) {
+        long bucket = histogram.get(i);
+        histogram.compareAndSet(i, bucket, bucket >> 1);
+      }
+    }
+    if (delayNanos == 0 && (count == MIN_SAMPLES || count % RECOMPUTE_INTERVAL == 0)) {
+      observedDelayNanos = computeDelayNanos();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects metrics about calls to instrumented delegates, that can be enabled and disabled at
+ * runtime.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for {@code instrumented}
+ * delegates. Each forwarder calls the delegate through a {@code static final} {@link
+ * MethodHandle} returned by {@link #guard}, that is guarded by a {@link SwitchPoint}: until
+ * instrumentation is enabled for the first time, the JIT compiles it down to a plain call to the
+ * delegate, without any check. Enabling instrumentation invalidates the switch point, which
+ * deoptimizes the forwarders, that then call an instrumented method counting calls, failures and
+ * their cumulated duration. A switch point cannot be reset though, so once instrumentation has
+ * been enabled, disabling it again only skips the measurements, which still costs a volatile
+ * read per call.
+ *
+ * <p>Instrumentation can also be enabled at startup by setting the {@value #ENABLED_PROPERTY}
+ * system property to {@code true}.
+ */
+public final class Instrumentation {
+  /** The system property enabling instrumentation at startup. */
+  public static final String ENABLED_PROPERTY = "net.ltgt.auto.delegate.instrumentation.enabled";
+
+  private static final SwitchPoint UNINSTRUMENTED = new SwitchPoint();
+  private static final List<Instrumentation> REGISTERED = new CopyOnWriteArrayList<>();
+  private static volatile boolean enabled;
+
+  static {
+    if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+      enable();
+    }
+  }
+
+  private final String className;
+  private final String delegate;
+  private final List<String> methods;
+  private final LongAdder[] calls;
+  private final LongAdder[] failures;
+  private final LongAdder[] nanos;
+
+  private Instrumentation(String className, String delegate, String[] methods) {
+    this.className = className;
+    this.delegate = delegate;
+    this.methods = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(methods)));
+    this.calls = adders(methods.length);
+    this.failures = adders(methods.length);
+    this.nanos = adders(methods.length);
+  }
+
+  private static LongAdder[] adders(int length) {
+    LongAdder[] adders = new LongAdder[length];
+    for (int i = 0; i < length; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+
+  /**
+   * Registers an instrumented delegate.
+   *
+   * @param className The name of the class.
+   * @param delegate The name of the delegate.
+   * @param methods The signatures of the methods, indexed by method id.
+   * @return The metrics of the delegate.
+   */
+  public static Instrumentation register(String className, String delegate, String... methods) {
+    Instrumentation instrumentation = new Instrumentation(className, delegate, methods);
+    REGISTERED.add(instrumentation);
+    return instrumentation;
+  }
+
+  /**
+   * Returns a method handle calling a method of the delegate, directly or through an instrumented
+   * method depending on whether instrumentation has ever been enabled.
+   *
+   * @param lookup The lookup of the generated class.
+   * @param delegateType The type of the delegate.
+   * @param methodName The name of the method of the delegate.
+   * @param instrumentedName The name of the static method of the generated class calling the
+   *     method of the delegate with instrumentation.
+   * @param type The type of the instrumented method: the one of the method of the delegate, with
+   *     the delegate as first parameter.
+   * @return The guarded method handle, to be stored in a {@code static final} field.
+   * @throws IllegalArgumentException if one of the methods cannot be found or accessed.
+   */
+  public static MethodHandle guard(
+      MethodHandles.Lookup lookup,
+      Class<?> delegateType,
+      String methodName,
+      String instrumentedName,
+      MethodType type) {
+    try {
+      MethodHandle plain =
+          lookup
+              .findVirtual(delegateType, methodName, type.dropParameterTypes(0, 1))
+              .asFixedArity();
+      MethodHandle instrumented = lookup.findStatic(lookup.lookupClass(), instrumentedName, type);
+      return UNINSTRUMENTED.guardWithTest(plain, instrumented);
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * Enables instrumentation.
+   *
+   * <p>The first time, this deoptimizes all the instrumented forwarders.
+   */
+  public static void enable() {
+    enabled = true;
+    if (!UNINSTRUMENTED.hasBeenInvalidated()) {
+      SwitchPoint.invalidateAll(new SwitchPoint[] {UNINSTRUMENTED});
+    }
+  }
+
+  /** Disables instrumentation. */
+  public static void disable() {
+    enabled = false;
+  }
+
+  /**
+   * Returns whether instrumentation is enabled.
+   *
+   * @return Whether instrumentation is enabled.
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the metrics of all the instrumented delegates.
+   *
+   * @return The metrics of all the instrumented delegates, in registration order.
+   */
+  public static List<Instrumentation> registered() {
+    return Collections.unmodifiableList(REGISTERED);
+  }
+
+  /**
+   * Returns the start time of a call, or 0 if instrumentation is disabled.
+   *
+   * @return The start time of a call, or 0 if instrumentation is disabled.
+   */
+  public long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records a call, if instrumentation was enabled when it started.
+   *
+   * @param methodId The method id, the index of the method as passed to {@link #register}.
+   * @param startNanos The start time of the call, as returned by {@link #start()}.
+   * @param failed Whether the call threw.
+   */
+  public void record(int methodId, long startNanos, boolean failed) {
+    if (startNanos != 0) {
+      nanos[methodId].add(System.nanoTime() - startNanos);
+      calls[methodId].increment();
+      if (failed) {
+        failures[methodId].increment();
+      }
+    }
+  }
+
+  /**
+   * Returns the name of the instrumented class.
+   *
+   * @return The name of the instrumented class.
+   */
+  public String className() {
+    return className;
+  }
+
+  /**
+   * Returns the name of the instrumented delegate.
+   *
+   * @return The name of the instrumented delegate.
+   */
+  public String delegate() {
+    return delegate;
+  }
+
+  /**
+   * Returns the signatures of the methods, indexed by method id.
+   *
+   * @return The signatures of the methods, indexed by method id.
+   */
+  public List<String> methods() {
+    return methods;
+  }
+
+  /**
+   * Returns the number of calls to the given method recorded so far.
+   *
+   * @param methodId The method id.
+   * @return The number of calls to the given method recorded so far.
+   */
+  public long calls(int methodId) {
+    return calls[methodId].sum();
+  }
+
+  /**
+   * Returns the number of calls to the given method that threw, recorded so far.
+   *
+   * @param methodId The method id.
+   * @return The number of calls to the given method that threw, recorded so far.
+   */
+  public long failures(int methodId) {
+    return failures[methodId].sum();
+  }
+
+  /**
+   * Returns the cumulated duration of the calls to the given method recorded so far, in
+   * nanoseconds.
+   *
+   * @param methodId The method id.
+   * @return The cumulated duration of the calls to the given method recorded so far, in
+   *     nanoseconds.
+   */
+  public long totalNanos(int methodId) {
+    return nanos[methodId].sum();
+  }
+}
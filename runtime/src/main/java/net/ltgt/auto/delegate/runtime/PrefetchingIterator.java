@@ -0,0 +1,266 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * An iterator reading ahead from another one in the background, into a bounded buffer.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for delegates with a {@code
+ * prefetch}, to wrap the {@link Iterator}, {@link Iterable} and {@link Stream} returned by
+ * delegated methods, so that reading them (e.g. paged remote or disk reads) overlaps with the
+ * processing of their elements.
+ *
+ * <p>Reading starts as soon as the iterator is created, on the given executor, and stops when the
+ * source is exhausted, when it throws (the exception is then rethrown to the consumer after the
+ * elements read before), when the iterator is {@linkplain #close() closed}, or when it's garbage
+ * collected without having been closed. The source, if {@link AutoCloseable} (or the source
+ * stream), is then closed, on the thread that was reading it.
+ *
+ * <p>Like most iterators, instances aren't thread-safe: they must only be consumed by one thread
+ * at a time.
+ *
+ * @param <E> The type of the elements.
+ */
+public final class PrefetchingIterator<E> implements Iterator<E>, AutoCloseable {
+  /**
+   * Wraps an iterator so that it's read ahead.
+   *
+   * @param source The iterator to read ahead.
+   * @param capacity The maximum number of elements read ahead, must be positive.
+   * @param executor The executor the source is read on.
+   * @return A prefetching iterator.
+   */
+  public static <E> PrefetchingIterator<E> of(
+      Iterator<E> source, int capacity, Executor executor) {
+    return new PrefetchingIterator<>(
+        source,
+        capacity,
+        executor,
+        source instanceof AutoCloseable ? (AutoCloseable) source : null);
+  }
+
+  /**
+   * Wraps an iterable so that each of its iterators is read ahead.
+   *
+   * @param source The iterable whose iterators to read ahead.
+   * @param capacity The maximum number of elements read ahead, must be positive.
+   * @param executor The executor the source iterators are read on.
+   * @return An iterable whose iterators are prefetching iterators.
+   */
+  public static <E> Iterable<E> iterable(Iterable<E> source, int capacity, Executor executor) {
+    return () -> of(source.iterator(), capacity, executor);
+  }
+
+  /**
+   * Wraps a stream so that it's read ahead.
+   *
+   * <p>The returned stream is sequential, and closing it stops reading ahead and closes the
+   * source stream.
+   *
+   * @param source The stream to read ahead.
+   * @param capacity The maximum number of elements read ahead, must be positive.
+   * @param executor The executor the source is read on.
+   * @return A stream of the source elements, read ahead.
+   */
+  public static <E> Stream<E> stream(Stream<E> source, int capacity, Executor executor) {
+    PrefetchingIterator<E> iterator =
+        new PrefetchingIterator<>(source.iterator(), capacity, executor, source);
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+        .onClose(iterator::close);
+  }
+
+  private static final Object END = new Object();
+  private static final Object NULL = new Object();
+
+  private final Reader reader;
+  private @Nullable Object next;
+
+  private PrefetchingIterator(
+      Iterator<? extends E> source,
+      int capacity,
+      Executor executor,
+      @Nullable AutoCloseable resource) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.reader = new Reader(source, capacity, resource, this);
+    executor.execute(reader.task);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      if (reader.closed) {
+        return false;
+      }
+      try {
+        next = reader.queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+        throw new IllegalStateException("Interrupted while waiting for the next element", e);
+      }
+    }
+    if (next instanceof Failure) {
+      Throwable failure = ((Failure) next).failure;
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      throw new IllegalStateException(failure);
+    }
+    return next != END;
+  }
+
+  @Override
+  public E next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Object element = next;
+    next = null;
+    @SuppressWarnings("unchecked")
+    E e = element == NULL ? null : (E) element;
+    return e;
+  }
+
+  /**
+   * Stops reading ahead, and closes the source if it's {@link AutoCloseable}.
+   *
+   * <p>Elements already read ahead are discarded, and {@link #hasNext()} will then return {@code
+   * false}.
+   */
+  @Override
+  public void close() {
+    next = null;
+    reader.close();
+  }
+
+  private static final class Failure {
+    final Throwable failure;
+
+    Failure(Throwable failure) {
+      this.failure = failure;
+    }
+  }
+
+  /** Reads the source into the queue; doesn't reference the iterator, so it can be collected. */
+  private static final class Reader implements Runnable {
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int CLOSED = 2;
+
+    /** How often to check whether the iterator was collected, when the queue is full. */
+    private static final long POLL_MILLIS = 100;
+
+    final BlockingQueue<Object> queue;
+    final FutureTask<@Nullable Void> task = new FutureTask<>(this, null);
+    volatile boolean closed;
+
+    private final Iterator<?> source;
+    private final @Nullable AutoCloseable resource;
+    private final WeakReference<PrefetchingIterator<?>> owner;
+    private final AtomicInteger state = new AtomicInteger(NEW);
+
+    Reader(
+        Iterator<?> source,
+        int capacity,
+        @Nullable AutoCloseable resource,
+        PrefetchingIterator<?> owner) {
+      this.queue = new ArrayBlockingQueue<>(capacity);
+      this.source = source;
+      this.resource = resource;
+      this.owner = new WeakReference<>(owner);
+    }
+
+    @Override
+    public void run() {
+      if (!state.compareAndSet(NEW, RUNNING)) {
+        return;
+      }
+      try {
+        while (source.hasNext()) {
+          Object element = source.next();
+          if (!put(element == null ? NULL : element)) {
+            return;
+          }
+        }
+        put(END);
+      } catch (Throwable t) {
+        put(new Failure(t));
+      } finally {
+        closeResource();
+      }
+    }
+
+    void close() {
+      closed = true;
+      if (state.compareAndSet(NEW, CLOSED)) {
+        // The source was never read, and won't be.
+        closeResource();
+      }
+      task.cancel(true);
+      queue.clear();
+    }
+
+    /** Puts into the queue, unless the iterator was closed or collected. */
+    private boolean put(Object element) {
+      try {
+        while (!closed) {
+          if (queue.offer(element, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            return true;
+          }
+          if (owner.get() == null) {
+            return false;
+          }
+        }
+      } catch (InterruptedException e) {
+        // Closed
+      }
+      return false;
+    }
+
+    private void closeResource() {
+      if (resource == null) {
+        return;
+      }
+      try {
+        resource.close();
+      } catch (Exception e) {
+        // Nobody to report it to: the consumer stopped early, or will get END.
+      }
+    }
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Calls a delegate living in another process, through a channel.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for {@code remote} delegates,
+ * each call being made of {@link #request(int)} followed by {@link #call(RemoteMessage)}. The
+ * other process serves those calls with a {@link RemoteServer}.
+ *
+ * <p>The channel is typically a {@link java.nio.channels.SocketChannel} connected to a {@code
+ * java.net.UnixDomainSocketAddress} (Java 16 or later); it must be in blocking mode, and threads
+ * making calls must not be interrupted, as this would close it. Once the channel fails, all calls
+ * fail with an {@link UncheckedIOException}.
+ *
+ * <p>Calls are pipelined: a call only holds the channel while writing its request, and then waits
+ * for its response, so concurrent calls can have their requests in flight at the same time.
+ * Responses are matched to requests by id, so they can come back in any order; a thread waiting
+ * for its response reads responses for all the waiting threads, until it gets its own.
+ *
+ * <p>Requests are frames made of their length (4 bytes, not counting itself), the request id (4
+ * bytes), the method id (2 bytes) and the arguments. Responses are frames made of their length,
+ * the request id, the outcome (1 byte: 0 if the call returned normally, 1 if it threw) and either
+ * the result, or the class name and message of the exception. See {@link RemoteMessage} for the
+ * encoding of values.
+ */
+public final class RemoteClient {
+  static final byte OK = 0;
+  static final byte FAILED = 1;
+
+  private static final int BUFFER_CAPACITY = 4096;
+
+  private final String name;
+  private final ByteChannel channel;
+
+  private final ReentrantLock writeLock = new ReentrantLock();
+  // Guarded by writeLock.
+  private final RemoteMessage request = new RemoteMessage(BUFFER_CAPACITY);
+  private int nextId;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition responded = lock.newCondition();
+  // Guarded by lock.
+  private final Map<Integer, Pending> pending = new HashMap<>();
+  private boolean reading;
+  private @Nullable IOException failure;
+
+  // Only used by the thread currently reading.
+  private final FrameReader reader;
+
+  /**
+   * Creates a client.
+   *
+   * @param name The name of the delegate, used in exception messages.
+   * @param channel The channel connected to the {@link RemoteServer}.
+   */
+  public RemoteClient(String name, ByteChannel channel) {
+    this.name = name;
+    this.channel = channel;
+    this.reader = new FrameReader(channel, BUFFER_CAPACITY);
+  }
+
+  /**
+   * Starts a request, whose arguments are then appended to the returned message.
+   *
+   * <p>Holds the channel until the request is passed to {@link #call(RemoteMessage)}, which must
+   * immediately follow.
+   *
+   * @param methodId The id of the called method.
+   * @return The message to append the arguments to.
+   */
+  public RemoteMessage request(int methodId) {
+    writeLock.lock();
+    request.buffer().clear();
+    return request.putInt(0).putInt(nextId++).putShort((short) methodId);
+  }
+
+  /**
+   * Sends a request and waits for its response.
+   *
+   * @param request The request, as returned by {@link #request(int)}.
+   * @return The result of the call, to be read with the static methods of {@link RemoteMessage}.
+   * @throws RemoteException if the delegate threw an exception.
+   * @throws UncheckedIOException if the channel failed.
+   */
+  public ByteBuffer call(RemoteMessage request) {
+    Pending call = new Pending();
+    try {
+      ByteBuffer buffer = request.buffer();
+      request.putInt(0, buffer.position() - 4);
+      register(buffer.getInt(4), call);
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      fail(e);
+      throw failed();
+    } finally {
+      writeLock.unlock();
+    }
+    ByteBuffer response = await(call);
+    if (call.failed) {
+      String className = RemoteMessage.getString(response);
+      throw new RemoteException(
+          className == null ? "" : className, RemoteMessage.getString(response));
+    }
+    return response;
+  }
+
+  /**
+   * Returns the number of calls waiting for their response.
+   *
+   * @return The number of calls waiting for their response.
+   */
+  public int inFlight() {
+    lock.lock();
+    try {
+      return pending.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void register(int id, Pending call) {
+    lock.lock();
+    try {
+      if (failure != null) {
+        throw failed();
+      }
+      pending.put(id, call);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private ByteBuffer await(Pending call) {
+    lock.lock();
+    try {
+      for (; ; ) {
+        ByteBuffer response = call.response;
+        if (response != null) {
+          return response;
+        }
+        if (failure != null) {
+          throw failed();
+        }
+        if (reading) {
+          responded.awaitUninterruptibly();
+          continue;
+        }
+        // Read the next response, for whichever call it is, without holding the lock.
+        reading = true;
+        lock.unlock();
+        IOException error = null;
+        try {
+          readResponse();
+        } catch (IOException e) {
+          error = e;
+        } finally {
+          lock.lock();
+          reading = false;
+          if (error != null) {
+            fail(error);
+          }
+          responded.signalAll();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void readResponse() throws IOException {
+    ByteBuffer frame = reader.next();
+    if (frame == null) {
+      throw new IOException(name + " connection closed");
+    }
+    int id = frame.getInt();
+    boolean failed = frame.get() != OK;
+    // Copied as the frame is only valid until the next read.
+    ByteBuffer response = ByteBuffer.allocate(frame.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+    response.put(frame);
+    response.flip();
+    lock.lock();
+    try {
+      Pending call = pending.remove(id);
+      if (call == null) {
+        throw new IOException(name + " received a response to an unknown request: " + id);
+      }
+      call.failed = failed;
+      call.response = response;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void fail(IOException e) {
+    lock.lock();
+    try {
+      if (failure == null) {
+        failure = e;
+      }
+      pending.clear();
+      responded.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private UncheckedIOException failed() {
+    lock.lock();
+    try {
+      return new UncheckedIOException(
+          name + " connection failed", failure != null ? failure : new IOException());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class Pending {
+    // Guarded by lock.
+    @Nullable ByteBuffer response;
+    boolean failed;
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Thrown by a remote delegate's client when the delegate threw an exception in the other process.
+ *
+ * <p>The message is made of the class name of the original exception and its message.
+ */
+public class RemoteException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  private final String remoteClassName;
+
+  /**
+   * Creates an exception.
+   *
+   * @param remoteClassName The class name of the original exception.
+   * @param remoteMessage The message of the original exception, possibly {@code null}.
+   */
+  public RemoteException(String remoteClassName, @Nullable String remoteMessage) {
+    super(remoteMessage == null ? remoteClassName : remoteClassName + ": " + remoteMessage);
+    this.remoteClassName = remoteClassName;
+  }
+
+  /**
+   * Returns the class name of the original exception.
+   *
+   * @return The class name of the original exception.
+   */
+  public String remoteClassName() {
+    return remoteClassName;
+  }
+}
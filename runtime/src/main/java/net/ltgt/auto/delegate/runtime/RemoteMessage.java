@@ -0,0 +1,292 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A message to or from a remote delegate, encoded in a growable direct buffer.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for {@code remote} delegates,
+ * to encode the arguments of a call on the client side (with the {@code put} methods of a message
+ * returned by {@link RemoteClient#request(int)}) and its result on the server side, and to decode
+ * them on the other side (with the static {@code get} methods).
+ *
+ * <p>Values are encoded in little-endian byte order: primitives unboxed on their natural size
+ * (booleans on one byte), strings and byte arrays as their length (4 bytes, -1 for {@code null})
+ * followed by their bytes (UTF-8 for strings).
+ */
+public final class RemoteMessage {
+  private ByteBuffer buffer;
+
+  RemoteMessage(int capacity) {
+    this.buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Appends a boolean.
+   *
+   * @param value The value to append.
+   * @return This message.
+   */
+  public RemoteMessage putBoolean(boolean value) {
+    ensureRemaining(1).put(value ? (byte) 1 : (byte) 0);
+    return this;
+  }
+
+  /**
+   * Appends a byte.
+   *
+   * @param value The value to append.
+   * @return This message.
+   */
+  public RemoteMessage putByte(byte value) {
+    ensureRemaining(1).put(value);
+    return this;
+  }
+
+  /**
+   * Appends a short.
+   *
+   * @param value The value to append.
+   * @return This message.
+   */
+  public RemoteMessage putShort(short value) {
+    ensureRemaining(2).putShort(value);
+    return this;
+  }
+
+  /**
+   * Appends a char.
+   *
+   * @param value The value to append.
+   * @return This message.
+   */
+  public RemoteMessage putChar(char value) {
+    ensureRemaining(2).putChar(value);
+    return this;
+  }
+
+  /**
+   * Appends an int.
+   *
+   * @param value The value to append.
+   * @return This message.
+   */
+  public RemoteMessage putInt(int value) {
+    ensureRemaining(4).putInt(value);
+    return this;
+  }
+
+  /**
+   * Appends a long.
+   *
+   * @param value The value to append.
+   * @return This message.
+   */
+  public RemoteMessage putLong(long value) {
+    ensureRemaining(8).putLong(value);
+    return this;
+  }
+
+  /**
+   * Appends a float.
+   *
+   * @param value The value to append.
+   * @return This message.
+   */
+  public RemoteMessage putFloat(float value) {
+    ensureRemaining(4).putFloat(value);
+    return this;
+  }
+
+  /**
+   * Appends a double.
+   *
+   * @param value The value to append.
+   * @return This message.
+   */
+  public RemoteMessage putDouble(double value) {
+    ensureRemaining(8).putDouble(value);
+    return this;
+  }
+
+  /**
+   * Appends a string.
+   *
+   * @param value The value to append, possibly {@code null}.
+   * @return This message.
+   */
+  public RemoteMessage putString(@Nullable String value) {
+    return putBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Appends a byte array.
+   *
+   * @param value The value to append, possibly {@code null}.
+   * @return This message.
+   */
+  public RemoteMessage putBytes(byte @Nullable [] value) {
+    if (value == null) {
+      ensureRemaining(4).putInt(-1);
+    } else {
+      ensureRemaining(4 + value.length).putInt(value.length).put(value);
+    }
+    return this;
+  }
+
+  /**
+   * Reads a boolean.
+   *
+   * @param buffer The buffer to read from.
+   * @return The value read.
+   */
+  public static boolean getBoolean(ByteBuffer buffer) {
+    return buffer.get() != 0;
+  }
+
+  /**
+   * Reads a byte.
+   *
+   * @param buffer The buffer to read from.
+   * @return The value read.
+   */
+  public static byte getByte(ByteBuffer buffer) {
+    return buffer.get();
+  }
+
+  /**
+   * Reads a short.
+   *
+   * @param buffer The buffer to read from.
+   * @return The value read.
+   */
+  public static short getShort(ByteBuffer buffer) {
+    return buffer.getShort();
+  }
+
+  /**
+   * Reads a char.
+   *
+   * @param buffer The buffer to read from.
+   * @return The value read.
+   */
+  public static char getChar(ByteBuffer buffer) {
+    return buffer.getChar();
+  }
+
+  /**
+   * Reads an int.
+   *
+   * @param buffer The buffer to read from.
+   * @return The value read.
+   */
+  public static int getInt(ByteBuffer buffer) {
+    return buffer.getInt();
+  }
+
+  /**
+   * Reads a long.
+   *
+   * @param buffer The buffer to read from.
+   * @return The value read.
+   */
+  public static long getLong(ByteBuffer buffer) {
+    return buffer.getLong();
+  }
+
+  /**
+   * Reads a float.
+   *
+   * @param buffer The buffer to read from.
+   * @return The value read.
+   */
+  public static float getFloat(ByteBuffer buffer) {
+    return buffer.getFloat();
+  }
+
+  /**
+   * Reads a double.
+   *
+   * @param buffer The buffer to read from.
+   * @return The value read.
+   */
+  public static double getDouble(ByteBuffer buffer) {
+    return buffer.getDouble();
+  }
+
+  /**
+   * Reads a string.
+   *
+   * @param buffer The buffer to read from.
+   * @return The value read, possibly {@code null}.
+   */
+  public static @Nullable String getString(ByteBuffer buffer) {
+    byte[] bytes = getBytes(buffer);
+    return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads a byte array.
+   *
+   * @param buffer The buffer to read from.
+   * @return The value read, possibly {@code null}.
+   */
+  public static byte @Nullable [] getBytes(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /** Returns the underlying buffer, whose position is the end of the message. */
+  ByteBuffer buffer() {
+    return buffer;
+  }
+
+  int position() {
+    return buffer.position();
+  }
+
+  void position(int position) {
+    buffer.position(position);
+  }
+
+  /** Overwrites an int at the given index, e.g. the length of a frame once known. */
+  void putInt(int index, int value) {
+    buffer.putInt(index, value);
+  }
+
+  private ByteBuffer ensureRemaining(int size) {
+    if (buffer.remaining() < size) {
+      ByteBuffer grown =
+          ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + size))
+              .order(ByteOrder.LITTLE_ENDIAN);
+      buffer.flip();
+      grown.put(buffer);
+      buffer = grown;
+    }
+    return buffer;
+  }
+}
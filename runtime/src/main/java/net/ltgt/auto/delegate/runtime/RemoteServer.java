@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * Serves calls from {@link RemoteClient}s to a delegate living in this process.
+ *
+ * <p>Used with dispatchers returned by the {@code <name>Skeleton} methods of classes generated by
+ * <a href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for {@code remote}
+ * delegates, which decode the arguments, call the delegate, and encode its result.
+ *
+ * <p>Requests of a connection are served one after the other, in the order they were received;
+ * responses to pipelined requests that were received together are written together, once they've
+ * all been served. Exceptions thrown by the delegate are sent back to the client, that rethrows
+ * them as {@link RemoteException}s.
+ */
+public final class RemoteServer {
+  private static final int BUFFER_CAPACITY = 4096;
+
+  /** Decodes a request, calls the delegate, and encodes its result. */
+  @FunctionalInterface
+  public interface Dispatcher {
+    /**
+     * Serves a request.
+     *
+     * @param methodId The id of the called method.
+     * @param request The arguments of the call, to be read with the static methods of {@link
+     *     RemoteMessage}.
+     * @param response The message to append the result of the call to.
+     * @throws Exception if the delegate threw an exception.
+     */
+    void dispatch(int methodId, ByteBuffer request, RemoteMessage response) throws Exception;
+  }
+
+  private RemoteServer() {}
+
+  /**
+   * Serves the requests received on a connection, until it reaches end of stream.
+   *
+   * @param channel The channel connected to the {@link RemoteClient}, in blocking mode.
+   * @param dispatcher The dispatcher calling the delegate.
+   * @throws IOException if the channel failed.
+   */
+  public static void serve(ByteChannel channel, Dispatcher dispatcher) throws IOException {
+    FrameReader reader = new FrameReader(channel, BUFFER_CAPACITY);
+    RemoteMessage responses = new RemoteMessage(BUFFER_CAPACITY);
+    ByteBuffer request;
+    while ((request = reader.next()) != null) {
+      int id = request.getInt();
+      int methodId = request.getShort() & 0xFFFF;
+      int start = responses.position();
+      responses.putInt(0).putInt(id).putByte(RemoteClient.OK);
+      try {
+        dispatcher.dispatch(methodId, request, responses);
+      } catch (Exception e) {
+        responses.position(start + 8);
+        responses
+            .putByte(RemoteClient.FAILED)
+            .putString(e.getClass().getName())
+            .putString(e.getMessage());
+      }
+      responses.putInt(start, responses.position() - start - 4);
+      if (!reader.hasNext()) {
+        ByteBuffer buffer = responses.buffer();
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        buffer.clear();
+      }
+    }
+  }
+
+  /**
+   * Accepts connections and serves each one on the given executor, until the server channel is
+   * closed.
+   *
+   * <p>Connections are closed once they reach end of stream or fail.
+   *
+   * @param server The server channel, in blocking mode, typically bound to a {@code
+   *     java.net.UnixDomainSocketAddress} (Java 16 or later).
+   * @param executor The executor serving connections, each one taking a thread until it's closed.
+   * @param dispatcher The dispatcher calling the delegate.
+   * @throws IOException if the server channel failed, or was closed.
+   */
+  public static void serve(ServerSocketChannel server, Executor executor, Dispatcher dispatcher)
+      throws IOException {
+    for (; ; ) {
+      SocketChannel channel = server.accept();
+      executor.execute(
+          () -> {
+            try (SocketChannel c = channel) {
+              serve(c, dispatcher);
+            } catch (IOException e) {
+              // The client will see the connection closed.
+            }
+          });
+    }
+  }
+}
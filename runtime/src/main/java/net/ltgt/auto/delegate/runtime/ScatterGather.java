@@ -0,0 +1,250 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Splits bulk calls to a delegate into chunks processed concurrently.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for delegates with {@code
+ * scattered} methods. The input of a call is split into chunks of a fixed size, and the chunks are
+ * processed by up to {@code parallelism} workers submitted to the given executor (e.g. a {@link
+ * java.util.concurrent.ForkJoinPool} or one creating a virtual thread per task), while the calling
+ * thread waits. Results are returned in input order. Inputs that fit in a single chunk are
+ * processed directly on the calling thread.
+ *
+ * <p>Calls fail fast: as soon as a chunk fails, no other chunk is started, chunks in progress are
+ * interrupted, and the exception is thrown.
+ */
+public final class ScatterGather {
+  /** A call to the delegate for a chunk of the input. */
+  @FunctionalInterface
+  public interface Chunk<R> {
+    /**
+     * Calls the delegate for the given chunk of the input.
+     *
+     * @param from The index of the first element of the chunk in the input, inclusive.
+     * @param to The index of the last element of the chunk in the input, exclusive.
+     * @return The result of the call.
+     * @throws Exception if the call threw.
+     */
+    R call(int from, int to) throws Exception;
+  }
+
+  /**
+   * Returns the given collection as a list, copying it if needed.
+   *
+   * @param collection The collection.
+   * @return The collection as a list.
+   */
+  public static <E> List<E> asList(Collection<E> collection) {
+    return collection instanceof List ? (List<E>) collection : new ArrayList<>(collection);
+  }
+
+  /**
+   * Concatenates the results of chunks.
+   *
+   * @param results The results of chunks, in input order.
+   * @return The concatenated results.
+   */
+  public static <E> List<E> concat(List<? extends Collection<? extends E>> results) {
+    int size = 0;
+    for (Collection<? extends E> result : results) {
+      size += result.size();
+    }
+    List<E> list = new ArrayList<>(size);
+    for (Collection<? extends E> result : results) {
+      list.addAll(result);
+    }
+    return list;
+  }
+
+  /**
+   * Merges the results of chunks.
+   *
+   * @param results The results of chunks, in input order.
+   * @return The merged results, iterating in input order.
+   */
+  public static <K, V> Map<K, V> merge(List<? extends Map<? extends K, ? extends V>> results) {
+    Map<K, V> map = new LinkedHashMap<>();
+    for (Map<? extends K, ? extends V> result : results) {
+      map.putAll(result);
+    }
+    return map;
+  }
+
+  private final int chunkSize;
+  private final int parallelism;
+  private final Executor executor;
+
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong chunks = new AtomicLong();
+
+  /**
+   * Creates a scatter-gather.
+   *
+   * @param name The name of the delegate, used in exception messages.
+   * @param chunkSize The maximum number of elements in a chunk, must be positive.
+   * @param parallelism The maximum number of chunks processed concurrently for a call; 0 to use
+   *     the number of available processors.
+   * @param executor The executor chunks are processed on.
+   */
+  public ScatterGather(String name, int chunkSize, int parallelism, Executor executor) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException(name + " chunkSize must be positive: " + chunkSize);
+    }
+    if (parallelism < 0) {
+      throw new IllegalArgumentException(
+          name + " parallelism must not be negative: " + parallelism);
+    }
+    this.chunkSize = chunkSize;
+    this.parallelism =
+        parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+    this.executor = executor;
+  }
+
+  /**
+   * Calls the delegate for each chunk of the input.
+   *
+   * @param size The number of elements of the input.
+   * @param chunk The call to the delegate for a chunk of the input.
+   * @return The results of the calls, in input order.
+   * @throws InterruptedException if the calling thread was interrupted while waiting; chunks in
+   *     progress are then interrupted too.
+   * @throws Exception The exception thrown by the first failing chunk.
+   */
+  public <R> List<R> map(int size, Chunk<? extends R> chunk) throws Exception {
+    calls.incrementAndGet();
+    int count = (int) (((long) size + chunkSize - 1) / chunkSize);
+    if (count <= 1) {
+      chunks.addAndGet(count);
+      return count == 0
+          ? Collections.<R>emptyList()
+          : Collections.<R>singletonList(chunk.call(0, size));
+    }
+    Gather<R> gather = new Gather<>(size, count, chunk);
+    List<FutureTask<?>> workers = new ArrayList<>();
+    try {
+      for (int i = 0; i < Math.min(parallelism, count); i++) {
+        FutureTask<?> worker = new FutureTask<>(gather, null);
+        try {
+          executor.execute(worker);
+        } catch (RejectedExecutionException e) {
+          // Process the chunks with the workers we already have.
+          break;
+        }
+        workers.add(worker);
+      }
+      if (workers.isEmpty()) {
+        gather.run();
+      }
+      gather.done.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw e;
+    } finally {
+      if (!gather.done.isDone() || gather.done.isCompletedExceptionally()) {
+        gather.done.cancel(false);
+        for (FutureTask<?> worker : workers) {
+          worker.cancel(true);
+        }
+      }
+    }
+    @SuppressWarnings("unchecked")
+    List<R> results = (List<R>) Arrays.asList(gather.results);
+    return results;
+  }
+
+  /**
+   * Returns the number of calls so far.
+   *
+   * @return The number of calls so far.
+   */
+  public long calls() {
+    return calls.get();
+  }
+
+  /**
+   * Returns the number of chunks processed so far.
+   *
+   * @return The number of chunks processed so far.
+   */
+  public long chunks() {
+    return chunks.get();
+  }
+
+  /** The chunks of a single call, processed by each worker in turn until there are none left. */
+  private final class Gather<R> implements Runnable {
+    private final int size;
+    private final int count;
+    private final Chunk<? extends R> chunk;
+    final @Nullable Object[] results;
+    final CompletableFuture<@Nullable Void> done = new CompletableFuture<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+
+    Gather(int size, int count, Chunk<? extends R> chunk) {
+      this.size = size;
+      this.count = count;
+      this.chunk = chunk;
+      this.results = new Object[count];
+    }
+
+    @Override
+    public void run() {
+      for (int i = next.getAndIncrement();
+          i < count && !done.isDone();
+          i = next.getAndIncrement()) {
+        int from = i * chunkSize;
+        try {
+          results[i] = chunk.call(from, Math.min(size, from + chunkSize));
+        } catch (Throwable t) {
+          done.completeExceptionally(t);
+          return;
+        }
+        chunks.incrementAndGet();
+        if (completed.incrementAndGet() == count) {
+          done.complete(null);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Mirrors a sample of the calls to a delegate to a shadow delegate, comparing their latencies and
+ * results.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for delegates with a {@code
+ * shadowSampleRate}. The primary delegate is called inline; when a call is {@linkplain #sample()
+ * sampled} and has succeeded, it's replayed against the shadow on an executor, unless too many
+ * mirrored calls are already pending, in which case it's dropped. Results are compared with {@link
+ * Objects#deepEquals(Object, Object)}.
+ *
+ * @param <T> The type of the delegate.
+ */
+public final class Shadow<T> {
+  /** A call to the shadow delegate. */
+  @FunctionalInterface
+  public interface Call<T> {
+    /**
+     * Calls the given shadow delegate.
+     *
+     * @param shadow The shadow delegate.
+     * @return The result of the call, {@code null} for {@code void} methods.
+     * @throws Exception if the call threw.
+     */
+    @Nullable Object call(T shadow) throws Exception;
+  }
+
+  /** Statistics about the mirrored calls of a method. */
+  public static final class Stats {
+    private final String method;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder primaryNanos = new LongAdder();
+    private final LongAdder shadowNanos = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    Stats(String method) {
+      this.method = method;
+    }
+
+    /**
+     * Returns the signature of the method.
+     *
+     * @return The signature of the method.
+     */
+    public String method() {
+      return method;
+    }
+
+    /**
+     * Returns the number of calls mirrored to the shadow delegate and completed.
+     *
+     * @return The number of calls mirrored to the shadow delegate and completed.
+     */
+    public long calls() {
+      return calls.sum();
+    }
+
+    /**
+     * Returns the total latency of the primary delegate for mirrored calls, in nanoseconds.
+     *
+     * @return The total latency of the primary delegate for mirrored calls, in nanoseconds.
+     */
+    public long primaryNanos() {
+      return primaryNanos.sum();
+    }
+
+    /**
+     * Returns the total latency of the shadow delegate for mirrored calls, in nanoseconds.
+     *
+     * @return The total latency of the shadow delegate for mirrored calls, in nanoseconds.
+     */
+    public long shadowNanos() {
+      return shadowNanos.sum();
+    }
+
+    /**
+     * Returns the number of mirrored calls whose result differed from the primary's.
+     *
+     * @return The number of mirrored calls whose result differed from the primary's.
+     */
+    public long mismatches() {
+      return mismatches.sum();
+    }
+
+    /**
+     * Returns the number of mirrored calls that threw.
+     *
+     * @return The number of mirrored calls that threw.
+     */
+    public long failures() {
+      return failures.sum();
+    }
+  }
+
+  private final T shadow;
+  private final Executor executor;
+  private final double sampleRate;
+  private final int queueCapacity;
+  private final Stats[] stats;
+
+  private final AtomicInteger pending = new AtomicInteger();
+  private final LongAdder dropped = new LongAdder();
+
+  /**
+   * Creates a shadow.
+   *
+   * @param shadow The shadow delegate.
+   * @param executor The executor mirrored calls are run on.
+   * @param sampleRate The fraction of calls that are mirrored, between 0 and 1.
+   * @param queueCapacity The maximum number of pending mirrored calls.
+   * @param methods The signatures of the methods, indexed as in {@link #mirror}.
+   */
+  public Shadow(
+      T shadow, Executor executor, double sampleRate, int queueCapacity, String... methods) {
+    if (!(sampleRate >= 0 && sampleRate <= 1)) {
+      throw new IllegalArgumentException("sampleRate must be between 0 and 1: " + sampleRate);
+    }
+    this.shadow = Objects.requireNonNull(shadow);
+    this.executor = Objects.requireNonNull(executor);
+    this.sampleRate = sampleRate;
+    this.queueCapacity = queueCapacity;
+    this.stats = Arrays.stream(methods).map(Stats::new).toArray(Stats[]::new);
+  }
+
+  /**
+   * Returns whether the current call should be mirrored.
+   *
+   * @return Whether the current call should be mirrored.
+   */
+  public boolean sample() {
+    return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
+  /**
+   * Mirrors a call to the shadow delegate, unless too many mirrored calls are pending.
+   *
+   * <p>The call runs later on another thread, so it must only capture immutable arguments.
+   *
+   * @param method The index of the method.
+   * @param primaryNanos The latency of the primary delegate, in nanoseconds.
+   * @param primaryResult The result of the primary delegate, {@code null} for {@code void}
+   *     methods.
+   * @param call The call to mirror.
+   */
+  public void mirror(
+      int method, long primaryNanos, @Nullable Object primaryResult, Call<? super T> call) {
+    if (pending.incrementAndGet() > queueCapacity) {
+      pending.decrementAndGet();
+      dropped.increment();
+      return;
+    }
+    Stats stats = this.stats[method];
+    try {
+      executor.execute(
+          () -> {
+            try {
+              long start = System.nanoTime();
+              Object result;
+              try {
+                result = call.call(shadow);
+              } catch (Throwable e) {
+                stats.failures.increment();
+                return;
+              } finally {
+                stats.shadowNanos.add(System.nanoTime() - start);
+                stats.primaryNanos.add(primaryNanos);
+                stats.calls.increment();
+              }
+              if (!Objects.deepEquals(primaryResult, result)) {
+                stats.mismatches.increment();
+              }
+            } finally {
+              pending.decrementAndGet();
+            }
+          });
+    } catch (RuntimeException e) {
+      // The executor rejected the call.
+      pending.decrementAndGet();
+      dropped.increment();
+    }
+  }
+
+  /**
+   * Returns the number of pending mirrored calls.
+   *
+   * @return The number of pending mirrored calls.
+   */
+  public int pending() {
+    return pending.get();
+  }
+
+  /**
+   * Returns the number of calls that were sampled but dropped as too many mirrored calls were
+   * pending.
+   *
+   * @return The number of calls that were sampled but dropped.
+   */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Returns the statistics of each method.
+   *
+   * @return The statistics of each method.
+   */
+  public List<Stats> stats() {
+    return Collections.unmodifiableList(Arrays.asList(stats));
+  }
+}
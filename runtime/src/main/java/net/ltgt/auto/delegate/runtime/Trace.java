@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Records calls to traced delegates into a {@link TraceBuffer}.
+ *
+ * <p>Used by classes generated by <a
+ * href="https://github.com/tbroyer/auto-delegate">AutoDelegate</a> for {@code traced} delegates.
+ * Tracing is enabled by setting the {@value #FILE_PROPERTY} system property to the path of the
+ * ring buffer file, and optionally the {@value #CAPACITY_PROPERTY} system property to its number
+ * of records (a power of two, defaults to {@value #DEFAULT_CAPACITY}). When disabled, {@link
+ * #start()} and {@link #record} are no-ops that the JIT compiles away. Tracing is also disabled,
+ * with a warning on the standard error, if the file can't be created.
+ *
+ * <p>The names of the traced classes and methods are written to a text file next to the ring
+ * buffer file, with a {@code .names} suffix, with a line per class: the class id, the class name,
+ * the delegate name, and the method signatures, separated by tabs. Calls to a class whose names
+ * can't be written aren't traced, with a warning on the standard error.
+ */
+public final class Trace {
+  /** The system property giving the path of the ring buffer file. */
+  public static final String FILE_PROPERTY = "net.ltgt.auto.delegate.trace.file";
+
+  /** The system property giving the number of records in the ring buffer. */
+  public static final String CAPACITY_PROPERTY = "net.ltgt.auto.delegate.trace.capacity";
+
+  /** The default number of records in the ring buffer. */
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private static final @Nullable Path FILE;
+  private static final @Nullable TraceBuffer BUFFER;
+  private static final AtomicInteger CLASS_IDS = new AtomicInteger();
+
+  static {
+    String property = System.getProperty(FILE_PROPERTY);
+    Path file = null;
+    TraceBuffer buffer = null;
+    if (property != null && !property.isEmpty()) {
+      try {
+        file = Paths.get(property);
+        buffer = new TraceBuffer(file, Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+        Files.deleteIfExists(namesFile(file));
+      } catch (IOException | RuntimeException e) {
+        // Tracing must not break the application.
+        System.err.println("Could not open trace file " + property + ", tracing disabled: " + e);
+        file = null;
+        buffer = null;
+      }
+    }
+    FILE = file;
+    BUFFER = buffer;
+  }
+
+  private Trace() {}
+
+  /**
+   * Returns the file the names of traced classes and methods are written to.
+   *
+   * @param file The ring buffer file.
+   * @return The file the names of traced classes and methods are written to.
+   */
+  public static Path namesFile(Path file) {
+    return file.resolveSibling(file.getFileName() + ".names");
+  }
+
+  /**
+   * Registers a traced class, and returns its class id.
+   *
+   * @param className The name of the class.
+   * @param delegate The name of the delegate.
+   * @param methods The signatures of the methods, indexed by method id; as method ids are
+   *     recorded in 2 bytes, a class with more than 32768 methods isn't traced.
+   * @return The class id, to be passed to {@link #record}; or 0 if the class can't be traced.
+   */
+  public static int register(String className, String delegate, String... methods) {
+    if (methods.length > Short.MAX_VALUE + 1) {
+      System.err.println(
+          "Too many methods to trace in " + className + ", tracing disabled for " + className);
+      return 0;
+    }
+    int classId = CLASS_IDS.incrementAndGet();
+    Path file = FILE;
+    if (file != null) {
+      StringBuilder line =
+          new StringBuilder().append(classId).append('\t').append(className).append('\t');
+      line.append(delegate);
+      for (String method : methods) {
+        line.append('\t').append(method);
+      }
+      line.append('\n');
+      synchronized (Trace.class) {
+        try (Writer writer =
+            Files.newBufferedWriter(
+                namesFile(file),
+                StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND)) {
+          writer.write(line.toString());
+        } catch (IOException | RuntimeException e) {
+          // Tracing must not break the application; this is called from static initializers.
+          System.err.println(
+              "Could not write trace names to "
+                  + namesFile(file)
+                  + ", tracing disabled for "
+                  + className
+                  + ": "
+                  + e);
+          return 0;
+        }
+      }
+    }
+    return classId;
+  }
+
+  /**
+   * Returns the start time of a call, or 0 if tracing is disabled.
+   *
+   * @return The start time of a call, or 0 if tracing is disabled.
+   */
+  public static long start() {
+    return BUFFER == null ? 0 : System.nanoTime();
+  }
+
+  /**
+   * Records a call, if tracing is enabled for the class.
+   *
+   * @param classId The class id, as returned by {@link #register}.
+   * @param methodId The method id, the index of the method as passed to {@link #register}.
+   * @param startNanos The start time of the call, as returned by {@link #start()}.
+   * @param failed Whether the call threw.
+   */
+  public static void record(int classId, int methodId, long startNanos, boolean failed) {
+    TraceBuffer buffer = BUFFER;
+    if (buffer != null && classId != 0) {
+      buffer.write(classId, methodId, startNanos, System.nanoTime() - startNanos, failed);
+    }
+  }
+}
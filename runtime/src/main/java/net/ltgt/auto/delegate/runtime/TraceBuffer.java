@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A ring buffer of call records, in a memory-mapped file.
+ *
+ * <p>The file starts with a {@value #HEADER_SIZE}-byte header, followed by fixed-size records
+ * (little-endian):
+ *
+ * <ul>
+ *   <li>header: magic number ({@value #MAGIC}, 8 bytes), format version (4 bytes), record size
+ *       (4 bytes), capacity in records (8 bytes), wall-clock time when the file was created in
+ *       milliseconds since the epoch (8 bytes), {@link System#nanoTime()} at the same time (8
+ *       bytes)
+ *   <li>record: sequence number starting at 1, or 0 for an empty slot (8 bytes), {@link
+ *       System#nanoTime()} at the start of the call (8 bytes), thread id (8 bytes), duration in
+ *       nanoseconds (8 bytes), class id (4 bytes), method id (2 bytes), outcome: 0 if the call
+ *       returned normally, 1 if it threw (2 bytes)
+ * </ul>
+ *
+ * <p>Writers claim a slot by incrementing an atomic counter, then write the record at that slot
+ * with absolute puts, without locks nor allocation. The sequence number of the slot is first reset
+ * to 0, then the other fields are written, and the sequence number is written last, with release
+ * fences in between so those stores can't be reordered. A reader should thus discard a record
+ * whose sequence number doesn't match its slot, or changes while the other fields are read (with
+ * acquire fences in between): the record is being overwritten. Once the buffer is full, the
+ * oldest records are overwritten.
+ *
+ * <p>The fences use {@code VarHandle} on Java 9 and later, and {@code sun.misc.Unsafe} on Java 8.
+ * A buffer cannot be created if neither is available.
+ *
+ * @see Trace
+ * @see TraceDecoder
+ */
+public final class TraceBuffer {
+  /** The magic number at the start of the file. */
+  public static final long MAGIC = 0x4144_5452_4143_4531L; // "ADTRACE1"
+
+  /** The version of the file format. */
+  public static final int VERSION = 1;
+
+  /** The size of the header, in bytes. */
+  public static final int HEADER_SIZE = 64;
+
+  /** The size of a record, in bytes. */
+  public static final int RECORD_SIZE = 40;
+
+  private static final @Nullable MethodHandle RELEASE_FENCE = fence("releaseFence", "storeFence");
+  private static final @Nullable MethodHandle ACQUIRE_FENCE = fence("acquireFence", "loadFence");
+
+  private static @Nullable MethodHandle fence(String varHandleMethod, String unsafeMethod) {
+    MethodType type = MethodType.methodType(void.class);
+    try {
+      return MethodHandles.publicLookup()
+          .findStatic(Class.forName("java.lang.invoke.VarHandle"), varHandleMethod, type);
+    } catch (ReflectiveOperationException e) {
+      // Java 8
+    }
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      return MethodHandles.publicLookup()
+          .findVirtual(unsafeClass, unsafeMethod, type)
+          .bindTo(theUnsafe.get(null));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /** Orders the loads and stores before this call before the stores after it. */
+  static void releaseFence() {
+    invoke(RELEASE_FENCE);
+  }
+
+  /** Orders the loads before this call before the loads and stores after it. */
+  static void acquireFence() {
+    invoke(ACQUIRE_FENCE);
+  }
+
+  private static void invoke(@Nullable MethodHandle fence) {
+    if (fence == null) {
+      throw new UnsupportedOperationException("Memory fences aren't available");
+    }
+    try {
+      fence.invokeExact();
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private final MappedByteBuffer buffer;
+  private final long mask;
+  private final AtomicLong sequence = new AtomicLong();
+
+  /**
+   * Creates (or truncates) a file and maps it as a ring buffer.
+   *
+   * @param file The file to create.
+   * @param capacity The number of records in the ring buffer, must be a power of two.
+   * @throws IOException if the file couldn't be created or mapped.
+   */
+  public TraceBuffer(Path file, int capacity) throws IOException {
+    if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+      throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+    }
+    if (RELEASE_FENCE == null) {
+      throw new UnsupportedOperationException("Memory fences aren't available");
+    }
+    long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("capacity is too large: " + capacity);
+    }
+    try (FileChannel channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      // The mapping stays valid after the channel is closed.
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer
+        .putLong(0, MAGIC)
+        .putInt(8, VERSION)
+        .putInt(12, RECORD_SIZE)
+        .putLong(16, capacity)
+        .putLong(24, System.currentTimeMillis())
+        .putLong(32, System.nanoTime());
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * Writes a record.
+   *
+   * @param classId The class id.
+   * @param methodId The method id, at most {@link Short#MAX_VALUE}.
+   * @param startNanos The {@link System#nanoTime()} at the start of the call.
+   * @param durationNanos The duration of the call, in nanoseconds.
+   * @param failed Whether the call threw.
+   */
+  public void write(
+      int classId, int methodId, long startNanos, long durationNanos, boolean failed) {
+    long seq = sequence.incrementAndGet();
+    int offset = HEADER_SIZE + (int) ((seq - 1) & mask) * RECORD_SIZE;
+    // Invalidate the previous record first, so it can't be read with the new fields.
+    buffer.putLong(offset, 0);
+    releaseFence();
+    buffer
+        .putLong(offset + 8, startNanos)
+        .putLong(offset + 16, Thread.currentThread().getId())
+        .putLong(offset + 24, durationNanos)
+        .putInt(offset + 32, classId)
+        .putShort(offset + 36, (short) methodId)
+        .putShort(offset + 38, (short) (failed ? 1 : 0));
+    releaseFence();
+    buffer.putLong(offset, seq);
+  }
+
+  /** Forces the records written so far to the storage device. */
+  public void force() {
+    buffer.force();
+  }
+}
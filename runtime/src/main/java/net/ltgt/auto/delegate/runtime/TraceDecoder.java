@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes a {@link TraceBuffer} file into CSV or JSON.
+ *
+ * <p>Usage: {@code java -cp auto-delegate-runtime.jar net.ltgt.auto.delegate.runtime.TraceDecoder
+ * [--json] <file>}
+ *
+ * <p>Records are output in sequence order, one per line (as an array of objects in JSON), with the
+ * sequence number, the wall-clock time of the start of the call (ISO-8601), the thread id, the
+ * duration in nanoseconds, the class and delegate names, the method signature, and the outcome
+ * ({@code ok} or {@code failed}). Names are read from the {@linkplain Trace#namesFile names file}
+ * if it exists, and replaced by ids otherwise. Torn records are skipped.
+ */
+public final class TraceDecoder {
+  private TraceDecoder() {}
+
+  /**
+   * Decodes a file to the standard output.
+   *
+   * @param args The command-line arguments.
+   * @throws IOException if the file can't be read.
+   */
+  public static void main(String[] args) throws IOException {
+    boolean json = false;
+    String file = null;
+    for (String arg : args) {
+      if (arg.equals("--json")) {
+        json = true;
+      } else if (file == null && !arg.startsWith("-")) {
+        file = arg;
+      } else {
+        file = null;
+        break;
+      }
+    }
+    if (file == null) {
+      System.err.println("Usage: TraceDecoder [--json] <file>");
+      System.exit(2);
+      return;
+    }
+    decode(Paths.get(file), json, System.out);
+  }
+
+  /**
+   * Decodes a file.
+   *
+   * @param file The ring buffer file.
+   * @param json Whether to output JSON rather than CSV.
+   * @param out The stream to output to.
+   * @throws IOException if the file can't be read.
+   */
+  public static void decode(Path file, boolean json, PrintStream out) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.limit() < TraceBuffer.HEADER_SIZE || buffer.getLong(0) != TraceBuffer.MAGIC) {
+      throw new IOException("Not a trace file: " + file);
+    }
+    if (buffer.getInt(8) != TraceBuffer.VERSION) {
+      throw new IOException("Unsupported trace file version: " + buffer.getInt(8));
+    }
+    int recordSize = buffer.getInt(12);
+    long capacity = buffer.getLong(16);
+    long epochMillis = buffer.getLong(24);
+    long baseNanos = buffer.getLong(32);
+    Map<Integer, String[]> names = readNames(Trace.namesFile(file));
+
+    List<long[]> records = new ArrayList<>();
+    for (long slot = 0; slot < capacity; slot++) {
+      int offset = (int) (TraceBuffer.HEADER_SIZE + slot * recordSize);
+      long seq = buffer.getLong(offset);
+      if (seq <= 0 || (seq - 1) % capacity != slot) {
+        continue;
+      }
+      TraceBuffer.acquireFence();
+      long[] record = {
+        seq,
+        buffer.getLong(offset + 8),
+        buffer.getLong(offset + 16),
+        buffer.getLong(offset + 24),
+        buffer.getInt(offset + 32),
+        buffer.getShort(offset + 36),
+        buffer.getShort(offset + 38)
+      };
+      // The record is being overwritten by a live process.
+      TraceBuffer.acquireFence();
+      if (buffer.getLong(offset) != seq) {
+        continue;
+      }
+      records.add(record);
+    }
+    records.sort(Comparator.comparingLong(r -> r[0]));
+
+    if (json) {
+      out.println("[");
+    } else {
+      out.println("seq,timestamp,thread,durationNanos,class,delegate,method,outcome");
+    }
+    for (int i = 0; i < records.size(); i++) {
+      long[] r = records.get(i);
+      Instant timestamp = Instant.ofEpochMilli(epochMillis).plusNanos(r[1] - baseNanos);
+      String[] classNames = names.get((int) r[4]);
+      String className = classNames == null ? String.valueOf(r[4]) : classNames[1];
+      String delegate = classNames == null ? "" : classNames[2];
+      int methodIndex = 3 + (int) r[5];
+      String method =
+          classNames == null || methodIndex >= classNames.length
+              ? String.valueOf(r[5])
+              : classNames[methodIndex];
+      String outcome = r[6] == 0 ? "ok" : "failed";
+      if (json) {
+        out.printf(
+            "  {\"seq\": %d, \"timestamp\": \"%s\", \"thread\": %d, \"durationNanos\": %d,"
+                + " \"class\": %s, \"delegate\": %s, \"method\": %s, \"outcome\": \"%s\"}%s%n",
+            r[0],
+            timestamp,
+            r[2],
+            r[3],
+            jsonString(className),
+            jsonString(delegate),
+            jsonString(method),
+            outcome,
+            i < records.size() - 1 ? "," : "");
+      } else {
+        out.printf(
+            "%d,%s,%d,%d,%s,%s,%s,%s%n",
+            r[0],
+            timestamp,
+            r[2],
+            r[3],
+            csvString(className),
+            csvString(delegate),
+            csvString(method),
+            outcome);
+      }
+    }
+    if (json) {
+      out.println("]");
+    }
+  }
+
+  private static Map<Integer, String[]> readNames(Path file) throws IOException {
+    Map<Integer, String[]> names = new HashMap<>();
+    if (!Files.exists(file)) {
+      return names;
+    }
+    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+      String[] fields = line.split("\t", -1);
+      if (fields.length < 3) {
+        continue;
+      }
+      try {
+        names.put(Integer.parseInt(fields[0]), fields);
+      } catch (NumberFormatException e) {
+        // Skip a torn line
+      }
+    }
+    return names;
+  }
+
+  private static String csvString(String s) {
+    if (s.indexOf(',') < 0 && s.indexOf('"') < 0) {
+      return s;
+    }
+    return '"' + s.replace("\"", "\"\"") + '"';
+  }
+
+  private static String jsonString(String s) {
+    StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+    for (char c : s.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+public class BalancerTest {
+  @Test
+  public void selectsSingleReplica() {
+    var balancer = new Balancer("test", 1, 3, 10_000);
+
+    assertThat(balancer.select()).isEqualTo(0);
+    assertThat(balancer.inFlight(0)).isEqualTo(1);
+    balancer.release(0, System.nanoTime(), false);
+    assertThat(balancer.inFlight(0)).isEqualTo(0);
+    assertThat(balancer.latencyNanos(0)).isGreaterThan(0L);
+  }
+
+  @Test
+  public void prefersFasterReplica() {
+    var balancer = new Balancer("test", 2, 3, 10_000);
+    long[] latencies = {100_000_000, 1_000_000};
+
+    int[] calls = call(balancer, latencies, 1_000);
+
+    assertThat(calls[1]).isGreaterThan(990);
+  }
+
+  @Test
+  public void prefersLessLoadedReplica() {
+    var balancer = new Balancer("test", 2, 3, 10_000);
+    call(balancer, new long[] {1_000_000, 1_000_000}, 100);
+
+    // Leave a call in flight on the first selected replica.
+    int busy = balancer.select();
+
+    for (int i = 0; i < 100; i++) {
+      int replica = balancer.select();
+      assertThat(replica).isNotEqualTo(busy);
+      balancer.release(replica, System.nanoTime() - 1_000_000, false);
+    }
+  }
+
+  @Test
+  public void ejectsReplicaWhoseLatencySpikes() {
+    var balancer = new Balancer("test", 3, 3, 10_000);
+    long[] latencies = {1_000_000, 1_000_000, 1_000_000};
+    int slow = busiest(call(balancer, latencies, 300));
+    assertThat(balancer.ejections()).isEqualTo(0);
+
+    latencies[slow] = 100_000_000;
+    call(balancer, latencies, 300);
+
+    assertThat(balancer.isEjected(slow)).isTrue();
+    assertThat(balancer.ejections()).isEqualTo(1);
+    assertThat(call(balancer, latencies, 1_000)[slow]).isEqualTo(0);
+  }
+
+  @Test
+  public void bringsEjectedReplicaBack() throws Exception {
+    var balancer = new Balancer("test", 2, 3, 10);
+    long[] latencies = {1_000_000, 1_000_000};
+    int slow = busiest(call(balancer, latencies, 100));
+    latencies[slow] = 100_000_000;
+    call(balancer, latencies, 100);
+    assertThat(balancer.isEjected(slow)).isTrue();
+
+    Thread.sleep(20);
+
+    assertThat(balancer.isEjected(slow)).isFalse();
+    // Back with no latency, so it's measured again.
+    assertThat(balancer.latencyNanos(slow)).isEqualTo(0);
+    assertThat(balancer.select()).isEqualTo(slow);
+  }
+
+  @Test
+  public void neverEjectsLastReplicaInRotation() {
+    var balancer = new Balancer("test", 2, 3, 10_000);
+    long[] latencies = {1_000_000, 1_000_000};
+    int slow = busiest(call(balancer, latencies, 100));
+    latencies[slow] = 100_000_000;
+    call(balancer, latencies, 100);
+    assertThat(balancer.isEjected(slow)).isTrue();
+
+    latencies[1 - slow] = 10_000_000_000L;
+    call(balancer, latencies, 100);
+
+    assertThat(balancer.isEjected(1 - slow)).isFalse();
+    assertThat(balancer.ejections()).isEqualTo(1);
+  }
+
+  @Test
+  public void penalizesFailures() {
+    var balancer = new Balancer("test", 2, 3, 10_000);
+    call(balancer, new long[] {1_000_000, 1_000_000}, 100);
+
+    int failures = 0;
+    for (int i = 0; i < 100; i++) {
+      int replica = balancer.select();
+      if (replica == 0) {
+        failures++;
+      }
+      balancer.release(replica, System.nanoTime() - 1_000_000, replica == 0);
+    }
+
+    assertThat(failures).isLessThan(10);
+    assertThat(balancer.latencyNanos(0)).isGreaterThan(balancer.latencyNanos(1));
+  }
+
+  @Test
+  public void rejectsInvalidArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new Balancer("test", 0, 3, 10_000));
+    assertThrows(IllegalArgumentException.class, () -> new Balancer("test", 2, 1, 10_000));
+  }
+
+  /** Makes calls taking the given latency, depending on the selected replica. */
+  private static int[] call(Balancer balancer, long[] latencies, int count) {
+    int[] calls = new int[latencies.length];
+    for (int i = 0; i < count; i++) {
+      int replica = balancer.select();
+      calls[replica]++;
+      balancer.release(replica, System.nanoTime() - latencies[replica], false);
+    }
+    return calls;
+  }
+
+  /**
+   * Returns the replica that got the most calls, and thus has the lowest average latency: it'll be
+   * selected again, unlike replicas whose average was slightly raised by a noisy sample.
+   */
+  private static int busiest(int[] calls) {
+    int busiest = 0;
+    for (int i = 1; i < calls.length; i++) {
+      if (calls[i] > calls[busiest]) {
+        busiest = i;
+      }
+    }
+    return busiest;
+  }
+}
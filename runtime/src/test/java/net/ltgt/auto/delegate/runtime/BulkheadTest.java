@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertThrows;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+
+public class BulkheadTest {
+  @Test
+  public void rejectsBeyondLimit() {
+    var bulkhead = new Bulkhead("test", 2, false, 0);
+    long first = bulkhead.acquire();
+    bulkhead.acquire();
+    assertThat(bulkhead.inFlight()).isEqualTo(2);
+
+    var e = assertThrows(RejectedExecutionException.class, bulkhead::acquire);
+    assertThat(e).hasMessageThat().contains("test");
+    assertThat(bulkhead.rejected()).isEqualTo(1);
+
+    bulkhead.release(first);
+    bulkhead.acquire();
+    assertThat(bulkhead.inFlight()).isEqualTo(2);
+  }
+
+  @Test
+  public void waitsForPermit() throws Exception {
+    var bulkhead = new Bulkhead("test", 1, false, 10_000);
+    long start = bulkhead.acquire();
+    var acquired = new CountDownLatch(1);
+    var waiter =
+        new Thread(
+            () -> {
+              bulkhead.release(bulkhead.acquire());
+              acquired.countDown();
+            });
+    waiter.start();
+    while (bulkhead.queueDepth() == 0) {
+      Thread.sleep(1);
+    }
+    assertThat(acquired.getCount()).isEqualTo(1);
+
+    bulkhead.release(start);
+    waiter.join();
+    assertThat(acquired.getCount()).isEqualTo(0);
+    assertThat(bulkhead.queueDepth()).isEqualTo(0);
+    assertThat(bulkhead.inFlight()).isEqualTo(0);
+  }
+
+  @Test
+  public void rejectsAfterTimeout() {
+    var bulkhead = new Bulkhead("test", 1, false, 10);
+    bulkhead.acquire();
+    assertThrows(RejectedExecutionException.class, bulkhead::acquire);
+    assertThat(bulkhead.rejected()).isEqualTo(1);
+    assertThat(bulkhead.queueDepth()).isEqualTo(0);
+  }
+
+  @Test
+  public void adaptiveLimitDecreasesOnSlowCalls() {
+    var bulkhead = new Bulkhead("test", 8, true, 0);
+    call(bulkhead, 1);
+    assertThat(bulkhead.limit()).isEqualTo(8);
+
+    long slowStart = System.nanoTime() - MILLISECONDS.toNanos(20);
+    bulkhead.acquire();
+    bulkhead.release(slowStart);
+    assertThat(bulkhead.limit()).isEqualTo(6);
+    // At most once per round trip: this call started before the decrease.
+    bulkhead.acquire();
+    bulkhead.release(slowStart);
+    assertThat(bulkhead.limit()).isEqualTo(6);
+  }
+
+  @Test
+  public void adaptiveLimitIncreasesOnFastCalls() {
+    var bulkhead = new Bulkhead("test", 8, true, 0);
+    call(bulkhead, 1);
+    call(bulkhead, 20);
+    assertThat(bulkhead.limit()).isEqualTo(6);
+
+    for (int i = 0; i < 6; i++) {
+      call(bulkhead, 1);
+    }
+    assertThat(bulkhead.limit()).isEqualTo(7);
+    for (int i = 0; i < 100; i++) {
+      call(bulkhead, 1);
+    }
+    assertThat(bulkhead.limit()).isEqualTo(8);
+  }
+
+  /** Simulates a call that lasted the given number of milliseconds. */
+  private static void call(Bulkhead bulkhead, long millis) {
+    bulkhead.acquire();
+    bulkhead.release(System.nanoTime() - MILLISECONDS.toNanos(millis));
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.After;
+import org.junit.Test;
+
+public class CompositeTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final List<String> calls = new CopyOnWriteArrayList<>();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void callsAllDelegatesSerially() throws Exception {
+    var composite = new Composite<>("test", delegates("a", "b", "c"));
+
+    composite.forEach(d -> d.accept("x"));
+
+    assertThat(calls).containsExactly("a:x", "b:x", "c:x").inOrder();
+  }
+
+  @Test
+  public void isolatesFailures() {
+    @SuppressWarnings("unchecked")
+    Consumer<String>[] delegates =
+        new Consumer[] {
+          failing(new IllegalStateException("a")),
+          recording("b"),
+          failing(new IllegalArgumentException("c")),
+        };
+    var composite = new Composite<>("test", delegates);
+
+    var e = assertThrows(IllegalStateException.class, () -> composite.forEach(d -> d.accept("x")));
+
+    assertThat(e).hasMessageThat().isEqualTo("a");
+    assertThat(e.getSuppressed()[0]).isInstanceOf(IllegalArgumentException.class);
+    assertThat(calls).containsExactly("b:x");
+    assertThat(composite.failures()).isEqualTo(2);
+  }
+
+  @Test
+  public void rethrowsCheckedExceptions() {
+    var composite = new Composite<>("test", delegates("a"));
+
+    assertThrows(
+        IOException.class,
+        () ->
+            composite.forEach(
+                d -> {
+                  throw new IOException();
+                }));
+  }
+
+  @Test
+  public void callsAllDelegatesInParallel() throws Exception {
+    var latch = new CountDownLatch(3);
+    @SuppressWarnings("unchecked")
+    Consumer<String>[] delegates = new Consumer[3];
+    for (int i = 0; i < delegates.length; i++) {
+      String name = String.valueOf(i);
+      delegates[i] =
+          s -> {
+            latch.countDown();
+            try {
+              // Only completes if all delegates run concurrently
+              latch.await();
+            } catch (InterruptedException e) {
+              throw new AssertionError(e);
+            }
+            calls.add(name + ":" + s);
+          };
+    }
+    var composite = new Composite<>("test", delegates, executor, true);
+
+    composite.forEach(d -> d.accept("x"));
+
+    assertThat(calls).containsExactly("0:x", "1:x", "2:x");
+  }
+
+  @Test
+  public void isolatesFailuresInParallel() {
+    @SuppressWarnings("unchecked")
+    Consumer<String>[] delegates =
+        new Consumer[] {failing(new IllegalStateException("a")), recording("b")};
+    var composite = new Composite<>("test", delegates, executor, true);
+
+    assertThrows(IllegalStateException.class, () -> composite.forEach(d -> d.accept("x")));
+
+    assertThat(calls).containsExactly("b:x");
+    assertThat(composite.failures()).isEqualTo(1);
+  }
+
+  @Test
+  public void doesNotWaitWhenAsync() throws Exception {
+    var failures = new CopyOnWriteArrayList<Throwable>();
+    ExecutorService executor =
+        Executors.newCachedThreadPool(
+            r -> {
+              Thread thread = new Thread(r);
+              thread.setUncaughtExceptionHandler((t, e) -> failures.add(e));
+              return thread;
+            });
+    try {
+      var started = new CountDownLatch(1);
+      @SuppressWarnings("unchecked")
+      Consumer<String>[] delegates =
+          new Consumer[] {
+            s -> {
+              try {
+                started.await();
+              } catch (InterruptedException e) {
+                throw new AssertionError(e);
+              }
+              calls.add("a:" + s);
+            },
+            failing(new IllegalStateException("b")),
+          };
+      var composite = new Composite<>("test", delegates, executor, false);
+
+      composite.forEach(d -> d.accept("x"));
+      assertThat(calls).isEmpty();
+      started.countDown();
+
+      executor.shutdown();
+      assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(calls).containsExactly("a:x");
+      assertThat(failures).hasSize(1);
+      assertThat(composite.failures()).isEqualTo(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void addsAndRemovesDelegates() throws Exception {
+    var composite = new Composite<>("test", delegates("a", "b"));
+    Consumer<String> c = recording("c");
+
+    composite.add(c);
+    assertThat(composite.remove(composite.get()[0])).isTrue();
+    assertThat(composite.remove(composite.get()[0])).isTrue();
+    composite.forEach(d -> d.accept("x"));
+
+    assertThat(calls).containsExactly("c:x");
+    assertThat(composite.remove(recording("d"))).isFalse();
+  }
+
+  @Test
+  public void copiesDelegates() throws Exception {
+    Consumer<String>[] delegates = delegates("a");
+    var composite = new Composite<>("test", delegates);
+
+    delegates[0] = recording("b");
+    composite.forEach(d -> d.accept("x"));
+
+    assertThat(calls).containsExactly("a:x");
+  }
+
+  @Test
+  public void rejectsNullDelegates() {
+    @SuppressWarnings("unchecked")
+    Consumer<String>[] delegates = new Consumer[] {null};
+
+    assertThrows(NullPointerException.class, () -> new Composite<>("test", delegates));
+  }
+
+  private Consumer<String>[] delegates(String... names) {
+    @SuppressWarnings("unchecked")
+    Consumer<String>[] delegates = new Consumer[names.length];
+    for (int i = 0; i < names.length; i++) {
+      delegates[i] = recording(names[i]);
+    }
+    return delegates;
+  }
+
+  private Consumer<String> recording(String name) {
+    return s -> calls.add(name + ":" + s);
+  }
+
+  private static Consumer<String> failing(RuntimeException e) {
+    return s -> {
+      throw e;
+    };
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class DeadlineTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void returnsResult() throws Exception {
+    var deadline = new Deadline("test", 1_000, executor);
+
+    assertThat(deadline.<String>call("get", () -> "result")).isEqualTo("result");
+    assertThat(deadline.calls()).isEqualTo(1);
+    assertThat(deadline.timedOut()).isEqualTo(0);
+  }
+
+  @Test
+  public void rethrowsException() {
+    var deadline = new Deadline("test", 1_000, executor);
+
+    var e =
+        assertThrows(
+            IOException.class,
+            () ->
+                deadline.call(
+                    "get",
+                    () -> {
+                      throw new IOException("boom");
+                    }));
+    assertThat(e).hasMessageThat().isEqualTo("boom");
+  }
+
+  @Test
+  public void interruptsHangingCall() throws Exception {
+    var deadline = new Deadline("test", 100, executor);
+    var interrupted = new CountDownLatch(1);
+
+    var e =
+        assertThrows(
+            DeadlineExceededException.class,
+            () ->
+                deadline.call(
+                    "get",
+                    () -> {
+                      try {
+                        new CountDownLatch(1).await();
+                      } catch (InterruptedException ie) {
+                        interrupted.countDown();
+                      }
+                      return null;
+                    }));
+    assertThat(e).hasMessageThat().isEqualTo("test.get() deadline exceeded");
+    assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(deadline.timedOut()).isEqualTo(1);
+  }
+
+  @Test
+  public void nestedCallsUseEarliestDeadline() throws Exception {
+    var outer = new Deadline("outer", 1_000, executor);
+    var inner = new Deadline("inner", 60_000, executor);
+
+    assertThat(Deadline.remainingNanos()).isEqualTo(Long.MAX_VALUE);
+    long remainingNanos =
+        outer.<Long>call("get", () -> inner.<Long>call("get", Deadline::remainingNanos));
+    assertThat(remainingNanos).isAtMost(TimeUnit.SECONDS.toNanos(1));
+    assertThat(remainingNanos).isGreaterThan(0L);
+  }
+
+  @Test
+  public void failsFastWhenDeadlineExpired() throws Exception {
+    var outer = new Deadline("outer", 100, executor);
+    var inner = new Deadline("inner", 60_000, executor);
+    var innerError = new CompletableFuture<Throwable>();
+
+    assertThrows(
+        DeadlineExceededException.class,
+        () ->
+            outer.call(
+                "get",
+                () -> {
+                  while (Deadline.remainingNanos() > 0) {
+                    Thread.onSpinWait();
+                  }
+                  try {
+                    inner.call("get", () -> null);
+                    innerError.complete(null);
+                  } catch (Throwable e) {
+                    innerError.complete(e);
+                  }
+                  // Don't return before the outer call times out.
+                  try {
+                    new CountDownLatch(1).await();
+                  } catch (InterruptedException ie) {
+                    // expected
+                  }
+                  return null;
+                }));
+    assertThat(innerError.get(1, TimeUnit.SECONDS)).isInstanceOf(DeadlineExceededException.class);
+    assertThat(inner.timedOut()).isEqualTo(1);
+  }
+}
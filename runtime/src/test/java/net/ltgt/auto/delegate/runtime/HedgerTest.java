@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Test;
+
+public class HedgerTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final CountDownLatch never = new CountDownLatch(1);
+
+  @After
+  public void tearDown() {
+    never.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void hedgesSlowPrimary() throws Exception {
+    @SuppressWarnings("unchecked")
+    Supplier<String>[] replicas = new Supplier[] {this::hang, () -> "hedged"};
+    var hedger = new Hedger<>("test", replicas, executor, 10, 95, 100);
+
+    assertThat(hedger.call(Supplier::get)).isEqualTo("hedged");
+    assertThat(hedger.calls()).isEqualTo(1);
+    assertThat(hedger.hedged()).isEqualTo(1);
+  }
+
+  @Test
+  public void doesNotHedgeFastPrimary() throws Exception {
+    @SuppressWarnings("unchecked")
+    Supplier<String>[] replicas = new Supplier[] {() -> "primary", this::hang};
+    var hedger = new Hedger<>("test", replicas, executor, 1_000, 95, 100);
+
+    assertThat(hedger.call(Supplier::get)).isEqualTo("primary");
+    assertThat(hedger.hedged()).isEqualTo(0);
+  }
+
+  @Test
+  public void budgetCapsHedges() throws Exception {
+    @SuppressWarnings("unchecked")
+    Supplier<String>[] replicas =
+        new Supplier[] {
+          () -> {
+            sleep(20);
+            return "primary";
+          },
+          () -> "hedged"
+        };
+    var hedger = new Hedger<>("test", replicas, executor, 1, 95, 50);
+
+    for (int i = 0; i < 10; i++) {
+      hedger.call(Supplier::get);
+    }
+    assertThat(hedger.calls()).isEqualTo(10);
+    assertThat(hedger.hedged()).isEqualTo(5);
+  }
+
+  @Test
+  public void failsWhenAllCallsFail() {
+    Supplier<String> failing =
+        () -> {
+          sleep(20);
+          throw new IllegalStateException("failed");
+        };
+    @SuppressWarnings("unchecked")
+    Supplier<String>[] replicas = new Supplier[] {failing, failing};
+    var hedger = new Hedger<>("test", replicas, executor, 1, 95, 100);
+
+    var e = assertThrows(IllegalStateException.class, () -> hedger.call(Supplier::get));
+    assertThat(e).hasMessageThat().isEqualTo("failed");
+    assertThat(hedger.hedged()).isEqualTo(1);
+  }
+
+  @Test
+  public void rethrowsCheckedException() {
+    var hedger = new Hedger<>("test", new String[] {"primary"}, executor, 0, 95, 100);
+
+    assertThrows(
+        IOException.class,
+        () ->
+            hedger.call(
+                replica -> {
+                  throw new IOException(replica);
+                }));
+  }
+
+  @Test
+  public void derivesDelayFromObservedLatencies() throws Exception {
+    var hedger = new Hedger<>("test", new String[] {"primary", "secondary"}, executor, 0, 50, 0);
+    assertThat(hedger.hedgeDelayNanos()).isEqualTo(-1);
+
+    for (int i = 0; i < 100; i++) {
+      hedger.call(replica -> replica);
+    }
+    assertThat(hedger.hedgeDelayNanos()).isAtLeast(1);
+    assertThat(hedger.hedgeDelayNanos()).isLessThan(Long.MAX_VALUE);
+    assertThat(hedger.hedged()).isEqualTo(0);
+  }
+
+  private String hang() {
+    try {
+      never.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return "hung";
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.IntUnaryOperator;
+import org.junit.After;
+import org.junit.Test;
+
+public class InstrumentationTest {
+  private static final Instrumentation INSTRUMENTATION =
+      Instrumentation.register(InstrumentationTest.class.getName(), "op", "applyAsInt(int)");
+
+  private static int instrumentedCalls;
+
+  // Mimics the members generated for an instrumented delegate.
+  private static int instrumented(IntUnaryOperator delegate, int operand) {
+    instrumentedCalls++;
+    long start = INSTRUMENTATION.start();
+    boolean failed = false;
+    try {
+      return delegate.applyAsInt(operand);
+    } catch (Throwable e) {
+      failed = true;
+      throw e;
+    } finally {
+      INSTRUMENTATION.record(0, start, failed);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    Instrumentation.disable();
+  }
+
+  @Test
+  public void switchesToInstrumentedMethodOnceEnabled() throws Throwable {
+    MethodHandle handle =
+        Instrumentation.guard(
+            MethodHandles.lookup(),
+            IntUnaryOperator.class,
+            "applyAsInt",
+            "instrumented",
+            MethodType.methodType(int.class, IntUnaryOperator.class, int.class));
+    IntUnaryOperator delegate = i -> 10 / i;
+
+    // The switch point can't be reset, so this only holds if no other test enabled it first.
+    if (!Instrumentation.isEnabled() && instrumentedCalls == 0) {
+      assertThat((int) handle.invokeExact(delegate, 2)).isEqualTo(5);
+      assertThat(instrumentedCalls).isEqualTo(0);
+      assertThat(INSTRUMENTATION.calls(0)).isEqualTo(0);
+    }
+
+    long calls = INSTRUMENTATION.calls(0);
+    long failures = INSTRUMENTATION.failures(0);
+    Instrumentation.enable();
+    assertThat(Instrumentation.isEnabled()).isTrue();
+    assertThat((int) handle.invokeExact(delegate, 2)).isEqualTo(5);
+    assertThrows(
+        ArithmeticException.class,
+        () -> {
+          int unused = (int) handle.invokeExact(delegate, 0);
+        });
+    assertThat(INSTRUMENTATION.calls(0)).isEqualTo(calls + 2);
+    assertThat(INSTRUMENTATION.failures(0)).isEqualTo(failures + 1);
+    assertThat(INSTRUMENTATION.totalNanos(0)).isGreaterThan(0L);
+
+    Instrumentation.disable();
+    int instrumented = instrumentedCalls;
+    assertThat((int) handle.invokeExact(delegate, 2)).isEqualTo(5);
+    // Still goes through the instrumented method, but doesn't record anything.
+    assertThat(instrumentedCalls).isEqualTo(instrumented + 1);
+    assertThat(INSTRUMENTATION.calls(0)).isEqualTo(calls + 2);
+  }
+
+  @Test
+  public void registersDelegates() {
+    assertThat(Instrumentation.registered()).contains(INSTRUMENTATION);
+    assertThat(INSTRUMENTATION.className()).isEqualTo(InstrumentationTest.class.getName());
+    assertThat(INSTRUMENTATION.delegate()).isEqualTo("op");
+    assertThat(INSTRUMENTATION.methods()).containsExactly("applyAsInt(int)");
+  }
+
+  @Test
+  public void rejectsUnknownMethods() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            Instrumentation.guard(
+                MethodHandles.lookup(),
+                IntUnaryOperator.class,
+                "applyAsInt",
+                "unknown",
+                MethodType.methodType(int.class, IntUnaryOperator.class, int.class)));
+  }
+}
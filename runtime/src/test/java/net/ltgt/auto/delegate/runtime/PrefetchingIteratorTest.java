@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Test;
+
+public class PrefetchingIteratorTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void readsAhead() throws Exception {
+    var source = new CountingIterator(Arrays.asList("a", null, "c", "d").iterator());
+    var iterator = PrefetchingIterator.of(source, 2, executor);
+
+    // Two elements buffered, and a third one read and waiting for room.
+    source.awaitRead(3);
+    var elements = new ArrayList<String>();
+    iterator.forEachRemaining(elements::add);
+    assertThat(elements).containsExactly("a", null, "c", "d").inOrder();
+    assertThat(iterator.hasNext()).isFalse();
+  }
+
+  @Test
+  public void rethrowsFailureAfterElements() {
+    Iterator<String> source =
+        new Iterator<>() {
+          private int i;
+
+          @Override
+          public boolean hasNext() {
+            return true;
+          }
+
+          @Override
+          public String next() {
+            if (i == 2) {
+              throw new IllegalStateException("boom");
+            }
+            return String.valueOf(i++);
+          }
+        };
+    var iterator = PrefetchingIterator.of(source, 10, executor);
+
+    assertThat(iterator.next()).isEqualTo("0");
+    assertThat(iterator.next()).isEqualTo("1");
+    var e = assertThrows(IllegalStateException.class, iterator::hasNext);
+    assertThat(e).hasMessageThat().isEqualTo("boom");
+  }
+
+  @Test
+  public void closeStopsReadingAndClosesSource() throws Exception {
+    var closed = new CountDownLatch(1);
+    Stream<Integer> source = Stream.iterate(0, i -> i + 1).onClose(closed::countDown);
+
+    try (var stream = PrefetchingIterator.stream(source, 4, executor)) {
+      assertThat(stream.limit(10).collect(toList()))
+          .containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)
+          .inOrder();
+    }
+    assertThat(closed.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void iterableReadsEachIteratorAhead() {
+    List<Integer> source = Arrays.asList(1, 2, 3);
+    var iterable = PrefetchingIterator.iterable(source, 1, executor);
+
+    for (int i = 0; i < 2; i++) {
+      var elements = new ArrayList<Integer>();
+      iterable.forEach(elements::add);
+      assertThat(elements).containsExactly(1, 2, 3).inOrder();
+    }
+  }
+
+  private static class CountingIterator implements Iterator<String> {
+    private final Iterator<String> delegate;
+    private final AtomicInteger read = new AtomicInteger();
+
+    CountingIterator(Iterator<String> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return delegate.hasNext();
+    }
+
+    @Override
+    public String next() {
+      String next = delegate.next();
+      read.incrementAndGet();
+      return next;
+    }
+
+    void awaitRead(int count) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+      while (read.get() < count) {
+        assertThat(System.nanoTime() - deadline).isLessThan(0L);
+        Thread.sleep(1);
+      }
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RemoteClientTest {
+  private static final int ECHO = 0;
+  private static final int INCREMENT = 1;
+  private static final int FAIL = 2;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private UnixDomainSocketAddress address;
+  private ServerSocketChannel server;
+
+  @Before
+  public void setUp() throws Exception {
+    address = UnixDomainSocketAddress.of(temporaryFolder.getRoot().toPath().resolve("test.sock"));
+    server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    server.bind(address);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+    executor.shutdownNow();
+  }
+
+  private void serve() {
+    executor.execute(
+        () -> {
+          try {
+            RemoteServer.serve(server, executor, RemoteClientTest::dispatch);
+          } catch (Exception e) {
+            // The server channel was closed.
+          }
+        });
+  }
+
+  private static void dispatch(int methodId, ByteBuffer request, RemoteMessage response) {
+    switch (methodId) {
+      case ECHO:
+        response
+            .putBoolean(RemoteMessage.getBoolean(request))
+            .putByte(RemoteMessage.getByte(request))
+            .putShort(RemoteMessage.getShort(request))
+            .putChar(RemoteMessage.getChar(request))
+            .putInt(RemoteMessage.getInt(request))
+            .putLong(RemoteMessage.getLong(request))
+            .putFloat(RemoteMessage.getFloat(request))
+            .putDouble(RemoteMessage.getDouble(request))
+            .putString(RemoteMessage.getString(request))
+            .putString(RemoteMessage.getString(request))
+            .putBytes(RemoteMessage.getBytes(request));
+        break;
+      case INCREMENT:
+        response.putInt(RemoteMessage.getInt(request) + 1);
+        break;
+      case FAIL:
+        throw new IllegalStateException(RemoteMessage.getString(request));
+      default:
+        throw new UnsupportedOperationException("Unknown method id: " + methodId);
+    }
+  }
+
+  @Test
+  public void roundTripsValues() throws Exception {
+    serve();
+    var client = new RemoteClient("test", SocketChannel.open(address));
+    byte[] large = new byte[100_000];
+    large[large.length - 1] = 42;
+
+    ByteBuffer response =
+        client.call(
+            client
+                .request(ECHO)
+                .putBoolean(true)
+                .putByte((byte) -1)
+                .putShort((short) 1234)
+                .putChar('é')
+                .putInt(Integer.MIN_VALUE)
+                .putLong(Long.MAX_VALUE)
+                .putFloat(1.5f)
+                .putDouble(Math.PI)
+                .putString("héllo")
+                .putString(null)
+                .putBytes(large));
+
+    assertThat(RemoteMessage.getBoolean(response)).isTrue();
+    assertThat(RemoteMessage.getByte(response)).isEqualTo((byte) -1);
+    assertThat(RemoteMessage.getShort(response)).isEqualTo((short) 1234);
+    assertThat(RemoteMessage.getChar(response)).isEqualTo('é');
+    assertThat(RemoteMessage.getInt(response)).isEqualTo(Integer.MIN_VALUE);
+    assertThat(RemoteMessage.getLong(response)).isEqualTo(Long.MAX_VALUE);
+    assertThat(RemoteMessage.getFloat(response)).isEqualTo(1.5f);
+    assertThat(RemoteMessage.getDouble(response)).isEqualTo(Math.PI);
+    assertThat(RemoteMessage.getString(response)).isEqualTo("héllo");
+    assertThat(RemoteMessage.getString(response)).isNull();
+    assertThat(RemoteMessage.getBytes(response)).isEqualTo(large);
+    assertThat(response.hasRemaining()).isFalse();
+  }
+
+  @Test
+  public void rethrowsExceptions() throws Exception {
+    serve();
+    var client = new RemoteClient("test", SocketChannel.open(address));
+
+    var e =
+        assertThrows(
+            RemoteException.class, () -> client.call(client.request(FAIL).putString("boom")));
+
+    assertThat(e.remoteClassName()).isEqualTo(IllegalStateException.class.getName());
+    assertThat(e).hasMessageThat().isEqualTo("java.lang.IllegalStateException: boom");
+    // The connection is still usable.
+    assertThat(RemoteMessage.getInt(client.call(client.request(INCREMENT).putInt(1))))
+        .isEqualTo(2);
+  }
+
+  @Test
+  public void pipelinesConcurrentCalls() throws Exception {
+    serve();
+    var client = new RemoteClient("test", SocketChannel.open(address));
+
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      int thread = i;
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int j = 0; j < 1_000; j++) {
+                  int value = thread * 1_000_000 + j;
+                  assertThat(
+                          RemoteMessage.getInt(
+                              client.call(client.request(INCREMENT).putInt(value))))
+                      .isEqualTo(value + 1);
+                }
+              }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+
+    assertThat(client.inFlight()).isEqualTo(0);
+  }
+
+  @Test
+  public void matchesResponsesOutOfOrder() throws Exception {
+    Future<?> serverTask =
+        executor.submit(
+            () -> {
+              try (SocketChannel channel = server.accept()) {
+                // Answer two requests in reverse order.
+                FrameReader reader = new FrameReader(channel, 16);
+                int first = reader.next().getInt();
+                int second = reader.next().getInt();
+                RemoteMessage responses = new RemoteMessage(16);
+                responses.putInt(9).putInt(second).putByte(RemoteClient.OK).putInt(2);
+                responses.putInt(9).putInt(first).putByte(RemoteClient.OK).putInt(1);
+                ByteBuffer buffer = responses.buffer();
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                  channel.write(buffer);
+                }
+              }
+              return null;
+            });
+    var client = new RemoteClient("test", SocketChannel.open(address));
+
+    Future<Integer> first =
+        executor.submit(() -> RemoteMessage.getInt(client.call(client.request(INCREMENT))));
+    while (client.inFlight() == 0) {
+      Thread.sleep(1);
+    }
+    Future<Integer> second =
+        executor.submit(() -> RemoteMessage.getInt(client.call(client.request(INCREMENT))));
+
+    assertThat(first.get()).isEqualTo(1);
+    assertThat(second.get()).isEqualTo(2);
+    serverTask.get();
+  }
+
+  @Test
+  public void failsAllCallsOnceConnectionIsClosed() throws Exception {
+    Future<?> serverTask =
+        executor.submit(
+            () -> {
+              server.accept().close();
+              return null;
+            });
+    var client = new RemoteClient("test", SocketChannel.open(address));
+    serverTask.get();
+
+    assertThrows(UncheckedIOException.class, () -> client.call(client.request(INCREMENT)));
+    assertThrows(UncheckedIOException.class, () -> client.call(client.request(INCREMENT)));
+    assertThat(client.inFlight()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class ScatterGatherTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void splitsIntoChunks() throws Exception {
+    var scatterGather = new ScatterGather("test", 10, 4, executor);
+
+    List<String> results = scatterGather.map(35, (from, to) -> from + "-" + to);
+
+    assertThat(results).containsExactly("0-10", "10-20", "20-30", "30-35").inOrder();
+    assertThat(scatterGather.calls()).isEqualTo(1);
+    assertThat(scatterGather.chunks()).isEqualTo(4);
+  }
+
+  @Test
+  public void processesChunksConcurrently() throws Exception {
+    var scatterGather = new ScatterGather("test", 1, 3, executor);
+    var latch = new CountDownLatch(3);
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+    scatterGather.map(
+        3,
+        (from, to) -> {
+          threads.add(Thread.currentThread());
+          latch.countDown();
+          // Only completes if all chunks are processed concurrently
+          assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+          return null;
+        });
+
+    assertThat(threads).hasSize(3);
+    assertThat(threads).doesNotContain(Thread.currentThread());
+  }
+
+  @Test
+  public void capsParallelism() throws Exception {
+    var scatterGather = new ScatterGather("test", 1, 2, executor);
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+    scatterGather.map(100, (from, to) -> threads.add(Thread.currentThread()));
+
+    assertThat(threads.size()).isAtMost(2);
+  }
+
+  @Test
+  public void callsSmallInputsOnCallingThread() throws Exception {
+    var scatterGather = new ScatterGather("test", 10, 4, executor);
+
+    List<Thread> results = scatterGather.map(10, (from, to) -> Thread.currentThread());
+
+    assertThat(results).containsExactly(Thread.currentThread());
+    assertThat(scatterGather.map(0, (from, to) -> from)).isEmpty();
+  }
+
+  @Test
+  public void failsFast() throws Exception {
+    var scatterGather = new ScatterGather("test", 1, 2, executor);
+    var interrupted = new CountDownLatch(1);
+    var never = new CountDownLatch(1);
+
+    assertThrows(
+        IOException.class,
+        () ->
+            scatterGather.map(
+                100,
+                (from, to) -> {
+                  if (from == 0) {
+                    try {
+                      never.await();
+                    } catch (InterruptedException e) {
+                      interrupted.countDown();
+                    }
+                    return null;
+                  }
+                  throw new IOException();
+                }));
+
+    assertThat(interrupted.await(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void concatenatesInOrder() {
+    List<String> results =
+        ScatterGather.concat(Arrays.asList(Arrays.asList("a", "b"), Set.of("c"), List.of()));
+
+    assertThat(results).containsExactly("a", "b", "c").inOrder();
+  }
+
+  @Test
+  public void mergesInOrder() {
+    Map<String, Integer> results = ScatterGather.merge(List.of(Map.of("a", 1), Map.of("b", 2)));
+
+    assertThat(results).containsExactly("a", 1, "b", 2).inOrder();
+  }
+
+  @Test
+  public void asListCopiesOnlyIfNeeded() {
+    List<String> list = new ArrayList<>(List.of("a"));
+
+    assertThat(ScatterGather.asList(list)).isSameInstanceAs(list);
+    assertThat(ScatterGather.asList(Set.of("a"))).containsExactly("a");
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class ShadowTest {
+  @Test
+  public void recordsMismatchesAndFailures() {
+    var shadow = new Shadow<>("shadow", Runnable::run, 1, 10, "m()");
+    assertThat(shadow.sample()).isTrue();
+
+    shadow.mirror(0, 100, "shadow", s -> s);
+    shadow.mirror(0, 100, "primary", s -> s);
+    shadow.mirror(
+        0,
+        100,
+        "primary",
+        s -> {
+          throw new IllegalStateException(s);
+        });
+
+    var stats = shadow.stats().get(0);
+    assertThat(stats.method()).isEqualTo("m()");
+    assertThat(stats.calls()).isEqualTo(3);
+    assertThat(stats.primaryNanos()).isEqualTo(300);
+    assertThat(stats.mismatches()).isEqualTo(1);
+    assertThat(stats.failures()).isEqualTo(1);
+    assertThat(shadow.pending()).isEqualTo(0);
+  }
+
+  @Test
+  public void comparesArrayContents() {
+    var shadow = new Shadow<>("shadow", Runnable::run, 1, 10, "m()");
+
+    shadow.mirror(0, 100, new byte[] {1, 2}, s -> new byte[] {1, 2});
+
+    assertThat(shadow.stats().get(0).mismatches()).isEqualTo(0);
+  }
+
+  @Test
+  public void dropsWhenQueueIsFull() {
+    List<Runnable> queue = new ArrayList<>();
+    var shadow = new Shadow<>("shadow", queue::add, 1, 2, "m()");
+
+    for (int i = 0; i < 5; i++) {
+      shadow.mirror(0, 100, null, s -> null);
+    }
+    assertThat(queue).hasSize(2);
+    assertThat(shadow.pending()).isEqualTo(2);
+    assertThat(shadow.dropped()).isEqualTo(3);
+
+    queue.forEach(Runnable::run);
+    assertThat(shadow.pending()).isEqualTo(0);
+    assertThat(shadow.stats().get(0).calls()).isEqualTo(2);
+  }
+
+  @Test
+  public void neverSamplesAtZeroRate() {
+    var shadow = new Shadow<>("shadow", Runnable::run, 0, 10, "m()");
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(shadow.sample()).isFalse();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TraceDecoderTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void decodesLatestRecordsAsCsv() throws Exception {
+    Path file = temporaryFolder.getRoot().toPath().resolve("trace");
+    var buffer = new TraceBuffer(file, 4);
+    for (int i = 1; i <= 6; i++) {
+      buffer.write(1, i % 2, 0, i * 100, i == 5);
+    }
+    Files.write(Trace.namesFile(file), Arrays.asList("1\tfoo.C\tbar\tm()\tn(int)"), UTF_8);
+
+    List<String> lines = decode(file, false);
+
+    assertThat(lines).hasSize(5);
+    assertThat(lines.get(0))
+        .isEqualTo("seq,timestamp,thread,durationNanos,class,delegate,method,outcome");
+    assertThat(lines.get(1)).startsWith("3,");
+    assertThat(lines.get(1)).endsWith(",300,foo.C,bar,n(int),ok");
+    assertThat(lines.get(3)).startsWith("5,");
+    assertThat(lines.get(3)).endsWith(",500,foo.C,bar,n(int),failed");
+    assertThat(lines.get(4)).endsWith(",600,foo.C,bar,m(),ok");
+  }
+
+  @Test
+  public void decodesAsJson() throws Exception {
+    Path file = temporaryFolder.getRoot().toPath().resolve("trace");
+    var buffer = new TraceBuffer(file, 4);
+    buffer.write(1, 0, 0, 100, false);
+
+    List<String> lines = decode(file, true);
+
+    assertThat(lines).hasSize(3);
+    assertThat(lines.get(0)).isEqualTo("[");
+    assertThat(lines.get(1)).startsWith("  {\"seq\": 1, \"timestamp\": \"");
+    // No names file: ids are output instead
+    assertThat(lines.get(1))
+        .endsWith(
+            "\"durationNanos\": 100, \"class\": \"1\", \"delegate\": \"\", \"method\": \"0\","
+                + " \"outcome\": \"ok\"}");
+    assertThat(lines.get(2)).isEqualTo("]");
+  }
+
+  @Test
+  public void skipsRecordsBeingOverwritten() throws Exception {
+    Path file = temporaryFolder.getRoot().toPath().resolve("trace");
+    var buffer = new TraceBuffer(file, 4);
+    for (int i = 1; i <= 4; i++) {
+      buffer.write(1, 0, 0, i * 100, false);
+    }
+    // A writer overwriting the first slot has reset its sequence number, but not written the other
+    // fields yet.
+    try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(8), TraceBuffer.HEADER_SIZE);
+    }
+
+    List<String> lines = decode(file, false);
+
+    assertThat(lines).hasSize(4);
+    assertThat(lines.get(1)).startsWith("2,");
+    assertThat(lines.get(3)).startsWith("4,");
+  }
+
+  private static List<String> decode(Path file, boolean json) throws Exception {
+    var out = new ByteArrayOutputStream();
+    try (var printStream = new PrintStream(out, true, "UTF-8")) {
+      TraceDecoder.decode(file, json, printStream);
+    }
+    return Arrays.asList(out.toString("UTF-8").split("\\R"));
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2023 Thomas Broyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ltgt.auto.delegate.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class TraceTest {
+  @Test
+  public void doesNotTraceClassesWithTooManyMethods() {
+    String[] methods = new String[Short.MAX_VALUE + 2];
+    Arrays.fill(methods, "m()");
+
+    assertThat(Trace.register("foo.C", "bar", methods)).isEqualTo(0);
+  }
+}
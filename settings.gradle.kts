@@ -11,6 +11,6 @@ dependencyResolutionManagement {
     }
 }
 rootProject.name = "auto-delegate"
-include("annotations", "processor")
+include("annotations", "processor", "runtime")
 
 enableFeaturePreview("TYPESAFE_PROJECT_ACCESSORS")